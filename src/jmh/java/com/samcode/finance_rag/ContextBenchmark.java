@@ -0,0 +1,79 @@
+package com.samcode.finance_rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt-side cost per request at different top-k: context packing in
+ * {@link ContextAssembler}, the full Gemini prompt, and source citations.
+ *
+ * The retrieved set is sampled from the bundled deck's chunks so it has the same mix of
+ * paragraphs and their children that a real search returns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+
+    private static final String QUESTION = "How did investment grade credit spreads move over the month?";
+
+    @Param({"4", "8", "16", "32", "64"})
+    public int topK;
+
+    private RetrievalService retrievalService;
+    private List<Document> retrieved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Context building never touches the vector store or the embedding model
+        retrievalService = new RetrievalService(null, null, new ContextAssembler(3000), null, topK, 0.0, false, false, 60);
+
+        List<Document> chunks = SyntheticDeck.chunks(SyntheticDeck.BUNDLED);
+        Random random = new Random(topK);
+        retrieved = new ArrayList<>(topK);
+        for (int i = 0; i < topK; i++) {
+            Document chunk = chunks.get(random.nextInt(chunks.size()));
+            retrieved.add(Document.builder()
+                    .text(chunk.getText())
+                    .metadata(chunk.getMetadata())
+                    .score(1.0 - i * 0.01)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public String buildContext() {
+        return retrievalService.buildContext(retrieved);
+    }
+
+    @Benchmark
+    public String buildPromptWithContext() {
+        return FinancialPrompts.STATIC_PREFIX + FinancialPrompts.userPrompt(QUESTION, retrievalService.buildContext(retrieved));
+    }
+
+    @Benchmark
+    public List<Map<String, String>> describeSources() {
+        return retrievalService.describeSources(retrieved);
+    }
+}
@@ -0,0 +1,65 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Deterministic offline embedding for benchmarks: lower-cased word tokens hashed into a
+ * fixed number of buckets and L2-normalised. Texts sharing words land close together, which
+ * is enough to give vector search a realistic result distribution without an API call.
+ */
+final class HashingEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+
+    HashingEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+        for (int i = 0; i < request.getInstructions().size(); i++) {
+            embeddings.add(new Embedding(embedText(request.getInstructions().get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embedText(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    float[] embedText(String text) {
+        float[] vector = new float[dimensions];
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^a-z0-9%$.]+")) {
+            if (!token.isEmpty()) {
+                int hash = token.hashCode() * 0x9E3779B9;
+                vector[Math.floorMod(hash, dimensions)] += (hash & 1) == 0 ? 1 : -1;
+            }
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+}
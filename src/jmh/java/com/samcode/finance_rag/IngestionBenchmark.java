@@ -0,0 +1,87 @@
+package com.samcode.finance_rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.ai.document.Document;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion CPU cost without embedding: PDF parsing with {@link PdfParagraphReader} plus
+ * {@link ChunkingEngine}, and chunking alone over pre-parsed paragraphs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestionBenchmark {
+
+    private static final long PDF_MEMORY_BYTES = 16L * 1024 * 1024;
+
+    @Param({SyntheticDeck.BUNDLED, "deck-100", "deck-500"})
+    public String source;
+
+    private final ChunkingEngine chunkingEngine = new ChunkingEngine();
+    private String filename;
+    private Path pdf;
+    private List<Document> paragraphs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        filename = SyntheticDeck.filename(source);
+        pdf = SyntheticDeck.write(source);
+        paragraphs = new ArrayList<>();
+        try (PdfParagraphReader reader = new PdfParagraphReader(pdf, filename, PDF_MEMORY_BYTES)) {
+            reader.forEachRemaining(paragraphs::add);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(pdf);
+    }
+
+    @Benchmark
+    public int parseAndChunk(Blackhole blackhole) throws IOException {
+        int chunks = 0;
+        int paragraphIndex = 0;
+        try (PdfParagraphReader reader = new PdfParagraphReader(pdf, filename, PDF_MEMORY_BYTES)) {
+            while (reader.hasNext()) {
+                List<Document> paragraphChunks = chunkingEngine.chunk(reader.next(), paragraphIndex++, filename);
+                blackhole.consume(paragraphChunks);
+                chunks += paragraphChunks.size();
+            }
+        }
+        return chunks;
+    }
+
+    @Benchmark
+    public int chunkOnly(Blackhole blackhole) {
+        int chunks = 0;
+        for (int i = 0; i < paragraphs.size(); i++) {
+            List<Document> paragraphChunks = chunkingEngine.chunk(paragraphs.get(i), i, filename);
+            blackhole.consume(paragraphChunks);
+            chunks += paragraphChunks.size();
+        }
+        return chunks;
+    }
+}
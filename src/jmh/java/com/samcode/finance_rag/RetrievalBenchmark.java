@@ -0,0 +1,110 @@
+package com.samcode.finance_rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrieval against an in-memory stand-in for pgvector: exact search through
+ * {@link RetrievalService} over a {@link SimpleVectorStore}, the same search on the
+ * {@link HnswIndex} hot tier, the BM25 search of its {@link LexicalIndex}, and the whole
+ * search-to-prompt path.
+ *
+ * Embeddings come from {@link HashingEmbeddingModel}, so the numbers cover search and
+ * context work only, never an embedding API round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RetrievalBenchmark {
+
+    private static final int DIMENSIONS = 256;
+    private static final int EF_SEARCH = 64;
+    private static final String[] QUESTIONS = {
+            "How did investment grade credit spreads move over the month?",
+            "What is the year to date return of the S&P 500 Index?",
+            "Where does the Federal Reserve hold rates?",
+            "How much money flowed into emerging markets debt?",
+            "What are current valuations compared to the long-run average?"
+    };
+
+    @Param({SyntheticDeck.BUNDLED, "deck-500"})
+    public String corpus;
+
+    @Param({"4", "16"})
+    public int topK;
+
+    private HashingEmbeddingModel embeddingModel;
+    private RetrievalService retrievalService;
+    private HnswIndex index;
+    private LexicalIndex lexicalIndex;
+    private float[][] questionEmbeddings;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+        List<Document> chunks = SyntheticDeck.chunks(corpus);
+
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        vectorStore.add(chunks);
+        retrievalService = new RetrievalService(vectorStore, embeddingModel, new ContextAssembler(3000), null, topK, 0.0, false, false, 60);
+
+        index = new HnswIndex(DIMENSIONS, 16, 100);
+        lexicalIndex = new LexicalIndex();
+        for (Document chunk : chunks) {
+            index.add(embeddingModel.embed(chunk));
+            lexicalIndex.add(chunk.getText());
+        }
+
+        questionEmbeddings = new float[QUESTIONS.length][];
+        for (int i = 0; i < QUESTIONS.length; i++) {
+            questionEmbeddings[i] = embeddingModel.embedText(QUESTIONS[i]);
+        }
+    }
+
+    @Benchmark
+    public List<Document> exactSearch() {
+        return retrievalService.search(QUESTIONS[nextQuestion()]);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Neighbor> hnswSearch() {
+        return index.search(questionEmbeddings[nextQuestion()], topK, Math.max(EF_SEARCH, topK));
+    }
+
+    @Benchmark
+    public List<LexicalIndex.Hit> lexicalSearch() {
+        return lexicalIndex.search(QUESTIONS[nextQuestion()], topK, doc -> true);
+    }
+
+    @Benchmark
+    public String searchAndBuildPrompt() {
+        String question = QUESTIONS[nextQuestion()];
+        List<Document> documents = retrievalService.search(question);
+        return FinancialPrompts.STATIC_PREFIX + FinancialPrompts.userPrompt(question, retrievalService.buildContext(documents));
+    }
+
+    private int nextQuestion() {
+        next = (next + 1) % QUESTIONS.length;
+        return next;
+    }
+}
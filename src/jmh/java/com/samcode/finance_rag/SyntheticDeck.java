@@ -0,0 +1,146 @@
+package com.samcode.finance_rag;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageXYZDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark inputs: the bundled sample deck, or a generated slide deck of any size with one
+ * outline entry per slide and a mix of prose, table rows and bullet lists on every slide.
+ */
+final class SyntheticDeck {
+
+    static final String BUNDLED = "bundled";
+    static final String BUNDLED_FILENAME = "article_thebeatoct2024.pdf";
+
+    private static final String[] ASSETS = {"U.S. Treasury 10Y", "Investment Grade Credit", "High Yield Credit",
+            "Emerging Markets Debt", "S&P 500 Index", "MSCI EAFE", "Municipal Bonds", "Commodities"};
+
+    private SyntheticDeck() {
+    }
+
+    static String filename(String source) {
+        return BUNDLED.equals(source) ? BUNDLED_FILENAME : source + ".pdf";
+    }
+
+    /**
+     * Writes the requested deck to a temporary file: {@code "bundled"} or {@code "deck-<slides>"}.
+     */
+    static Path write(String source) throws IOException {
+        Path file = Files.createTempFile("finance-rag-bench-", ".pdf");
+        if (BUNDLED.equals(source)) {
+            try (InputStream in = new ClassPathResource("docs/" + BUNDLED_FILENAME).getInputStream()) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            generate(Integer.parseInt(source.substring("deck-".length())), file);
+        }
+        return file;
+    }
+
+    /**
+     * Every chunk ingestion would store for the deck.
+     */
+    static List<Document> chunks(String source) throws IOException {
+        Path pdf = write(source);
+        try (PdfParagraphReader reader = new PdfParagraphReader(pdf, filename(source), 16L * 1024 * 1024)) {
+            ChunkingEngine chunkingEngine = new ChunkingEngine();
+            List<Document> chunks = new ArrayList<>();
+            int paragraphIndex = 0;
+            while (reader.hasNext()) {
+                chunks.addAll(chunkingEngine.chunk(reader.next(), paragraphIndex++, filename(source)));
+            }
+            return chunks;
+        } finally {
+            Files.deleteIfExists(pdf);
+        }
+    }
+
+    static void generate(int slides, Path file) throws IOException {
+        Random random = new Random(slides);
+        PDType1Font regular = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+        PDType1Font bold = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
+
+        try (PDDocument document = new PDDocument()) {
+            PDDocumentOutline outline = new PDDocumentOutline();
+            document.getDocumentCatalog().setDocumentOutline(outline);
+
+            for (int slide = 1; slide <= slides; slide++) {
+                PDPage page = new PDPage(new PDRectangle(792, 612));
+                document.addPage(page);
+                String title = "Slide " + slide + ": " + ASSETS[slide % ASSETS.length] + " Market Update";
+
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setLeading(16);
+                    content.newLineAtOffset(48, 560);
+                    content.setFont(bold, 18);
+                    content.showText(title);
+                    content.newLine();
+                    content.newLine();
+                    content.setFont(regular, 11);
+                    for (String line : slideLines(random)) {
+                        content.showText(line);
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+
+                PDPageXYZDestination destination = new PDPageXYZDestination();
+                destination.setPage(page);
+                destination.setTop((int) page.getMediaBox().getHeight());
+                PDOutlineItem item = new PDOutlineItem();
+                item.setTitle(title);
+                item.setDestination(destination);
+                outline.addLast(item);
+            }
+            document.save(file.toFile());
+        }
+    }
+
+    private static String[] slideLines(Random random) {
+        String asset = ASSETS[random.nextInt(ASSETS.length)];
+        return new String[] {
+                asset + " returned " + pct(random) + " over the month as spreads moved " + bps(random) + ".",
+                "Performance was driven by falling yields. Investors added " + usd(random) + " to the category.",
+                "Asset Class                         1 Month    YTD     1 Year",
+                ASSETS[random.nextInt(ASSETS.length)] + "                 " + pct(random) + "    " + pct(random) + "    " + pct(random),
+                ASSETS[random.nextInt(ASSETS.length)] + "                 " + pct(random) + "    " + pct(random) + "    " + pct(random),
+                ASSETS[random.nextInt(ASSETS.length)] + "                 " + pct(random) + "    " + pct(random) + "    " + pct(random),
+                "• Option-adjusted spreads tightened by " + bps(random) + " versus the prior month.",
+                "• Duration remains a headwind while the curve stays inverted.",
+                "• Flows into the category reached " + usd(random) + " year to date.",
+                "The Federal Reserve held rates steady at 5.25% to 5.50%. Markets now price three cuts by next year.",
+                "Valuations remain above their long-run average. Earnings growth is expected at " + pct(random) + "."
+        };
+    }
+
+    private static String pct(Random random) {
+        return String.format("%.1f%%", random.nextGaussian() * 4);
+    }
+
+    private static String bps(Random random) {
+        return random.nextInt(60) + " bps";
+    }
+
+    private static String usd(Random random) {
+        return String.format("$%,d million", 100 + random.nextInt(9000));
+    }
+}
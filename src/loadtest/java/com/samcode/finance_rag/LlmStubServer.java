@@ -0,0 +1,358 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline stand-in for the OpenAI and Gemini APIs.
+ *
+ * Serves OpenAI-compatible {@code /v1/chat/completions} (plain and SSE streaming) and
+ * {@code /v1/embeddings}, and Gemini-compatible {@code generateContent},
+ * {@code streamGenerateContent} and {@code cachedContents} under {@code /v1beta}. Answers are
+ * canned text delivered after a configurable time to first token and per-token delay;
+ * embeddings come from {@link HashingEmbeddingModel}, so a text always gets the same vector. A
+ * fraction of chat calls can be answered with 429 to exercise the bulkheads, and prompt
+ * prefixes of at least {@code minCachedTokens} that were seen before are reported as cached,
+ * like the providers' prefix caches.
+ */
+final class LlmStubServer implements AutoCloseable {
+
+    private static final String[] WORDS = {"Equities", "returned", "4.1%", "in", "the", "quarter", "while", "spreads",
+            "tightened", "by", "12", "bps", "and", "yields", "fell", "[Source: Slide 3]"};
+
+    record Settings(int port, long firstTokenMs, long tokenMs, int answerTokens, long embeddingMs,
+                    double throttleRate, int minCachedTokens, int dimensions) {
+
+        static Settings from(Map<String, String> options) {
+            return new Settings(
+                    Integer.parseInt(options.getOrDefault("stub-port", "0")),
+                    Long.parseLong(options.getOrDefault("first-token-ms", "400")),
+                    Long.parseLong(options.getOrDefault("token-ms", "15")),
+                    Integer.parseInt(options.getOrDefault("answer-tokens", "150")),
+                    Long.parseLong(options.getOrDefault("embedding-ms", "60")),
+                    Double.parseDouble(options.getOrDefault("throttle-rate", "0")),
+                    Integer.parseInt(options.getOrDefault("min-cached-tokens", "1024")),
+                    Integer.parseInt(options.getOrDefault("dimensions", "1536")));
+        }
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HashingEmbeddingModel embeddingModel;
+    private final Set<String> seenPrefixes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> cachedContents = new ConcurrentHashMap<>();
+    private final AtomicInteger cachedContentIds = new AtomicInteger();
+
+    LlmStubServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.embeddingModel = new HashingEmbeddingModel(settings.dimensions());
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", settings.port()), 512);
+        server.setExecutor(executor);
+        server.createContext("/v1/chat/completions", exchange -> handle(exchange, this::openAiChat));
+        server.createContext("/v1/embeddings", exchange -> handle(exchange, this::openAiEmbeddings));
+        server.createContext("/v1beta/models/", exchange -> handle(exchange, this::geminiGenerate));
+        server.createContext("/v1beta/cachedContents", exchange -> handle(exchange, this::geminiCachedContent));
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, JsonNode request) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            handler.handle(exchange, request);
+        } catch (IOException | RuntimeException e) {
+            // The client gave up mid-stream (e.g. a timed-out hedge); nothing to answer
+        }
+    }
+
+    private void openAiChat(HttpExchange exchange, JsonNode request) throws IOException {
+        if (throttled(exchange)) {
+            return;
+        }
+        String system = "";
+        int promptChars = 0;
+        for (JsonNode message : request.path("messages")) {
+            String content = message.path("content").asText("");
+            promptChars += content.length();
+            if ("system".equals(message.path("role").asText()) && system.isEmpty()) {
+                system = content;
+            }
+        }
+        int promptTokens = tokens(promptChars);
+        int cachedTokens = prefixCached(system) ? tokens(system.length()) : 0;
+        String model = request.path("model").asText("stub");
+        sleep(settings.firstTokenMs());
+
+        if (request.path("stream").asBoolean()) {
+            startStream(exchange);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < settings.answerTokens(); i++) {
+                if (i > 0) {
+                    sleep(settings.tokenMs());
+                }
+                ObjectNode chunk = openAiChunk(model);
+                ObjectNode choice = chunk.putArray("choices").addObject();
+                choice.put("index", 0);
+                choice.putObject("delta").put("role", "assistant").put("content", word(i));
+                choice.putNull("finish_reason");
+                sendEvent(out, chunk);
+            }
+            ObjectNode last = openAiChunk(model);
+            ObjectNode stop = last.putArray("choices").addObject();
+            stop.put("index", 0);
+            stop.putObject("delta");
+            stop.put("finish_reason", "stop");
+            sendEvent(out, last);
+            if (request.path("stream_options").path("include_usage").asBoolean()) {
+                ObjectNode usage = openAiChunk(model);
+                usage.putArray("choices");
+                usage.set("usage", openAiUsage(promptTokens, cachedTokens));
+                sendEvent(out, usage);
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return;
+        }
+
+        sleep(settings.tokenMs() * (settings.answerTokens() - 1));
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("id", "chatcmpl-stub");
+        response.put("object", "chat.completion");
+        response.put("created", Instant.now().getEpochSecond());
+        response.put("model", model);
+        ObjectNode choice = response.putArray("choices").addObject();
+        choice.put("index", 0);
+        choice.putObject("message").put("role", "assistant").put("content", answer());
+        choice.put("finish_reason", "stop");
+        response.set("usage", openAiUsage(promptTokens, cachedTokens));
+        sendJson(exchange, 200, response);
+    }
+
+    private void openAiEmbeddings(HttpExchange exchange, JsonNode request) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(text -> inputs.add(text.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        sleep(settings.embeddingMs());
+
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("object", "list");
+        response.put("model", request.path("model").asText("stub"));
+        ArrayNode data = response.putArray("data");
+        int chars = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            ObjectNode embedding = data.addObject();
+            embedding.put("object", "embedding");
+            embedding.put("index", i);
+            ArrayNode vector = embedding.putArray("embedding");
+            for (float value : embeddingModel.embedText(inputs.get(i))) {
+                vector.add(value);
+            }
+            chars += inputs.get(i).length();
+        }
+        response.putObject("usage").put("prompt_tokens", tokens(chars)).put("total_tokens", tokens(chars));
+        sendJson(exchange, 200, response);
+    }
+
+    private void geminiGenerate(HttpExchange exchange, JsonNode request) throws IOException {
+        if (throttled(exchange)) {
+            return;
+        }
+        String cachedContent = request.path("cachedContent").asText(null);
+        Integer cachedTokens = cachedContent != null ? cachedContents.get(cachedContent) : null;
+        if (cachedContent != null && cachedTokens == null) {
+            sendJson(exchange, 404, error(404, "Cached content not found"));
+            return;
+        }
+        int promptChars = text(request.path("systemInstruction")).length();
+        for (JsonNode content : request.path("contents")) {
+            promptChars += text(content).length();
+        }
+        int promptTokens = tokens(promptChars) + (cachedTokens != null ? cachedTokens : 0);
+        sleep(settings.firstTokenMs());
+
+        if (exchange.getRequestURI().getPath().endsWith(":streamGenerateContent")) {
+            startStream(exchange);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < settings.answerTokens(); i++) {
+                if (i > 0) {
+                    sleep(settings.tokenMs());
+                }
+                ObjectNode event = geminiResponse(word(i));
+                if (i == settings.answerTokens() - 1) {
+                    event.set("usageMetadata", geminiUsage(promptTokens, cachedTokens));
+                }
+                sendEvent(out, event);
+            }
+            return;
+        }
+
+        sleep(settings.tokenMs() * (settings.answerTokens() - 1));
+        ObjectNode response = geminiResponse(answer());
+        response.set("usageMetadata", geminiUsage(promptTokens, cachedTokens));
+        sendJson(exchange, 200, response);
+    }
+
+    private void geminiCachedContent(HttpExchange exchange, JsonNode request) throws IOException {
+        int tokens = tokens(text(request.path("systemInstruction")).length());
+        // Like Gemini, refuse prefixes below the minimum cacheable size
+        if (tokens < settings.minCachedTokens()) {
+            sendJson(exchange, 400, error(400, "Cached content is too small. total_token_count=" + tokens
+                    + ", min_total_token_count=" + settings.minCachedTokens()));
+            return;
+        }
+        String name = "cachedContents/stub-" + cachedContentIds.incrementAndGet();
+        cachedContents.put(name, tokens);
+        long ttlSeconds = Long.parseLong(request.path("ttl").asText("3600s").replace("s", ""));
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("name", name);
+        response.put("model", request.path("model").asText());
+        response.put("expireTime", Instant.now().plusSeconds(ttlSeconds).toString());
+        sendJson(exchange, 200, response);
+    }
+
+    private boolean throttled(HttpExchange exchange) throws IOException {
+        if (settings.throttleRate() <= 0 || ThreadLocalRandom.current().nextDouble() >= settings.throttleRate()) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendJson(exchange, 429, error(429, "Rate limit reached (stub)"));
+        return true;
+    }
+
+    private boolean prefixCached(String prefix) {
+        // First sight of a prefix writes it to the cache; later requests read it
+        return tokens(prefix.length()) >= settings.minCachedTokens() && !seenPrefixes.add(prefix);
+    }
+
+    private ObjectNode openAiChunk(String model) {
+        ObjectNode chunk = objectMapper.createObjectNode();
+        chunk.put("id", "chatcmpl-stub");
+        chunk.put("object", "chat.completion.chunk");
+        chunk.put("created", Instant.now().getEpochSecond());
+        chunk.put("model", model);
+        return chunk;
+    }
+
+    private ObjectNode openAiUsage(int promptTokens, int cachedTokens) {
+        ObjectNode usage = objectMapper.createObjectNode();
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", settings.answerTokens());
+        usage.put("total_tokens", promptTokens + settings.answerTokens());
+        usage.putObject("prompt_tokens_details").put("cached_tokens", cachedTokens);
+        return usage;
+    }
+
+    private ObjectNode geminiResponse(String text) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ObjectNode content = response.putArray("candidates").addObject().putObject("content");
+        content.put("role", "model");
+        content.putArray("parts").addObject().put("text", text);
+        return response;
+    }
+
+    private ObjectNode geminiUsage(int promptTokens, Integer cachedTokens) {
+        ObjectNode usage = objectMapper.createObjectNode();
+        usage.put("promptTokenCount", promptTokens);
+        usage.put("candidatesTokenCount", settings.answerTokens());
+        usage.put("totalTokenCount", promptTokens + settings.answerTokens());
+        if (cachedTokens != null) {
+            usage.put("cachedContentTokenCount", cachedTokens);
+        }
+        return usage;
+    }
+
+    private ObjectNode error(int code, String message) {
+        ObjectNode error = objectMapper.createObjectNode();
+        error.putObject("error").put("code", code).put("message", message);
+        return error;
+    }
+
+    private static String text(JsonNode content) {
+        StringBuilder text = new StringBuilder();
+        content.path("parts").forEach(part -> text.append(part.path("text").asText("")));
+        return text.toString();
+    }
+
+    private String answer() {
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < settings.answerTokens(); i++) {
+            answer.append(word(i));
+        }
+        return answer.toString();
+    }
+
+    private static String word(int i) {
+        return WORDS[i % WORDS.length] + " ";
+    }
+
+    private static int tokens(int chars) {
+        return (int) RagMath.estimateTokens(chars);
+    }
+
+    private void startStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+    }
+
+    private void sendEvent(OutputStream out, JsonNode data) throws IOException {
+        out.write(("data: " + objectMapper.writeValueAsString(data) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Open-loop load generator for the chat and upload endpoints.
+ *
+ * Requests start on a fixed schedule at the target rate, each on its own virtual thread,
+ * whether or not earlier ones have finished, and latency is measured from the scheduled start.
+ * A slow server therefore cannot slow the generator down and hide its own queueing. The mix is
+ * chat, streamed chat and PDF uploads (decks from {@link SyntheticDeck}) across OpenAI and
+ * Gemini. Chat requests ask for the server's stage timings, which are reported per endpoint
+ * next to the end-to-end latency; uploads are followed to completion through the job status
+ * endpoint. Requests scheduled during the warm-up are sent but not recorded.
+ */
+final class LoadGenerator {
+
+    private static final String[] TEMPLATES = {"How did %s perform %s?", "What drove returns in %s %s?",
+            "Summarise the outlook for %s %s.", "How much money flowed into %s %s?", "What happened to spreads in %s %s?"};
+    private static final String[] ASSETS = {"U.S. Treasury 10Y", "Investment Grade Credit", "High Yield Credit",
+            "Emerging Markets Debt", "S&P 500 Index", "MSCI EAFE", "Municipal Bonds", "Commodities"};
+    private static final String[] PERIODS = {"last month", "year to date", "over one year", "this quarter"};
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
+    private static final long JOB_POLL_MS = 250;
+
+    record Settings(URI target, double rate, Duration duration, Duration warmup, double uploadRatio,
+                    double streamRatio, double geminiRatio, int distinctQuestions, int deckSlides, Duration drainTimeout) {
+
+        static Settings from(Map<String, String> options, URI target) {
+            return new Settings(target,
+                    Double.parseDouble(options.getOrDefault("rate", "10")),
+                    Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60"))),
+                    Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10"))),
+                    Double.parseDouble(options.getOrDefault("upload-ratio", "0.02")),
+                    Double.parseDouble(options.getOrDefault("stream-ratio", "0.5")),
+                    Double.parseDouble(options.getOrDefault("gemini-ratio", "0.5")),
+                    Integer.parseInt(options.getOrDefault("distinct-questions", "160")),
+                    Integer.parseInt(options.getOrDefault("deck-slides", "20")),
+                    Duration.ofSeconds(Long.parseLong(options.getOrDefault("drain-timeout", "120"))));
+        }
+    }
+
+    private final Settings settings;
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<byte[]> decks = new ArrayList<>();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    LoadGenerator(Settings settings) {
+        this.settings = settings;
+    }
+
+    LoadReport run() throws IOException, InterruptedException {
+        // A few decks of different sizes so chunk embeddings are not all cache hits after the first upload
+        for (int i = 0; i < 4; i++) {
+            Path pdf = SyntheticDeck.write("deck-" + (settings.deckSlides() + i));
+            decks.add(Files.readAllBytes(pdf));
+            Files.delete(pdf);
+        }
+
+        LoadReport report = new LoadReport();
+        LoadReport warmup = new LoadReport();
+        long intervalNanos = (long) (1_000_000_000L / settings.rate());
+        long warmupEnd = System.nanoTime() + settings.warmup().toNanos();
+        long end = warmupEnd + settings.duration().toNanos();
+        ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+
+        for (long n = 0; ; n++) {
+            long scheduled = warmupEnd - settings.warmup().toNanos() + n * intervalNanos;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long id = n;
+            LoadReport target = scheduled < warmupEnd ? warmup : report;
+            requests.execute(() -> issue(id, scheduled, target));
+        }
+
+        requests.shutdown();
+        if (!requests.awaitTermination(settings.drainTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+            requests.shutdownNow();
+        }
+        report.finish((System.nanoTime() - warmupEnd) / 1e9);
+        return report;
+    }
+
+    private void issue(long n, long scheduled, LoadReport report) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < settings.uploadRatio()) {
+            upload(n, scheduled, report);
+            return;
+        }
+        String model = random.nextDouble() < settings.geminiRatio() ? "gemini" : "openai";
+        String question = question(random.nextInt(settings.distinctQuestions()));
+        if (random.nextDouble() < settings.streamRatio()) {
+            stream(model, question, scheduled, report);
+        } else {
+            chat(model, question, scheduled, report);
+        }
+    }
+
+    private void chat(String model, String question, long scheduled, LoadReport report) {
+        String endpoint = "chat[" + model + "]";
+        try {
+            HttpResponse<String> response = client.send(chatRequest("/api/chat", model, question), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                report.endpoint(endpoint).failed(response.statusCode());
+                return;
+            }
+            report.endpoint(endpoint).record(System.nanoTime() - scheduled);
+            recordStages(report, endpoint, objectMapper.readTree(response.body()).path("timings"));
+        } catch (IOException e) {
+            report.endpoint(endpoint).failed(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(String model, String question, long scheduled, LoadReport report) {
+        String endpoint = "stream[" + model + "]";
+        try {
+            HttpResponse<Stream<String>> response = client.send(chatRequest("/api/chat/stream", model, question),
+                    HttpResponse.BodyHandlers.ofLines());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                report.endpoint(endpoint).failed(response.statusCode());
+                return;
+            }
+            String event = null;
+            boolean firstToken = true;
+            try (Stream<String> lines = response.body()) {
+                Iterator<String> it = lines.iterator();
+                while (it.hasNext()) {
+                    String line = it.next();
+                    if (line.startsWith("event:")) {
+                        event = line.substring("event:".length()).trim();
+                        if ("token".equals(event) && firstToken) {
+                            firstToken = false;
+                            report.stage(endpoint, "time_to_first_token").record(System.nanoTime() - scheduled);
+                        }
+                    } else if (line.startsWith("data:") && "done".equals(event)) {
+                        report.endpoint(endpoint).record(System.nanoTime() - scheduled);
+                        recordStages(report, endpoint, objectMapper.readTree(line.substring("data:".length())).path("timings"));
+                        return;
+                    } else if (line.startsWith("data:") && "error".equals(event)) {
+                        break;
+                    }
+                }
+            }
+            report.endpoint(endpoint).failed(0);
+        } catch (IOException e) {
+            report.endpoint(endpoint).failed(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void upload(long n, long scheduled, LoadReport report) {
+        String boundary = "loadtest-" + runId + "-" + n;
+        String filename = "loadtest-" + runId + "-" + n + ".pdf";
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + filename
+                + "\"\r\nContent-Type: application/pdf\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(settings.target().resolve("/api/upload"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofByteArray(head),
+                        HttpRequest.BodyPublishers.ofByteArray(decks.get((int) (n % decks.size()))),
+                        HttpRequest.BodyPublishers.ofByteArray(tail)))
+                .build();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 202) {
+                report.endpoint("upload").failed(response.statusCode());
+                return;
+            }
+            report.endpoint("upload").record(System.nanoTime() - scheduled);
+            awaitIngestion(objectMapper.readTree(response.body()).path("jobId").asText(), scheduled, report);
+        } catch (IOException e) {
+            report.endpoint("upload").failed(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitIngestion(String jobId, long scheduled, LoadReport report) throws IOException, InterruptedException {
+        HttpRequest status = HttpRequest.newBuilder(settings.target().resolve("/api/ingest/jobs/" + jobId))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        while (true) {
+            Thread.sleep(JOB_POLL_MS);
+            HttpResponse<String> response = client.send(status, HttpResponse.BodyHandlers.ofString());
+            String state = response.statusCode() == 200 ? objectMapper.readTree(response.body()).path("status").asText() : "FAILED";
+            if ("COMPLETED".equals(state)) {
+                report.stage("upload", "ingested").record(System.nanoTime() - scheduled);
+                return;
+            }
+            if ("FAILED".equals(state)) {
+                report.stage("upload", "ingested").failed(0);
+                return;
+            }
+        }
+    }
+
+    private HttpRequest chatRequest(String path, String model, String question) {
+        return HttpRequest.newBuilder(settings.target().resolve(path + "?model=" + model + "&timings=true"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("question=" + URLEncoder.encode(question, StandardCharsets.UTF_8)))
+                .build();
+    }
+
+    private static void recordStages(LoadReport report, String endpoint, JsonNode timings) {
+        timings.path("stagesMs").fields().forEachRemaining(stage ->
+                report.stage(endpoint, stage.getKey()).recordMillis(stage.getValue().asDouble()));
+        if (timings.has("totalMs")) {
+            report.stage(endpoint, "server_total").recordMillis(timings.path("totalMs").asDouble());
+        }
+    }
+
+    private static String question(int n) {
+        return String.format(TEMPLATES[n % TEMPLATES.length],
+                ASSETS[(n / TEMPLATES.length) % ASSETS.length],
+                PERIODS[(n / (TEMPLATES.length * ASSETS.length)) % PERIODS.length]);
+    }
+}
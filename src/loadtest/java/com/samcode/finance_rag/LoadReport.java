@@ -0,0 +1,130 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency and throughput per endpoint, and per server-reported stage within each endpoint.
+ * Percentiles are exact, computed from every recorded sample.
+ */
+final class LoadReport {
+
+    private final ConcurrentMap<String, Stats> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Stats>> stages = new ConcurrentHashMap<>();
+    private volatile double elapsedSeconds;
+
+    Stats endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, e -> new Stats());
+    }
+
+    Stats stage(String endpoint, String stage) {
+        return stages.computeIfAbsent(endpoint, e -> new ConcurrentHashMap<>()).computeIfAbsent(stage, s -> new Stats());
+    }
+
+    void finish(double elapsedSeconds) {
+        this.elapsedSeconds = elapsedSeconds;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("elapsedSeconds", elapsedSeconds);
+        Map<String, Object> endpointResults = new TreeMap<>();
+        endpoints.forEach((endpoint, stats) -> {
+            Map<String, Object> entry = stats.toMap(elapsedSeconds);
+            Map<String, Object> stageResults = new TreeMap<>();
+            stages.getOrDefault(endpoint, new ConcurrentHashMap<>())
+                    .forEach((stage, stageStats) -> stageResults.put(stage, stageStats.toMap(elapsedSeconds)));
+            entry.put("stages", stageResults);
+            endpointResults.put(endpoint, entry);
+        });
+        result.put("endpoints", endpointResults);
+        return result;
+    }
+
+    void print(PrintStream out) {
+        out.printf("%nLoad test: %.1f s measured%n", elapsedSeconds);
+        out.printf("%-32s %8s %7s %6s %9s %9s %9s %9s %9s%n",
+                "endpoint / stage", "ok", "errors", "429", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        new TreeMap<>(endpoints).forEach((endpoint, stats) -> {
+            printRow(out, endpoint, stats);
+            new TreeMap<>(stages.getOrDefault(endpoint, new ConcurrentHashMap<>()))
+                    .forEach((stage, stageStats) -> printRow(out, "  " + stage, stageStats));
+        });
+    }
+
+    void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), toMap());
+    }
+
+    private void printRow(PrintStream out, String label, Stats stats) {
+        Map<String, Object> row = stats.toMap(elapsedSeconds);
+        out.printf("%-32s %8d %7d %6d %9.2f %9.1f %9.1f %9.1f %9.1f%n", label,
+                row.get("ok"), row.get("errors"), row.get("throttled"), row.get("throughputPerSecond"),
+                row.get("p50Ms"), row.get("p90Ms"), row.get("p99Ms"), row.get("maxMs"));
+    }
+
+    /**
+     * Successful samples plus counts of failed and throttled (429) requests.
+     */
+    static final class Stats {
+        private long[] nanos = new long[256];
+        private int count;
+        private int errors;
+        private int throttled;
+
+        synchronized void record(long sampleNanos) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = sampleNanos;
+        }
+
+        void recordMillis(double millis) {
+            record((long) (millis * 1_000_000));
+        }
+
+        synchronized void failed(int status) {
+            if (status == 429) {
+                throttled++;
+            } else {
+                errors++;
+            }
+        }
+
+        synchronized Map<String, Object> toMap(double elapsedSeconds) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("ok", count);
+            result.put("errors", errors);
+            result.put("throttled", throttled);
+            result.put("throughputPerSecond", elapsedSeconds > 0 ? count / elapsedSeconds : 0.0);
+            result.put("p50Ms", percentile(sorted, 0.50));
+            result.put("p90Ms", percentile(sorted, 0.90));
+            result.put("p99Ms", percentile(sorted, 0.99));
+            result.put("maxMs", sorted.length > 0 ? sorted[sorted.length - 1] / 1_000_000.0 : 0.0);
+            return result;
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.samcode.finance_rag;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entry point of the offline load test ({@code mvn -Ploadtest verify}).
+ *
+ * Starts {@link LlmStubServer}, boots the application on the {@code loadtest} profile pointed
+ * at the stub, drives it with {@link LoadGenerator}, prints the report and writes it as JSON.
+ * With {@code --target=http://host:port} the generator runs against an instance that is
+ * already up (started on the {@code loadtest} profile, see the README), so the application does
+ * not share a JVM with the generator; {@code --stub-only} just serves the stub until killed.
+ * Options are {@code --name=value}; see {@link LlmStubServer.Settings} and
+ * {@link LoadGenerator.Settings} for the names and defaults.
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        if (options.containsKey("stub-only")) {
+            options.putIfAbsent("stub-port", "8089");
+        }
+
+        try (LlmStubServer stub = new LlmStubServer(LlmStubServer.Settings.from(options))) {
+            System.out.println("Provider stub listening on port " + stub.port());
+            if (options.containsKey("stub-only")) {
+                Thread.currentThread().join();
+            }
+
+            ConfigurableApplicationContext app = null;
+            URI target;
+            if (options.containsKey("target")) {
+                target = URI.create(options.get("target"));
+            } else {
+                SpringApplication application = new SpringApplication(Application.class);
+                application.setAdditionalProfiles("loadtest");
+                app = application.run("--server.port=0", "--finance-rag.loadtest.stub-port=" + stub.port());
+                target = URI.create("http://localhost:" + app.getEnvironment().getProperty("local.server.port"));
+            }
+
+            try {
+                LoadReport report = new LoadGenerator(LoadGenerator.Settings.from(options, target)).run();
+                report.print(System.out);
+                Path file = Path.of(options.getOrDefault("report", "loadtest-report.json"));
+                report.write(file);
+                System.out.println("Report written to " + file.toAbsolutePath());
+            } finally {
+                if (app != null) {
+                    app.close();
+                }
+            }
+        }
+        // Worker pools without shutdown hooks would otherwise keep the JVM alive
+        System.exit(0);
+    }
+
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+}
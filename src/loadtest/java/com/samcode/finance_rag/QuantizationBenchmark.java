@@ -0,0 +1,199 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Recall-vs-latency benchmark of {@link QuantizedVectorSearch} on the chunks already stored in
+ * a pgvector database ({@code mvn -Ploadtest verify -Dloadtest.main=com.samcode.finance_rag.QuantizationBenchmark}).
+ *
+ * Stored sentence/row/number chunks serve as queries, as they are what retrieval matches. Ground
+ * truth is an exact scan with index scans disabled; each mode and oversampling factor is scored on
+ * recall@k against it, with the query chunk itself excluded, and on p50/p99 search latency. Index
+ * sizes are reported next to the results. {@code --create-indexes} builds the halfvec and binary
+ * indexes first, which takes a while on a large table.
+ */
+public final class QuantizationBenchmark {
+
+    private static final int[] DEFAULT_OVERSAMPLING = {1, 2, 4, 8};
+
+    private QuantizationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTest.options(args);
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                options.getOrDefault("jdbc-url", "jdbc:postgresql://localhost:5432/markets"),
+                options.getOrDefault("user", "user"),
+                options.getOrDefault("password", "password"));
+        dataSource.setConnectionProperties(iterativeScan());
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        int k = Integer.parseInt(options.getOrDefault("k", "8"));
+        int queryCount = Integer.parseInt(options.getOrDefault("queries", "200"));
+
+        Integer dimensions = jdbcTemplate.queryForObject("SELECT vector_dims(embedding) FROM vector_store LIMIT 1", Integer.class);
+        if (dimensions == null) {
+            throw new IllegalStateException("vector_store is empty; ingest the corpus first");
+        }
+        HashingEmbeddingModel dimensionsOnly = new HashingEmbeddingModel(dimensions);
+        if (options.containsKey("create-indexes")) {
+            for (QuantizedVectorSearch.Mode mode : List.of(QuantizedVectorSearch.Mode.HALFVEC, QuantizedVectorSearch.Mode.BINARY)) {
+                System.out.println("Creating " + mode + " index");
+                jdbcTemplate.execute(QuantizedVectorSearch.indexDdl(mode, dimensions));
+            }
+        }
+
+        // md5 order gives the same sample on every run without favouring one document
+        List<Query> queries = jdbcTemplate.query("""
+                SELECT id::text, embedding::text FROM vector_store
+                WHERE metadata->>'chunk_type' IS DISTINCT FROM 'paragraph'
+                ORDER BY md5(id::text)
+                LIMIT ?""", (rs, rowNum) -> new Query(rs.getString(1), parse(rs.getString(2))), queryCount);
+        System.out.printf("%d queries, k=%d, %d dimensions%n", queries.size(), k, dimensions);
+
+        TransactionTemplate exact = new TransactionTemplate(transactionManager);
+        Map<String, Set<String>> truth = new LinkedHashMap<>();
+        for (Query query : queries) {
+            truth.put(query.id(), exact.execute(status -> {
+                jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+                return topK(jdbcTemplate.queryForList("SELECT id::text FROM vector_store ORDER BY embedding <=> ?::vector LIMIT ?",
+                        String.class, new PGvector(query.embedding()), k + 1), query.id(), k);
+            }));
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        System.out.printf("%n%-10s %12s %9s %9s %9s%n", "mode", "oversampling", "recall", "p50 ms", "p99 ms");
+        for (QuantizedVectorSearch.Mode mode : QuantizedVectorSearch.Mode.values()) {
+            int[] factors = mode == QuantizedVectorSearch.Mode.NONE ? new int[]{1} : oversampling(options);
+            for (int factor : factors) {
+                QuantizedVectorSearch search = new QuantizedVectorSearch(jdbcTemplate, transactionManager, dimensionsOnly,
+                        mode.name(), factor);
+                Map<String, Object> result = run(search, queries, truth, k);
+                result.put("mode", mode.name().toLowerCase());
+                result.put("oversampling", factor);
+                results.add(result);
+                System.out.printf("%-10s %12d %9.3f %9.2f %9.2f%n", result.get("mode"), factor,
+                        result.get("recall"), result.get("p50Ms"), result.get("p99Ms"));
+            }
+        }
+
+        Map<String, Long> indexSizes = new LinkedHashMap<>();
+        jdbcTemplate.query("""
+                SELECT indexrelname, pg_relation_size(indexrelid) FROM pg_stat_user_indexes
+                WHERE relname = 'vector_store' ORDER BY indexrelname""",
+                rs -> {
+                    indexSizes.put(rs.getString(1), rs.getLong(2));
+                });
+        System.out.println();
+        indexSizes.forEach((name, bytes) -> System.out.printf("%-40s %10.1f MB%n", name, bytes / 1048576.0));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("queries", queries.size());
+        report.put("k", k);
+        report.put("dimensions", dimensions);
+        report.put("results", results);
+        report.put("indexSizeBytes", indexSizes);
+        Path file = Path.of(options.getOrDefault("report", "quantization-report.json"));
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        System.out.println("Report written to " + file.toAbsolutePath());
+    }
+
+    private static Map<String, Object> run(QuantizedVectorSearch search, List<Query> queries,
+                                           Map<String, Set<String>> truth, int k) {
+        SearchRequest request = SearchRequest.builder()
+                .query("benchmark")
+                .topK(k + 1)
+                .similarityThresholdAll()
+                .build();
+        // One unrecorded pass so every configuration starts with the same buffers cached
+        for (Query query : queries) {
+            search.search(request, query.embedding());
+        }
+
+        LoadReport.Stats latency = new LoadReport.Stats();
+        int hits = 0;
+        int expected = 0;
+        for (Query query : queries) {
+            long start = System.nanoTime();
+            List<Document> documents = search.search(request, query.embedding());
+            latency.record(System.nanoTime() - start);
+            Set<String> found = topK(documents.stream().map(Document::getId).toList(), query.id(), k);
+            Set<String> relevant = truth.get(query.id());
+            expected += relevant.size();
+            for (String id : found) {
+                if (relevant.contains(id)) {
+                    hits++;
+                }
+            }
+        }
+
+        Map<String, Object> stats = latency.toMap(0);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("recall", expected == 0 ? 1.0 : (double) hits / expected);
+        result.put("p50Ms", stats.get("p50Ms"));
+        result.put("p90Ms", stats.get("p90Ms"));
+        result.put("p99Ms", stats.get("p99Ms"));
+        return result;
+    }
+
+    private static Set<String> topK(List<String> ids, String self, int k) {
+        Set<String> result = new HashSet<>();
+        for (String id : ids) {
+            if (!id.equals(self) && result.size() < k) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private static int[] oversampling(Map<String, String> options) {
+        if (!options.containsKey("oversampling")) {
+            return DEFAULT_OVERSAMPLING;
+        }
+        String[] values = options.get("oversampling").split(",");
+        int[] factors = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            factors[i] = Integer.parseInt(values[i].trim());
+        }
+        return factors;
+    }
+
+    // Same session setting as the application's connection-init-sql
+    private static Properties iterativeScan() {
+        Properties properties = new Properties();
+        properties.setProperty("options", "-c hnsw.iterative_scan=strict_order");
+        return properties;
+    }
+
+    private static float[] parse(String text) {
+        String[] values = text.substring(1, text.length() - 1).split(",");
+        float[] vector = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            vector[i] = Float.parseFloat(values[i]);
+        }
+        return vector;
+    }
+
+    private record Query(String id, float[] embedding) {
+    }
+}
@@ -0,0 +1,100 @@
+package com.samcode.finance_rag;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tracks one bulk ingestion (a zip archive or a server-side directory) and the
+ * {@link IngestionJob} of every document in it. The document list is filled in once the
+ * archive has been extracted or the directory walked.
+ */
+public class BulkIngestion {
+
+    private final String id = UUID.randomUUID().toString();
+    private final String source;
+    private final Instant submittedAt = Instant.now();
+
+    private volatile IngestionJob.Status status = IngestionJob.Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile List<IngestionJob> documents = List.of();
+
+    public BulkIngestion(String source) {
+        this.source = source;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public IngestionJob.Status getStatus() {
+        return status;
+    }
+
+    public List<IngestionJob> getDocuments() {
+        return documents;
+    }
+
+    public boolean isFinished() {
+        return status == IngestionJob.Status.COMPLETED || status == IngestionJob.Status.FAILED;
+    }
+
+    void start() {
+        startedAt = Instant.now();
+        status = IngestionJob.Status.RUNNING;
+    }
+
+    void setDocuments(List<IngestionJob> documents) {
+        this.documents = List.copyOf(documents);
+    }
+
+    void complete() {
+        finishedAt = Instant.now();
+        status = IngestionJob.Status.COMPLETED;
+    }
+
+    void fail(String message) {
+        finishedAt = Instant.now();
+        error = message;
+        status = IngestionJob.Status.FAILED;
+    }
+
+    public Map<String, Object> toStatus() {
+        int succeeded = 0;
+        int failed = 0;
+        List<Map<String, Object>> results = new ArrayList<>(documents.size());
+        for (IngestionJob job : documents) {
+            if (job.getStatus() == IngestionJob.Status.COMPLETED) {
+                succeeded++;
+            } else if (job.getStatus() == IngestionJob.Status.FAILED) {
+                failed++;
+            }
+            results.add(job.toStatus());
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("bulkId", id);
+        result.put("source", source);
+        result.put("status", status.name());
+        result.put("total", documents.size());
+        result.put("succeeded", succeeded);
+        result.put("failed", failed);
+        result.put("submittedAt", submittedAt.toString());
+        result.put("startedAt", startedAt != null ? startedAt.toString() : null);
+        result.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+        if (error != null) {
+            result.put("error", error);
+        }
+        result.put("documents", results);
+        return result;
+    }
+}
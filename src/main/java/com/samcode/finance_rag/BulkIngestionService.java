@@ -0,0 +1,422 @@
+package com.samcode.finance_rag;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Ingests many documents at once, from an uploaded zip archive or a directory on the server.
+ *
+ * Documents are parsed and chunked in parallel on a fork-join pool sized to the cores. Their
+ * chunks go into one shared buffer that is embedded and stored in {@code batch-size} slices, so
+ * small documents fill provider batches together instead of each sending its own half-empty
+ * one. A document is committed (recorded and its stale chunks deleted, as in
+ * {@link IngestionService#ingestDocument}) once every batch has been stored, and fails on its
+ * own when its parse or one of the batches holding its chunks fails.
+ */
+@Service
+public class BulkIngestionService {
+    private static final Logger log = LoggerFactory.getLogger(BulkIngestionService.class);
+
+    private final IngestionService ingestionService;
+    private final EmbeddingStage embeddingStage;
+    private final ForkJoinPool parsePool;
+    private final ThreadPoolExecutor coordinator;
+    private final Map<String, BulkIngestion> ingestions = new ConcurrentHashMap<>();
+    private final Path allowedRoot;
+    private final int batchSize;
+    private final int maxDocuments;
+    private final long maxEntryBytes;
+    private final long maxExtractedBytes;
+    private final int retainedJobs;
+
+    public BulkIngestionService(IngestionService ingestionService, EmbeddingStage embeddingStage,
+                                @Value("${finance-rag.bulk.parse-parallelism:0}") int parseParallelism,
+                                @Value("${finance-rag.bulk.batch-size:512}") int batchSize,
+                                @Value("${finance-rag.bulk.max-documents:1000}") int maxDocuments,
+                                @Value("${finance-rag.bulk.max-entry-mb:500}") long maxEntryMb,
+                                @Value("${finance-rag.bulk.max-extracted-mb:4096}") long maxExtractedMb,
+                                @Value("${finance-rag.bulk.queue-capacity:4}") int queueCapacity,
+                                @Value("${finance-rag.bulk.allowed-root:}") String allowedRoot,
+                                @Value("${finance-rag.ingestion.retained-jobs:100}") int retainedJobs) throws IOException {
+        this.ingestionService = ingestionService;
+        this.embeddingStage = embeddingStage;
+        this.batchSize = batchSize;
+        this.maxDocuments = maxDocuments;
+        this.maxEntryBytes = maxEntryMb * 1024 * 1024;
+        this.maxExtractedBytes = maxExtractedMb * 1024 * 1024;
+        this.retainedJobs = retainedJobs;
+        this.allowedRoot = allowedRoot.isBlank() ? null : Path.of(allowedRoot).toRealPath();
+        this.parsePool = new ForkJoinPool(parseParallelism > 0 ? parseParallelism : Runtime.getRuntime().availableProcessors());
+
+        // One bulk ingestion at a time; its documents already use every core
+        this.coordinator = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bulk-ingestion");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Spools a zip archive to disk and queues every PDF in it.
+     *
+     * @throws RejectedExecutionException when the bulk ingestion queue is full
+     */
+    public BulkIngestion submitArchive(MultipartFile archive) throws IOException {
+        Path spooled = Files.createTempFile("finance-rag-bulk-", ".zip");
+        archive.transferTo(spooled);
+
+        BulkIngestion bulk = new BulkIngestion(archive.getOriginalFilename());
+        try {
+            coordinator.execute(() -> {
+                Path workDir = null;
+                try {
+                    workDir = Files.createTempDirectory("finance-rag-bulk-");
+                    run(bulk, extractArchive(spooled, workDir));
+                } catch (Exception e) {
+                    log.error("Bulk ingestion {} of '{}' failed", bulk.getId(), bulk.getSource(), e);
+                    bulk.fail(e.getMessage());
+                } finally {
+                    deleteQuietly(spooled);
+                    deleteQuietly(workDir);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        return register(bulk);
+    }
+
+    /**
+     * Queues every PDF below {@code directory}, which must lie inside {@code finance-rag.bulk.allowed-root}.
+     *
+     * @throws IllegalArgumentException when directory ingestion is disabled or the directory is not allowed
+     * @throws RejectedExecutionException when the bulk ingestion queue is full
+     */
+    public BulkIngestion submitDirectory(String directory) throws IOException {
+        if (allowedRoot == null) {
+            throw new IllegalArgumentException("Directory ingestion is disabled; set finance-rag.bulk.allowed-root");
+        }
+        Path resolved = Path.of(directory).toRealPath();
+        if (!resolved.startsWith(allowedRoot) || !Files.isDirectory(resolved)) {
+            throw new IllegalArgumentException("Not a directory under " + allowedRoot + ": " + directory);
+        }
+
+        BulkIngestion bulk = new BulkIngestion(directory);
+        coordinator.execute(() -> {
+            try {
+                run(bulk, listDirectory(resolved));
+            } catch (Exception e) {
+                log.error("Bulk ingestion {} of '{}' failed", bulk.getId(), bulk.getSource(), e);
+                bulk.fail(e.getMessage());
+            }
+        });
+        return register(bulk);
+    }
+
+    public Optional<BulkIngestion> findIngestion(String bulkId) {
+        return Optional.ofNullable(ingestions.get(bulkId));
+    }
+
+    private BulkIngestion register(BulkIngestion bulk) {
+        ingestions.put(bulk.getId(), bulk);
+        evictFinished();
+        log.info("Queued bulk ingestion {} of '{}'", bulk.getId(), bulk.getSource());
+        return bulk;
+    }
+
+    private void run(BulkIngestion bulk, Map<String, Path> pdfs) throws InterruptedException {
+        bulk.start();
+        long started = System.currentTimeMillis();
+        Map<String, IngestionJob> jobs = new LinkedHashMap<>();
+        pdfs.keySet().forEach(filename -> jobs.put(filename, new IngestionJob(filename)));
+        bulk.setDocuments(new ArrayList<>(jobs.values()));
+
+        SharedBuffer buffer = new SharedBuffer(bulk);
+        Map<String, IngestionService.DocumentDiff> diffs = new ConcurrentHashMap<>();
+        // Held from diff to commit, so an upload of the same file waits for this run and vice versa
+        Map<String, IngestionService.DocumentLock> locks = new ConcurrentHashMap<>();
+        List<Callable<Void>> parses = new ArrayList<>(pdfs.size());
+        pdfs.forEach((filename, pdf) -> parses.add(() -> {
+            IngestionJob job = jobs.get(filename);
+            job.start();
+            try {
+                locks.put(filename, ingestionService.lock(filename));
+                Optional<IngestionService.DocumentDiff> diff = ingestionService.diff(pdf, filename, job, buffer::add);
+                if (diff.isPresent()) {
+                    diffs.put(filename, diff.get());
+                    job.enterStage(IngestionJob.Stage.EMBED);
+                } else {
+                    locks.remove(filename).close();
+                    job.complete();
+                }
+            } catch (Exception e) {
+                log.error("Bulk ingestion {}: parsing '{}' failed", bulk.getId(), filename, e);
+                IngestionService.DocumentLock lock = locks.remove(filename);
+                if (lock != null) {
+                    lock.close();
+                }
+                job.fail(e.getMessage());
+            }
+            return null;
+        }));
+        try {
+            parsePool.invokeAll(parses);
+            buffer.flush();
+
+            // Commit only documents whose new chunks were all stored
+            for (Map.Entry<String, IngestionService.DocumentDiff> entry : diffs.entrySet()) {
+                IngestionJob job = jobs.get(entry.getKey());
+                String failure = buffer.failures.get(entry.getKey());
+                if (failure != null) {
+                    job.fail(failure);
+                    continue;
+                }
+                try {
+                    ingestionService.commit(entry.getValue(), job);
+                    job.complete();
+                } catch (Exception e) {
+                    log.error("Bulk ingestion {}: committing '{}' failed", bulk.getId(), entry.getKey(), e);
+                    job.fail(e.getMessage());
+                }
+            }
+        } finally {
+            locks.values().forEach(IngestionService.DocumentLock::close);
+        }
+        bulk.complete();
+        log.info("Bulk ingestion {} of '{}' finished: {} documents in {} ms",
+                bulk.getId(), bulk.getSource(), pdfs.size(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Extracts the PDF entries of a zip archive, keyed by their file name without the folders,
+     * the name an upload of the same file through {@code /api/upload} is ingested under. When
+     * entries in different folders share a file name, the first in archive order is ingested
+     * and the others are skipped with a warning, as they would replace it. Entries are
+     * copied with a byte count, as the sizes a zip declares cannot be trusted; the archive is
+     * rejected once an entry exceeds {@code max-entry-mb} or all of them {@code max-extracted-mb},
+     * so a small, highly compressed archive cannot fill the disk.
+     */
+    Map<String, Path> extractArchive(Path archive, Path workDir) throws IOException {
+        Map<String, Path> pdfs = new LinkedHashMap<>();
+        long extracted = 0;
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                String path = entry.getName();
+                if (entry.isDirectory() || !isPdf(path) || path.startsWith("__MACOSX/")) {
+                    continue;
+                }
+                String name = fileName(path);
+                if (pdfs.containsKey(name)) {
+                    log.warn("Skipping archive entry '{}': another entry is already ingested as '{}'", path, name);
+                    continue;
+                }
+                checkDocumentLimit(pdfs.size());
+                // Written under a generated name, so an entry name cannot point outside the work directory
+                Path target = workDir.resolve(pdfs.size() + ".pdf");
+                extracted += copyBounded(in, target, name, maxExtractedBytes - extracted);
+                pdfs.put(name, target);
+            }
+        }
+        return pdfs;
+    }
+
+    /**
+     * PDFs below {@code directory} keyed by file name, like {@link #extractArchive}; of files
+     * sharing a name the first in path order is ingested.
+     */
+    private Map<String, Path> listDirectory(Path directory) throws IOException {
+        Map<String, Path> pdfs = new LinkedHashMap<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Iterator<Path> it = files.filter(Files::isRegularFile).filter(file -> isPdf(file.toString()))
+                    .sorted().iterator(); it.hasNext(); ) {
+                Path pdf = it.next();
+                String name = pdf.getFileName().toString();
+                if (pdfs.containsKey(name)) {
+                    log.warn("Skipping '{}': another file is already ingested as '{}'", pdf, name);
+                    continue;
+                }
+                checkDocumentLimit(pdfs.size());
+                pdfs.put(name, pdf);
+            }
+        }
+        return pdfs;
+    }
+
+    /**
+     * Copies the current zip entry to {@code target} and returns its size.
+     *
+     * @throws IllegalArgumentException past the per-entry limit or the {@code remaining} archive budget
+     */
+    private long copyBounded(InputStream in, Path target, String name, long remaining) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        long copied = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            for (int read = in.read(chunk); read >= 0; read = in.read(chunk)) {
+                copied += read;
+                if (copied > maxEntryBytes) {
+                    throw new IllegalArgumentException("Archive entry '" + name + "' extracts to more than "
+                            + maxEntryBytes / (1024 * 1024) + " MB");
+                }
+                if (copied > remaining) {
+                    throw new IllegalArgumentException("Archive extracts to more than "
+                            + maxExtractedBytes / (1024 * 1024) + " MB");
+                }
+                out.write(chunk, 0, read);
+            }
+        }
+        return copied;
+    }
+
+    private void checkDocumentLimit(int count) {
+        if (count >= maxDocuments) {
+            throw new IllegalArgumentException("More than " + maxDocuments + " PDFs in one bulk ingestion");
+        }
+    }
+
+    private static String fileName(String entryPath) {
+        // Zip paths use '/', though archives made on Windows sometimes contain '\\'
+        return entryPath.substring(Math.max(entryPath.lastIndexOf('/'), entryPath.lastIndexOf('\\')) + 1);
+    }
+
+    private static boolean isPdf(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+    private void evictFinished() {
+        if (ingestions.size() <= retainedJobs) {
+            return;
+        }
+        Iterator<BulkIngestion> iterator = ingestions.values().iterator();
+        while (ingestions.size() > retainedJobs && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            FileSystemUtils.deleteRecursively(path);
+        } catch (IOException e) {
+            log.warn("Could not delete bulk ingestion file {}", path, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdown();
+        parsePool.shutdown();
+    }
+
+    /**
+     * Chunks of all documents in a bulk ingestion, embedded and stored whenever a batch is full.
+     * The parse thread that fills a batch stores it, which also holds back parsing while the
+     * embedding stage is saturated.
+     */
+    private final class SharedBuffer {
+        private final BulkIngestion bulk;
+        // Embedded/stored totals across documents; per-document counts are attributed after each batch
+        private final IngestionJob totals;
+        private final Map<String, String> failures = new ConcurrentHashMap<>();
+        private List<Document> pending = new ArrayList<>();
+
+        SharedBuffer(BulkIngestion bulk) {
+            this.bulk = bulk;
+            this.totals = new IngestionJob(bulk.getSource());
+        }
+
+        void add(List<Document> chunks) throws InterruptedException {
+            List<Document> full = null;
+            synchronized (this) {
+                pending.addAll(chunks);
+                if (pending.size() >= batchSize) {
+                    full = pending;
+                    pending = new ArrayList<>();
+                }
+            }
+            if (full != null) {
+                store(full);
+            }
+        }
+
+        void flush() throws InterruptedException {
+            List<Document> rest;
+            synchronized (this) {
+                rest = pending;
+                pending = new ArrayList<>();
+            }
+            if (!rest.isEmpty()) {
+                store(rest);
+            }
+        }
+
+        private void store(List<Document> batch) throws InterruptedException {
+            Set<Document> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+            String failure = null;
+            try {
+                embeddingStage.embedAndStore(batch, totals);
+            } catch (EmbeddingStage.EmbeddingFailedException e) {
+                log.warn("Bulk ingestion {}: {}", bulk.getId(), e.getMessage());
+                failed.addAll(e.getFailedChunks());
+                failure = e.getMessage();
+            }
+
+            Map<String, Integer> storedByDocument = new HashMap<>();
+            for (Document chunk : batch) {
+                String filename = (String) chunk.getMetadata().get("filename");
+                if (failed.contains(chunk)) {
+                    failures.putIfAbsent(filename, failure);
+                } else {
+                    storedByDocument.merge(filename, 1, Integer::sum);
+                }
+            }
+            for (IngestionJob job : bulk.getDocuments()) {
+                Integer stored = storedByDocument.get(job.getFilename());
+                if (stored != null) {
+                    job.addEmbedded(stored);
+                    job.addStored(stored);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.samcode.finance_rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-hash keyed embedding cache in front of the OpenAI embedding model.
+ *
+ * Granular chunking stores the same sentence as a {@code sentence} and a {@code numerical_data}
+ * chunk, and re-uploads repeat whole documents, so every text is looked up in an in-memory LRU,
+ * then in the persistent {@code embedding_cache} table, and only the remaining misses are sent
+ * to the provider. Marked {@code @Primary} so the vector store embeds through it.
+ */
+@Component
+@Primary
+public class CachingEmbeddingModel implements EmbeddingModel {
+    private static final Logger log = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCacheRepository repository;
+    private final QueryEmbeddingCache queryCache;
+    private final String namespace;
+    private final Map<String, float[]> memoryCache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingEmbeddingModel(@Qualifier("openAiEmbeddingModel") EmbeddingModel delegate,
+                                 EmbeddingCacheRepository repository,
+                                 QueryEmbeddingCache queryCache,
+                                 @Value("${finance-rag.embedding-cache.max-entries:5000}") int maxEntries,
+                                 @Value("${spring.ai.openai.embedding.options.model:text-embedding-ada-002}") String namespace) {
+        this.delegate = delegate;
+        this.repository = repository;
+        this.queryCache = queryCache;
+        this.namespace = namespace;
+        this.memoryCache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        float[][] results = new float[texts.size()][];
+
+        // Identical texts inside one request share a single lookup
+        Map<String, List<Integer>> positionsByHash = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            positionsByHash.computeIfAbsent(contentHash(texts.get(i)), key -> new ArrayList<>()).add(i);
+        }
+
+        Map<String, float[]> resolved = new LinkedHashMap<>();
+        synchronized (memoryCache) {
+            for (String hash : positionsByHash.keySet()) {
+                float[] cached = memoryCache.get(hash);
+                if (cached != null) {
+                    resolved.put(hash, cached);
+                }
+            }
+        }
+
+        List<String> pending = positionsByHash.keySet().stream().filter(hash -> !resolved.containsKey(hash)).toList();
+        if (!pending.isEmpty()) {
+            Map<String, float[]> persisted = repository.findAll(pending);
+            resolved.putAll(persisted);
+            remember(persisted);
+        }
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        List<String> missingHashes = positionsByHash.keySet().stream().filter(hash -> !resolved.containsKey(hash)).toList();
+        if (!missingHashes.isEmpty()) {
+            List<String> missingTexts = missingHashes.stream()
+                    .map(hash -> texts.get(positionsByHash.get(hash).get(0)))
+                    .toList();
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            metadata = response.getMetadata();
+
+            Map<String, float[]> fresh = new LinkedHashMap<>();
+            for (Embedding embedding : response.getResults()) {
+                fresh.put(missingHashes.get(embedding.getIndex()), embedding.getOutput());
+            }
+            repository.saveAll(fresh);
+            remember(fresh);
+            resolved.putAll(fresh);
+        }
+
+        int reused = texts.size() - missingHashes.size();
+        hits.addAndGet(reused);
+        misses.addAndGet(missingHashes.size());
+        log.debug("Embedding cache: {} of {} texts reused, {} sent to provider", reused, texts.size(), missingHashes.size());
+
+        positionsByHash.forEach((hash, positions) -> positions.forEach(i -> results[i] = resolved.get(hash)));
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < results.length; i++) {
+            embeddings.add(new Embedding(results[i], i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    /**
+     * Single-text embeds are questions (the vector store's query embedding and
+     * {@link RetrievalService#embedQuestion}); they go through the in-memory query cache
+     * instead of the persistent chunk cache.
+     */
+    @Override
+    public float[] embed(String text) {
+        return queryCache.get(text, delegate::embed);
+    }
+
+    /**
+     * Batched counterpart of {@link #embed(String)}: uncached questions go to the provider in
+     * a single request and land in the query cache.
+     */
+    public List<float[]> embedQuestions(List<String> questions) {
+        return queryCache.getAll(questions, delegate::embed);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(List.of(document.getText())).get(0);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void remember(Map<String, float[]> embeddings) {
+        synchronized (memoryCache) {
+            memoryCache.putAll(embeddings);
+        }
+    }
+
+    private String contentHash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(namespace.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
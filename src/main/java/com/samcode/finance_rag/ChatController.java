@@ -1,67 +1,89 @@
 package com.samcode.finance_rag;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Controller
 public class ChatController {
 
     private final ChatClient chatClient;
     private final GeminiService geminiService;
-    private final IngestionService ingestionService;
-    private final VectorStore vectorStore;
+    private final IngestionJobService ingestionJobService;
+    private final BulkIngestionService bulkIngestionService;
+    private final RetrievalService retrievalService;
+    private final SemanticAnswerCache answerCache;
+    private final ProviderBulkheads bulkheads;
+    private final ModelRace modelRace;
+    private final ChatSessions chatSessions;
+    private final RagMetrics metrics;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int maxBatchQuestions;
+    private final int batchConcurrency;
+    // Streams spend their life blocked on the provider, so each gets a cheap virtual thread
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
-    private static final String FINANCIAL_SYSTEM_PROMPT = """
-        You are a sophisticated financial analyst AI assistant specializing in analyzing financial documents, presentations, and reports.
-        
-        CORE EXPERTISE:
-        - Financial markets analysis (equity, fixed income, alternatives, currencies, commodities)
-        - Investment strategies and portfolio management
-        - Economic indicators and market trends
-        - Risk assessment and valuation analysis
-        - Corporate earnings and performance metrics
-        
-        RESPONSE GUIDELINES:
-        1. ALWAYS provide accurate, data-driven analysis based on the retrieved context
-        2. MANDATORY: Include specific source citations using [Source: Slide X] format for every key point
-        3. Present numerical data with proper context and units (%, bps, $, etc.)
-        4. Explain financial concepts clearly when asked
-        5. Acknowledge limitations when data is insufficient
-        
-        CITATION REQUIREMENTS:
-        - Use [Source: Slide X] for single source references
-        - Use [Sources: Slide X, Y, Z] for multiple sources
-        - Be specific about slide numbers from the document metadata
-        - If no slide number is available, use [Source: Document section]
-        
-        FINANCIAL ANALYSIS FOCUS:
-        - Interpret trends, correlations, and performance metrics
-        - Explain market movements and economic implications
-        - Provide context for investment decisions and risk factors
-        - Highlight key insights and actionable information
-        
-        If the provided context doesn't contain sufficient information to answer the question accurately, 
-        clearly state the limitation rather than speculating.
-        """;
+    private static final String OPENAI_CACHE_KEY = "openai";
+    private static final String AUTO = "auto";
+    private static final String OPENAI_MODEL_NAME = "OpenAI GPT-4.1";
+    private static final String GEMINI_MODEL_NAME = "Google Gemini 1.5 Flash";
+    private static final String AUTO_MODEL_NAME = "Auto (cached)";
+    private static final long STREAM_TIMEOUT_MS = 120_000;
+    private static final long BATCH_TIMEOUT_MS = 600_000;
+    private static final String ERROR_ANSWER = "I apologize, but I encountered an error while processing your question. Please try again.";
 
-    public ChatController(ChatClient.Builder builder, PgVectorStore vectorStore, 
-                         GeminiService geminiService, IngestionService ingestionService) {
+    public ChatController(ChatClient.Builder builder, RetrievalService retrievalService,
+                         GeminiService geminiService, IngestionJobService ingestionJobService,
+                         BulkIngestionService bulkIngestionService, SemanticAnswerCache answerCache, ProviderBulkheads bulkheads,
+                         ModelRace modelRace, ChatSessions chatSessions, RagMetrics metrics,
+                         @Value("${finance-rag.chat.batch.max-questions:200}") int maxBatchQuestions,
+                         @Value("${finance-rag.chat.batch.concurrency:8}") int batchConcurrency) {
         this.chatClient = builder
-                .defaultSystem(FINANCIAL_SYSTEM_PROMPT)
+                // Sent once per request and identical every time, so OpenAI's prompt caching can reuse it
+                .defaultSystem(FinancialPrompts.STATIC_PREFIX)
                 .build(); // Removed default advisor; we'll do manual RAG below
-        this.vectorStore = vectorStore;
+        this.retrievalService = retrievalService;
         this.geminiService = geminiService;
-        this.ingestionService = ingestionService;
+        this.ingestionJobService = ingestionJobService;
+        this.bulkIngestionService = bulkIngestionService;
+        this.answerCache = answerCache;
+        this.bulkheads = bulkheads;
+        this.modelRace = modelRace;
+        this.chatSessions = chatSessions;
+        this.metrics = metrics;
+        this.maxBatchQuestions = maxBatchQuestions;
+        this.batchConcurrency = batchConcurrency;
     }
 
     @GetMapping("/")
@@ -81,12 +103,17 @@ public class ChatController {
                 return ResponseEntity.badRequest().body(response);
             }
 
-            ingestionService.ingestDocument(file);
+            IngestionJob job = ingestionJobService.submit(file);
             
-            response.put("status", "success");
-            response.put("message", "Document uploaded and processed successfully!");
-            return ResponseEntity.ok(response);
+            response.put("status", "accepted");
+            response.put("jobId", job.getId());
+            response.put("message", "Document queued for processing");
+            return ResponseEntity.accepted().body(response);
             
+        } catch (RejectedExecutionException e) {
+            response.put("status", "error");
+            response.put("message", "Ingestion queue is full. Please try again shortly.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
         } catch (Exception e) {
             response.put("status", "error");
             response.put("message", "Error processing file: " + e.getMessage());
@@ -94,87 +121,716 @@ public class ChatController {
         }
     }
 
+    @GetMapping("/api/ingest/jobs/{id}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> ingestionJob(@PathVariable("id") String id) {
+        return ingestionJobService.findJob(id)
+                .map(job -> ResponseEntity.ok(job.toStatus()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Bulk ingestion of every PDF in an uploaded zip archive ({@code file}) or in a server-side
+     * {@code directory} below {@code finance-rag.bulk.allowed-root}. Returns 202 with a
+     * {@code bulkId}; per-document results are reported by {@link #bulkIngestion}.
+     */
+    @PostMapping("/api/ingest/bulk")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> bulkIngest(@RequestParam(value = "file", required = false) MultipartFile archive,
+                                                          @RequestParam(value = "directory", required = false) String directory) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            BulkIngestion bulk;
+            if (archive != null && !archive.isEmpty()) {
+                bulk = bulkIngestionService.submitArchive(archive);
+            } else if (directory != null && !directory.isBlank()) {
+                bulk = bulkIngestionService.submitDirectory(directory);
+            } else {
+                response.put("status", "error");
+                response.put("message", "Upload a zip archive or give a server-side directory");
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+            response.put("status", "accepted");
+            response.put("bulkId", bulk.getId());
+            response.put("message", "Documents queued for processing");
+            return ResponseEntity.accepted().body(response);
+            
+        } catch (RejectedExecutionException e) {
+            response.put("status", "error");
+            response.put("message", "Bulk ingestion queue is full. Please try again shortly.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "Error processing bulk ingestion: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    @GetMapping("/api/ingest/bulk/{id}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> bulkIngestion(@PathVariable("id") String id) {
+        return bulkIngestionService.findIngestion(id)
+                .map(bulk -> ResponseEntity.ok(bulk.toStatus()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Answers a question from the ingested documents. Retrieval can be restricted to some
+     * {@code document}s, a slide range ({@code slideFrom}/{@code slideTo}), {@code chunkType}s
+     * and chunks with numeric data ({@code financialOnly}); the filter runs inside pgvector.
+     * {@code model=auto} retrieves once and races the prompt across both providers, see {@link ModelRace}.
+     * With {@code session} ({@code new} or an id returned earlier) the question is a turn of a
+     * server-side conversation, see {@link ChatSessions}; the response carries the session id to
+     * send with the next turn, a new one when the old session has expired.
+     */
     @PostMapping("/api/chat")
     @ResponseBody
-    public ResponseEntity<Map<String, String>> chat(@RequestParam("question") String question,
-                                                   @RequestParam(value = "model", defaultValue = "openai") String model) {
-        Map<String, String> response = new HashMap<>();
+    public ResponseEntity<Map<String, Object>> chat(@RequestParam("question") String question,
+                                                   @RequestParam(value = "model", defaultValue = "openai") String model,
+                                                   @RequestParam(value = "timings", defaultValue = "false") boolean includeTimings,
+                                                   @RequestParam(value = "document", required = false) List<String> documents,
+                                                   @RequestParam(value = "slideFrom", required = false) Integer slideFrom,
+                                                   @RequestParam(value = "slideTo", required = false) Integer slideTo,
+                                                   @RequestParam(value = "chunkType", required = false) List<String> chunkTypes,
+                                                   @RequestParam(value = "financialOnly", defaultValue = "false") boolean financialOnly,
+                                                   @RequestParam(value = "session", required = false) String sessionId) {
+        Map<String, Object> response = new HashMap<>();
+        RetrievalFilter filter;
+        try {
+            filter = new RetrievalFilter(documents, slideFrom, slideTo, chunkTypes, financialOnly);
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("answer", e.getMessage());
+            response.put("model", "Error");
+            return ResponseEntity.badRequest().body(response);
+        }
+        ChatTimings timings = startChat(model);
+        ChatSession session = sessionId != null ? chatSessions.resolve(sessionId) : null;
         
         try {
             String answer;
             String modelUsed;
+            // Cache hits are answered without taking, or waiting for, a provider permit
+            CacheLookup lookup = lookupAnswer(question, answerCacheKey(session, model, filter), timings);
             
-            if ("gemini".equals(model)) {
-                answer = geminiService.chat(question);
-                modelUsed = "Google Gemini 1.5 Flash";
+            if (session != null) {
+                SessionAnswer turn;
+                if (lookup.hit() != null) {
+                    turn = cachedSessionTurn(session, question, model, lookup.hit(), null);
+                } else if (AUTO.equals(model)) {
+                    turn = chatInSession(session, question, model, filter, timings, lookup, bulkheadFor(model).acquire(), null);
+                } else {
+                    turn = bulkheadFor(model).call(() -> chatInSession(session, question, model, filter, timings, lookup, null, null));
+                }
+                answer = turn.answer();
+                modelUsed = turn.modelName();
+                response.put("session", session.getId());
+                if (turn.hedged() != null) {
+                    response.put("hedged", turn.hedged());
+                }
+            } else if (lookup.hit() != null) {
+                answer = lookup.hit().answer();
+                modelUsed = cachedModelName(model);
+                if (AUTO.equals(model)) {
+                    response.put("hedged", false);
+                }
+            } else if (AUTO.equals(model)) {
+                AutoAnswer auto = chatAuto(question, filter, timings, lookup, bulkheadFor(model).acquire(), null);
+                answer = auto.answer();
+                modelUsed = auto.modelName();
+                response.put("hedged", auto.hedged());
+            } else if ("gemini".equals(model)) {
+                answer = bulkheads.forModel(model).call(
+                        () -> geminiService.chat(question, lookup.questionEmbedding(), filter, timings));
+                modelUsed = GEMINI_MODEL_NAME;
             } else {
-                // OpenAI path with custom RAG context
-                List<Document> docs = vectorStore.similaritySearch(question);
-                String context = buildEnhancedContext(docs);
-                String userPrompt = buildPromptWithContext(question, context);
-                answer = chatClient.prompt()
-                        .system(FINANCIAL_SYSTEM_PROMPT)
-                        .user(userPrompt)
-                        .call()
-                        .content();
-                modelUsed = "OpenAI GPT-4.1";
+                answer = bulkheads.forModel(model).call(() -> chatOpenAi(question, filter, timings, lookup));
+                modelUsed = OPENAI_MODEL_NAME;
             }
             
             response.put("status", "success");
             response.put("answer", answer);
             response.put("model", modelUsed);
+            if (includeTimings) {
+                response.put("timings", timings.toMap());
+            }
             return ResponseEntity.ok(response);
             
+        } catch (ProviderBulkhead.BulkheadFullException e) {
+            return providerBusy(response, e.getRetryAfterSeconds());
         } catch (Exception e) {
+            if (ProviderBulkhead.isThrottling(e)) {
+                return providerBusy(response, bulkheadFor(model).retryAfterSeconds());
+            }
             response.put("status", "error");
-            response.put("answer", "I apologize, but I encountered an error while processing your question. Please try again.");
+            response.put("answer", ERROR_ANSWER);
             response.put("model", "Error");
             return ResponseEntity.badRequest().body(response);
         }
     }
 
-    private String buildEnhancedContext(List<Document> documents) {
-        StringBuilder context = new StringBuilder();
-        for (Document doc : documents) {
-            String slideNumber = extractSlideNumber(doc.getMetadata());
-            String chunkType = doc.getMetadata().getOrDefault("chunk_type", "content").toString();
-            context.append("--- Document Section ---\n");
-            context.append("Slide: ").append(slideNumber).append("\n");
-            context.append("Type: ").append(chunkType).append("\n");
-            context.append("Content: ").append(doc.getText()).append("\n\n");
+    /**
+     * Server-Sent-Events variant of {@link #chat}. Emits a {@code token} event per generated
+     * chunk, then a single {@code done} event carrying the model name and retrieved sources
+     * (plus the stage timings when {@code timings=true}). Takes the same retrieval filters.
+     * Answers 400 for an invalid filter and 429 with Retry-After, before the stream opens, when
+     * the provider is at capacity; the question is embedded and looked up in the answer cache
+     * first, so cache hits stream even then. With {@code model=auto} the stream commits to the first
+     * provider to produce a token. Takes {@code session} like {@link #chat}; the {@code done}
+     * event then carries the session id.
+     */
+    @PostMapping(value = "/api/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<SseEmitter> chatStream(@RequestParam("question") String question,
+                                                 @RequestParam(value = "model", defaultValue = "openai") String model,
+                                                 @RequestParam(value = "timings", defaultValue = "false") boolean includeTimings,
+                                                 @RequestParam(value = "document", required = false) List<String> documents,
+                                                 @RequestParam(value = "slideFrom", required = false) Integer slideFrom,
+                                                 @RequestParam(value = "slideTo", required = false) Integer slideTo,
+                                                 @RequestParam(value = "chunkType", required = false) List<String> chunkTypes,
+                                                 @RequestParam(value = "financialOnly", defaultValue = "false") boolean financialOnly,
+                                                 @RequestParam(value = "session", required = false) String sessionId) {
+        RetrievalFilter filter;
+        try {
+            filter = new RetrievalFilter(documents, slideFrom, slideTo, chunkTypes, financialOnly);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        ChatTimings timings = startChat(model);
+        ChatSession session = sessionId != null ? chatSessions.resolve(sessionId) : null;
+        
+        // Cache hits are answered without taking, or waiting for, a provider permit
+        CacheLookup lookup;
+        try {
+            lookup = lookupAnswer(question, answerCacheKey(session, model, filter), timings);
+        } catch (Exception e) {
+            if (ProviderBulkhead.isThrottling(e)) {
+                return tooManyRequests(bulkheadFor(model).retryAfterSeconds());
+            }
+            sendError(emitter, e);
+            return ResponseEntity.ok(emitter);
+        }
+        ProviderBulkhead.Permit permit = null;
+        if (lookup.hit() == null) {
+            try {
+                permit = bulkheadFor(model).acquire();
+            } catch (ProviderBulkhead.BulkheadFullException e) {
+                return tooManyRequests(e.getRetryAfterSeconds());
+            }
+        }
+        ProviderBulkhead.Permit held = permit;
+        
+        streamExecutor.execute(() -> {
+            Exception failure = null;
+            try {
+                List<Document> docs;
+                String modelUsed;
+                Boolean hedged = null;
+                
+                if (session != null) {
+                    SessionAnswer turn = lookup.hit() != null
+                            ? cachedSessionTurn(session, question, model, lookup.hit(), token -> sendToken(emitter, token))
+                            : chatInSession(session, question, model, filter, timings, lookup,
+                                    AUTO.equals(model) ? held : null, token -> sendToken(emitter, token));
+                    docs = turn.sources();
+                    modelUsed = turn.modelName();
+                    hedged = turn.hedged();
+                } else if (lookup.hit() != null) {
+                    sendToken(emitter, lookup.hit().answer());
+                    docs = lookup.hit().sources();
+                    modelUsed = cachedModelName(model);
+                    if (AUTO.equals(model)) {
+                        hedged = false;
+                    }
+                } else if (AUTO.equals(model)) {
+                    AutoAnswer auto = chatAuto(question, filter, timings, lookup, held, token -> sendToken(emitter, token));
+                    docs = auto.sources();
+                    modelUsed = auto.modelName();
+                    hedged = auto.hedged();
+                } else if ("gemini".equals(model)) {
+                    docs = geminiService.streamChat(question, lookup.questionEmbedding(), filter, timings,
+                            token -> sendToken(emitter, token));
+                    modelUsed = GEMINI_MODEL_NAME;
+                } else {
+                    docs = streamOpenAi(question, filter, timings, lookup, token -> sendToken(emitter, token));
+                    modelUsed = OPENAI_MODEL_NAME;
+                }
+                
+                Map<String, Object> done = new HashMap<>();
+                done.put("model", modelUsed);
+                done.put("sources", retrievalService.describeSources(docs));
+                if (hedged != null) {
+                    done.put("hedged", hedged);
+                }
+                if (session != null) {
+                    done.put("session", session.getId());
+                }
+                if (includeTimings) {
+                    done.put("timings", timings.toMap());
+                }
+                emitter.send(SseEmitter.event().name("done").data(done));
+                emitter.complete();
+                
+            } catch (Exception e) {
+                failure = e;
+                sendError(emitter, e);
+            } finally {
+                if (held != null) {
+                    held.release(failure);
+                }
+            }
+        });
+        
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Ends a chat session and frees its history and cached chunks before it would expire.
+     */
+    @DeleteMapping("/api/chat/sessions/{id}")
+    @ResponseBody
+    public ResponseEntity<Void> endSession(@PathVariable("id") String id) {
+        return chatSessions.remove(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Body of {@link #chatBatch}: the questions, the model and the same retrieval filters as {@link #chat}.
+     */
+    public record BatchChatRequest(List<String> questions, String model, List<String> documents,
+                                   Integer slideFrom, Integer slideTo, List<String> chunkTypes, boolean financialOnly) {
+    }
+
+    /**
+     * Answers a list of questions (e.g. a due-diligence questionnaire) against the same model
+     * and filters. The questions are embedded in one provider call, then answered concurrently,
+     * at most {@code finance-rag.chat.batch.concurrency} at a time and within the provider
+     * bulkhead. Each answer is written as one NDJSON line as soon as it is ready, so lines
+     * arrive out of order and carry the question's {@code index}; a final line with
+     * {@code "done": true} summarises the batch.
+     */
+    @PostMapping(value = "/api/chat/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<ResponseBodyEmitter> chatBatch(@RequestBody BatchChatRequest request,
+                                                         @RequestParam(value = "timings", defaultValue = "false") boolean includeTimings) {
+        List<String> questions = request.questions() != null
+                ? request.questions().stream().filter(q -> q != null && !q.isBlank()).toList()
+                : List.of();
+        if (questions.isEmpty() || questions.size() > maxBatchQuestions) {
+            return ResponseEntity.badRequest().build();
+        }
+        RetrievalFilter filter;
+        try {
+            filter = new RetrievalFilter(request.documents(), request.slideFrom(), request.slideTo(),
+                    request.chunkTypes(), request.financialOnly());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        String model = request.model() != null ? request.model() : "openai";
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(BATCH_TIMEOUT_MS);
+        
+        streamExecutor.execute(() -> runBatch(questions, model, filter, includeTimings, emitter));
+        
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    private void runBatch(List<String> questions, String model, RetrievalFilter filter, boolean includeTimings,
+                          ResponseBodyEmitter emitter) {
+        long started = System.nanoTime();
+        try {
+            // One embedding request for the whole batch; the per-question lookups below hit the query cache
+            retrievalService.embedQuestions(questions);
+        } catch (Exception e) {
+            // Each question falls back to embedding itself
+        }
+        
+        // Bounds this batch's share of the provider so interactive chats still get through
+        Semaphore slots = new Semaphore(batchConcurrency);
+        AtomicInteger answered = new AtomicInteger();
+        List<Future<?>> answers = new ArrayList<>();
+        for (int i = 0; i < questions.size(); i++) {
+            int index = i;
+            answers.add(streamExecutor.submit(() -> {
+                slots.acquire();
+                try {
+                    Map<String, Object> line = answerBatchQuestion(index, questions.get(index), model, filter, includeTimings);
+                    if ("success".equals(line.get("status"))) {
+                        answered.incrementAndGet();
+                    }
+                    writeLine(emitter, line);
+                } finally {
+                    slots.release();
+                }
+                return null;
+            }));
+        }
+        
+        try {
+            for (Future<?> answer : answers) {
+                answer.get();
+            }
+            Map<String, Object> done = new LinkedHashMap<>();
+            done.put("done", true);
+            done.put("questions", questions.size());
+            done.put("answered", answered.get());
+            done.put("failed", questions.size() - answered.get());
+            done.put("elapsedMs", (System.nanoTime() - started) / 1_000_000);
+            writeLine(emitter, done);
+            emitter.complete();
+        } catch (InterruptedException | ExecutionException | UncheckedIOException e) {
+            // The client went away (or the batch was interrupted); stop answering
+            answers.forEach(answer -> answer.cancel(true));
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            emitter.completeWithError(e);
         }
-        return context.toString();
     }
 
-    private String extractSlideNumber(Map<String, Object> metadata) {
-        if (metadata.containsKey("slide_number") && !"Unknown".equals(metadata.get("slide_number"))) {
-            return metadata.get("slide_number").toString();
+    private Map<String, Object> answerBatchQuestion(int index, String question, String model, RetrievalFilter filter,
+                                                    boolean includeTimings) {
+        ProviderBulkhead bulkhead = bulkheadFor(model);
+        ChatTimings timings = startChat(model);
+        long deadline = System.currentTimeMillis() + BATCH_TIMEOUT_MS;
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("index", index);
+        line.put("question", question);
+        
+        CacheLookup lookup = null;
+        while (true) {
+            long retryAfterSeconds;
+            try {
+                // Looked up once, before any permit; a throttled embedding is retried like a busy provider
+                if (lookup == null) {
+                    lookup = lookupAnswer(question, answerCacheKey(null, model, filter), timings);
+                }
+                CacheLookup miss = lookup;
+                if (lookup.hit() != null) {
+                    line.put("answer", lookup.hit().answer());
+                    line.put("model", cachedModelName(model));
+                } else if (AUTO.equals(model)) {
+                    AutoAnswer auto = chatAuto(question, filter, timings, miss, bulkhead.acquire(), null);
+                    line.put("answer", auto.answer());
+                    line.put("model", auto.modelName());
+                } else if ("gemini".equals(model)) {
+                    line.put("answer", bulkhead.call(
+                            () -> geminiService.chat(question, miss.questionEmbedding(), filter, timings)));
+                    line.put("model", GEMINI_MODEL_NAME);
+                } else {
+                    line.put("answer", bulkhead.call(() -> chatOpenAi(question, filter, timings, miss)));
+                    line.put("model", OPENAI_MODEL_NAME);
+                }
+                line.put("status", "success");
+                break;
+            } catch (ProviderBulkhead.BulkheadFullException e) {
+                retryAfterSeconds = e.getRetryAfterSeconds();
+            } catch (Exception e) {
+                if (!ProviderBulkhead.isThrottling(e)) {
+                    line.put("status", "error");
+                    line.put("answer", ERROR_ANSWER);
+                    break;
+                }
+                retryAfterSeconds = bulkhead.retryAfterSeconds();
+            }
+            // Unlike interactive chats, batch questions wait for capacity instead of failing fast
+            long waitMs = Math.max(1, retryAfterSeconds) * 1000;
+            if (System.currentTimeMillis() + waitMs > deadline) {
+                line.put("status", "error");
+                line.put("answer", "The model stayed busy; this question was not answered.");
+                break;
+            }
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                line.put("status", "error");
+                line.put("answer", ERROR_ANSWER);
+                break;
+            }
         }
-        if (metadata.containsKey("slide")) {
-            return metadata.get("slide").toString();
+        if (includeTimings) {
+            line.put("timings", timings.toMap());
         }
-        if (metadata.containsKey("page")) {
-            return metadata.get("page").toString();
+        return line;
+    }
+
+    private void writeLine(ResponseBodyEmitter emitter, Map<String, Object> line) {
+        try {
+            String json = objectMapper.writeValueAsString(line) + "\n";
+            // Answers finish on different threads; keep each line in one write
+            synchronized (emitter) {
+                emitter.send(json, MediaType.APPLICATION_NDJSON);
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unserialisable batch answer: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return "Unknown";
     }
 
-    private String buildPromptWithContext(String question, String context) {
-        return String.format("""
-            Context information from financial documents is below:
-            ---------------------
-            %s
-            ---------------------
-            Instructions:
-            - Analyze the provided context thoroughly using your financial expertise.
-            - Answer the user's question with specific data-driven insights.
-            - MANDATORY: Include [Source: Slide X] citations for every key point you reference.
-            - When referencing numerical data, include proper units and context.
-            - If analyzing trends or performance, provide meaningful interpretation.
-            - If the context lacks sufficient information, clearly state the limitation.
+    private static <T> ResponseEntity<T> tooManyRequests(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .build();
+    }
+
+    private ResponseEntity<Map<String, Object>> providerBusy(Map<String, Object> response, long retryAfterSeconds) {
+        response.put("status", "error");
+        response.put("answer", "The model is busy right now. Please try again in " + retryAfterSeconds + " seconds.");
+        response.put("model", "Error");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(response);
+    }
+
+    /**
+     * The question's embedding and, unless {@code cacheKey} is null, the cached answer to a
+     * near-identical question, if any.
+     */
+    private record CacheLookup(String cacheKey, float[] questionEmbedding, SemanticAnswerCache.CachedAnswer hit) {
+    }
+
+    /**
+     * Embeds the question and looks it up in the semantic answer cache under {@code cacheKey}
+     * (skipped when null). Runs before a provider permit is taken: a hit is answered without
+     * retrieval or generation and so needs none.
+     */
+    private CacheLookup lookupAnswer(String question, String cacheKey, ChatTimings timings) {
+        float[] questionEmbedding = timings.time(ChatTimings.EMBED_QUERY, () -> retrievalService.embedQuestion(question));
+        if (cacheKey == null) {
+            return new CacheLookup(null, questionEmbedding, null);
+        }
+        Optional<SemanticAnswerCache.CachedAnswer> cached = timings.time(ChatTimings.CACHE_LOOKUP,
+                () -> answerCache.lookup(cacheKey, questionEmbedding));
+        cached.ifPresent(hit -> timings.cacheHit());
+        return new CacheLookup(cacheKey, questionEmbedding, cached.orElse(null));
+    }
+
+    /**
+     * Answers a question that missed the answer cache in {@code lookup}.
+     */
+    private String chatOpenAi(String question, RetrievalFilter filter, ChatTimings timings, CacheLookup lookup) {
+        // OpenAI path with custom RAG context
+        List<Document> docs = timings.time(ChatTimings.SEARCH, () -> retrievalService.search(question, filter));
+        timings.retrieved(docs);
+        String context = timings.time(ChatTimings.CONTEXT, () -> retrievalService.buildContext(docs));
+        String userPrompt = timings.time(ChatTimings.PROMPT, () -> FinancialPrompts.userPrompt(question, context));
+        timings.prompt(context, FinancialPrompts.STATIC_PREFIX + userPrompt);
+        ChatResponse chatResponse = timings.time(ChatTimings.LLM, () -> chatClient.prompt()
+                .user(userPrompt)
+                .call()
+                .chatResponse());
+        recordUsage(chatResponse, timings);
+        String answer = chatResponse != null && chatResponse.getResult() != null
+                ? chatResponse.getResult().getOutput().getText()
+                : null;
+        answerCache.put(lookup.cacheKey(), lookup.questionEmbedding(), answer, docs);
+        return answer;
+    }
+
+    private List<Document> streamOpenAi(String question, RetrievalFilter filter, ChatTimings timings, CacheLookup lookup,
+                                        Consumer<String> onToken) {
+        List<Document> docs = timings.time(ChatTimings.SEARCH, () -> retrievalService.search(question, filter));
+        timings.retrieved(docs);
+        String context = timings.time(ChatTimings.CONTEXT, () -> retrievalService.buildContext(docs));
+        String userPrompt = timings.time(ChatTimings.PROMPT, () -> FinancialPrompts.userPrompt(question, context));
+        timings.prompt(context, FinancialPrompts.STATIC_PREFIX + userPrompt);
+        
+        StringBuilder answer = new StringBuilder();
+        timings.time(ChatTimings.LLM, () -> generateOpenAi(userPrompt, timings, token -> {
+            answer.append(token);
+            onToken.accept(token);
+        }));
+        answerCache.put(lookup.cacheKey(), lookup.questionEmbedding(), answer.toString(), docs);
+        return docs;
+    }
+
+    /**
+     * Streams the OpenAI answer to an assembled user prompt. Interrupting the calling thread
+     * cancels the subscription, and with it the HTTP call.
+     */
+    private void generateOpenAi(String userPrompt, ChatTimings timings, Consumer<String> onToken) {
+        ChatResponse last = chatClient.prompt()
+                .user(userPrompt)
+                .stream()
+                .chatResponse()
+                .doOnNext(response -> {
+                    String token = response.getResult() != null ? response.getResult().getOutput().getText() : null;
+                    if (token != null && !token.isEmpty()) {
+                        onToken.accept(token);
+                    }
+                })
+                .blockLast();
+        // With stream-usage enabled the final chunk carries usage for the whole answer
+        recordUsage(last, timings);
+    }
+
+    private record AutoAnswer(String modelName, String answer, List<Document> sources, boolean hedged) {
+    }
+
+    /**
+     * The {@code model=auto} path for a question that missed the answer cache in {@code lookup}:
+     * retrieval runs once, then the prompt is raced across both providers. Tokens reach
+     * {@code onToken} from the winner only; without it the first complete answer wins. Takes
+     * over {@code permit}, held on the primary provider's bulkhead.
+     */
+    private AutoAnswer chatAuto(String question, RetrievalFilter filter, ChatTimings timings, CacheLookup lookup,
+                                ProviderBulkhead.Permit permit, Consumer<String> onToken) {
+        try {
+            List<Document> docs = timings.time(ChatTimings.SEARCH, () -> retrievalService.search(question, filter));
+            timings.retrieved(docs);
+            String context = timings.time(ChatTimings.CONTEXT, () -> retrievalService.buildContext(docs));
+            String userPrompt = timings.time(ChatTimings.PROMPT, () -> FinancialPrompts.userPrompt(question, context));
+            timings.prompt(context, FinancialPrompts.STATIC_PREFIX + userPrompt);
             
-            Question: %s
+            Map<String, ModelRace.Contender> contenders = Map.of(
+                    ProviderBulkheads.OPENAI, tokens -> generateOpenAi(userPrompt, timings, tokens),
+                    ProviderBulkheads.GEMINI, tokens -> geminiService.streamPrompt(userPrompt, timings, tokens));
+            ModelRace.Result result = timings.time(ChatTimings.LLM, () -> modelRace.run(contenders, onToken, permit));
+            answerCache.put(lookup.cacheKey(), lookup.questionEmbedding(), result.answer(), docs);
+            String modelName = ProviderBulkheads.GEMINI.equals(result.provider()) ? GEMINI_MODEL_NAME : OPENAI_MODEL_NAME;
+            return new AutoAnswer(modelName, result.answer(), docs, result.hedged());
+        } catch (RuntimeException e) {
+            // No-op once the race has released it
+            permit.release(e);
+            throw e;
+        }
+    }
+
+    private record SessionAnswer(String modelName, String answer, List<Document> sources, Boolean hedged) {
+    }
+
+    /**
+     * One turn of a chat session that missed the answer cache in {@code lookup}, for any model.
+     * Retrieval goes through the session's chunk cache and the prompt carries the compacted
+     * history. Only the first turn, whose prompt has no history yet and so matches the stateless
+     * one, is stored in the semantic answer cache; later answers depend on the conversation.
+     * For {@code model=auto} the prompt is raced like in {@link #chatAuto}, which takes over
+     * {@code permit}; the other models run inside their caller's bulkhead and get a null permit.
+     */
+    private SessionAnswer chatInSession(ChatSession session, String question, String model, RetrievalFilter filter,
+                                        ChatTimings timings, CacheLookup lookup, ProviderBulkhead.Permit permit,
+                                        Consumer<String> onToken) {
+        try {
+            List<Document> docs = timings.time(ChatTimings.SEARCH,
+                    () -> chatSessions.retrieve(session, question, lookup.questionEmbedding(), filter, timings));
+            timings.retrieved(docs);
+            String context = timings.time(ChatTimings.CONTEXT, () -> retrievalService.buildContext(docs));
+            String userPrompt = timings.time(ChatTimings.PROMPT,
+                    () -> FinancialPrompts.userPrompt(question, context, session.history()));
+            timings.prompt(context, FinancialPrompts.STATIC_PREFIX + userPrompt);
             
-            Financial Analysis:""", context, question);
+            SessionAnswer turn;
+            if (AUTO.equals(model)) {
+                Map<String, ModelRace.Contender> contenders = Map.of(
+                        ProviderBulkheads.OPENAI, tokens -> generateOpenAi(userPrompt, timings, tokens),
+                        ProviderBulkheads.GEMINI, tokens -> geminiService.streamPrompt(userPrompt, timings, tokens));
+                ModelRace.Result result = timings.time(ChatTimings.LLM, () -> modelRace.run(contenders, onToken, permit));
+                String modelName = ProviderBulkheads.GEMINI.equals(result.provider()) ? GEMINI_MODEL_NAME : OPENAI_MODEL_NAME;
+                turn = new SessionAnswer(modelName, result.answer(), docs, result.hedged());
+            } else {
+                StringBuilder answer = new StringBuilder();
+                Consumer<String> tokens = token -> {
+                    answer.append(token);
+                    if (onToken != null) {
+                        onToken.accept(token);
+                    }
+                };
+                boolean gemini = "gemini".equals(model);
+                timings.time(ChatTimings.LLM, () -> {
+                    if (gemini) {
+                        geminiService.streamPrompt(userPrompt, timings, tokens);
+                    } else {
+                        generateOpenAi(userPrompt, timings, tokens);
+                    }
+                });
+                turn = new SessionAnswer(modelName(model), answer.toString(), docs, null);
+            }
+            if (lookup.cacheKey() != null) {
+                answerCache.put(lookup.cacheKey(), lookup.questionEmbedding(), turn.answer(), docs);
+            }
+            chatSessions.addTurn(session, question, turn.answer());
+            return turn;
+        } catch (RuntimeException e) {
+            if (permit != null) {
+                // No-op once the race has released it
+                permit.release(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A session turn answered from the semantic answer cache; no provider is involved.
+     */
+    private SessionAnswer cachedSessionTurn(ChatSession session, String question, String model,
+                                            SemanticAnswerCache.CachedAnswer hit, Consumer<String> onToken) {
+        if (onToken != null) {
+            onToken.accept(hit.answer());
+        }
+        chatSessions.addTurn(session, question, hit.answer());
+        return new SessionAnswer(cachedModelName(model), hit.answer(), hit.sources(), AUTO.equals(model) ? false : null);
+    }
+
+    /**
+     * Answer-cache key of a request for a model and filter, shared by sessions and the stateless
+     * path; null for a follow-up session turn, whose answer depends on the conversation.
+     */
+    private static String answerCacheKey(ChatSession session, String model, RetrievalFilter filter) {
+        if (session != null && session.hasHistory()) {
+            return null;
+        }
+        if (AUTO.equals(model)) {
+            return AUTO + filter.cacheKey();
+        }
+        return ("gemini".equals(model) ? GeminiService.CACHE_MODEL_KEY : OPENAI_CACHE_KEY) + filter.cacheKey();
+    }
+
+    private static String modelName(String model) {
+        return "gemini".equals(model) ? GEMINI_MODEL_NAME : OPENAI_MODEL_NAME;
+    }
+
+    private static String cachedModelName(String model) {
+        return AUTO.equals(model) ? AUTO_MODEL_NAME : modelName(model);
+    }
+
+    private ProviderBulkhead bulkheadFor(String model) {
+        return bulkheads.forModel(AUTO.equals(model) ? modelRace.getPrimary() : model);
+    }
+
+    private ChatTimings startChat(String model) {
+        return metrics.startChat(AUTO.equals(model) ? AUTO : bulkheads.forModel(model).getProvider());
+    }
+
+    private void recordUsage(ChatResponse response, ChatTimings timings) {
+        if (response != null && response.getMetadata() != null && response.getMetadata().getUsage() != null) {
+            Usage usage = response.getMetadata().getUsage();
+            timings.tokens(usage.getPromptTokens(), usage.getCompletionTokens());
+            if (usage.getNativeUsage() instanceof OpenAiApi.Usage openAiUsage && openAiUsage.promptTokensDetails() != null) {
+                timings.cachedPromptTokens(openAiUsage.promptTokensDetails().cachedTokens());
+            }
+        }
+    }
+
+    private void sendError(SseEmitter emitter, Exception failure) {
+        try {
+            emitter.send(SseEmitter.event().name("error")
+                    .data(Map.of("message", ERROR_ANSWER)));
+            emitter.complete();
+        } catch (Exception sendFailure) {
+            // Client already went away; nothing left to report
+            emitter.completeWithError(failure);
+        }
+    }
+
+    private void sendToken(SseEmitter emitter, String token) {
+        try {
+            emitter.send(SseEmitter.event().name("token").data(Map.of("text", token)));
+        } catch (IOException e) {
+            // Abort generation when the client disconnects
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,185 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One server-side conversation: a token-bounded history and the chunks retrieved for its
+ * earlier turns.
+ *
+ * The history keeps the latest turns verbatim. Once they outgrow their token budget, the
+ * oldest turn is folded into the summary as its question plus the first sentence of its answer,
+ * and the summary keeps only its newest lines within its own budget. Compaction is extractive,
+ * so it never costs a model call.
+ *
+ * Retrieved chunks are kept with their normalized embeddings and the filter they were
+ * retrieved under, least recently used first out, so a follow-up can be answered from them.
+ */
+public class ChatSession {
+
+    private static final int SUMMARY_ANSWER_CHARS = 240;
+
+    private record Turn(String question, String answer) {
+        int tokens() {
+            return RagMath.estimateTokens(question) + RagMath.estimateTokens(answer);
+        }
+    }
+
+    private record CachedChunk(Document document, float[] embedding, String filterKey) {
+    }
+
+    private final String id;
+    private final int historyTokens;
+    private final int summaryTokens;
+    private final Deque<Turn> turns = new ArrayDeque<>();
+    private final Deque<String> summary = new ArrayDeque<>();
+    private final Map<String, CachedChunk> chunks;
+    private int turnCount;
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    ChatSession(String id, int historyTokens, int summaryTokens, int maxChunks) {
+        this.id = id;
+        this.historyTokens = historyTokens;
+        this.summaryTokens = summaryTokens;
+        this.chunks = new LinkedHashMap<>(32, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedChunk> eldest) {
+                return size() > maxChunks;
+            }
+        };
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public synchronized int getTurnCount() {
+        return turnCount;
+    }
+
+    public synchronized boolean hasHistory() {
+        return turnCount > 0;
+    }
+
+    /**
+     * The conversation so far for the prompt: summary lines of compacted turns, then the
+     * recent turns verbatim. Empty before the first answer.
+     */
+    public synchronized String history() {
+        if (turnCount == 0) {
+            return "";
+        }
+        StringBuilder history = new StringBuilder();
+        if (!summary.isEmpty()) {
+            history.append("Summary of earlier turns:\n");
+            summary.forEach(line -> history.append("- ").append(line).append("\n"));
+        }
+        for (Turn turn : turns) {
+            history.append("User: ").append(turn.question()).append("\n");
+            history.append("Assistant: ").append(turn.answer()).append("\n");
+        }
+        return history.toString();
+    }
+
+    /**
+     * Appends an answered turn and compacts the history back under its budgets.
+     */
+    public synchronized void addTurn(String question, String answer) {
+        turns.addLast(new Turn(question, answer != null ? answer : ""));
+        turnCount++;
+        int recentTokens = turns.stream().mapToInt(Turn::tokens).sum();
+        while (recentTokens > historyTokens && !turns.isEmpty()) {
+            Turn oldest = turns.removeFirst();
+            recentTokens -= oldest.tokens();
+            summary.addLast("Q: " + oldest.question() + " A: " + firstSentence(oldest.answer()));
+        }
+        int summarized = summary.stream().mapToInt(RagMath::estimateTokens).sum();
+        while (summarized > summaryTokens && !summary.isEmpty()) {
+            summarized -= RagMath.estimateTokens(summary.removeFirst());
+        }
+    }
+
+    /**
+     * Cached chunks retrieved under the same filter that are at least {@code minSimilarity}
+     * similar to the question, best first and at most {@code topK}, scored by that similarity.
+     * Empty unless at least {@code minChunks} qualify, in which case the caller should search.
+     */
+    public synchronized List<Document> reusableChunks(float[] questionEmbedding, String filterKey, int topK,
+                                                      double minSimilarity, int minChunks) {
+        float[] question = RagMath.normalize(questionEmbedding);
+        List<Document> matches = new ArrayList<>();
+        for (CachedChunk chunk : chunks.values()) {
+            if (!chunk.filterKey().equals(filterKey)) {
+                continue;
+            }
+            double similarity = RagMath.dot(question, chunk.embedding());
+            if (similarity >= minSimilarity) {
+                matches.add(chunk.document().mutate().score(similarity).build());
+            }
+        }
+        if (matches.size() < minChunks) {
+            return List.of();
+        }
+        matches.sort(Comparator.comparingDouble(Document::getScore).reversed());
+        List<Document> reused = matches.subList(0, Math.min(topK, matches.size()));
+        // Refresh the LRU position of the chunks used
+        reused.forEach(doc -> chunks.get(doc.getId()));
+        return List.copyOf(reused);
+    }
+
+    /**
+     * Remembers chunks retrieved under {@code filterKey}; {@code embeddings} are parallel to
+     * {@code documents}.
+     */
+    public synchronized void remember(List<Document> documents, List<float[]> embeddings, String filterKey) {
+        for (int i = 0; i < documents.size(); i++) {
+            Document doc = documents.get(i);
+            chunks.put(doc.getId(), new CachedChunk(doc, RagMath.normalize(embeddings.get(i)), filterKey));
+        }
+    }
+
+    public synchronized void invalidateDocument(String filename) {
+        chunks.values().removeIf(chunk -> filename.equals(chunk.document().getMetadata().get("filename")));
+    }
+
+    /**
+     * Rough heap footprint: two bytes per character of text and four per embedding value.
+     */
+    public synchronized long estimatedBytes() {
+        long bytes = 0;
+        for (Turn turn : turns) {
+            bytes += 2L * (turn.question().length() + turn.answer().length());
+        }
+        for (String line : summary) {
+            bytes += 2L * line.length();
+        }
+        for (CachedChunk chunk : chunks.values()) {
+            bytes += 2L * chunk.document().getText().length() + 4L * chunk.embedding().length;
+        }
+        return bytes;
+    }
+
+    private static String firstSentence(String answer) {
+        String text = answer.strip().replaceAll("\\s+", " ");
+        int end = text.indexOf(". ");
+        if (end >= 0) {
+            text = text.substring(0, end + 1);
+        }
+        return text.length() <= SUMMARY_ANSWER_CHARS ? text : text.substring(0, SUMMARY_ANSWER_CHARS) + "...";
+    }
+}
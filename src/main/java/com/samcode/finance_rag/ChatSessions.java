@@ -0,0 +1,185 @@
+package com.samcode.finance_rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Registry of server-side {@link ChatSession}s and the retrieval that reuses their chunks.
+ *
+ * A follow-up question is first matched against the chunks its session retrieved earlier;
+ * when at least {@code reuse-min-chunks} of them clear {@code reuse-similarity}, they are
+ * re-ranked for the new question and the vector search is skipped. Otherwise the search
+ * runs as usual and its chunks join the session's cache with the vectors the hot tier stores
+ * for them, or embedded through the content-hash embedding cache that ingestion has already
+ * filled when the hot tier does not hold them.
+ *
+ * Sessions idle for {@code idle-minutes} expire, and the least recently used are evicted while
+ * the estimated size of all sessions exceeds {@code max-memory-mb}. Both are enforced on
+ * access, so no background sweep is needed.
+ */
+@Component
+public class ChatSessions {
+    private static final Logger log = LoggerFactory.getLogger(ChatSessions.class);
+
+    private final RetrievalService retrievalService;
+    private final int historyTokens;
+    private final int summaryTokens;
+    private final int chunkCacheSize;
+    private final double reuseSimilarity;
+    private final int reuseMinChunks;
+    private final long idleMillis;
+    private final long maxBytes;
+
+    // Access ordered, so the eldest entry is always the least recently used session
+    private final Map<String, ChatSession> sessions = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Long> accountedBytes = new HashMap<>();
+    private long totalBytes;
+
+    public ChatSessions(RetrievalService retrievalService,
+                        @Value("${finance-rag.chat.session.history-tokens:800}") int historyTokens,
+                        @Value("${finance-rag.chat.session.summary-tokens:300}") int summaryTokens,
+                        @Value("${finance-rag.chat.session.chunk-cache-size:24}") int chunkCacheSize,
+                        @Value("${finance-rag.chat.session.reuse-similarity:0.8}") double reuseSimilarity,
+                        @Value("${finance-rag.chat.session.reuse-min-chunks:3}") int reuseMinChunks,
+                        @Value("${finance-rag.chat.session.idle-minutes:30}") long idleMinutes,
+                        @Value("${finance-rag.chat.session.max-memory-mb:64}") long maxMemoryMb) {
+        this.retrievalService = retrievalService;
+        this.historyTokens = historyTokens;
+        this.summaryTokens = summaryTokens;
+        this.chunkCacheSize = chunkCacheSize;
+        this.reuseSimilarity = reuseSimilarity;
+        this.reuseMinChunks = reuseMinChunks;
+        this.idleMillis = idleMinutes * 60_000;
+        this.maxBytes = maxMemoryMb * 1024 * 1024;
+    }
+
+    /**
+     * The session with this id, or a new one when the id is null, unknown or expired; the
+     * caller reports the returned session's id back to the client.
+     */
+    public ChatSession resolve(String id) {
+        synchronized (sessions) {
+            expireIdle();
+            ChatSession session = id != null ? sessions.get(id) : null;
+            if (session == null) {
+                session = new ChatSession(UUID.randomUUID().toString(), historyTokens, summaryTokens, chunkCacheSize);
+                sessions.put(session.getId(), session);
+            }
+            session.touch();
+            return session;
+        }
+    }
+
+    public boolean remove(String id) {
+        synchronized (sessions) {
+            ChatSession removed = sessions.remove(id);
+            totalBytes -= accountedBytes.getOrDefault(id, 0L);
+            accountedBytes.remove(id);
+            return removed != null;
+        }
+    }
+
+    public int size() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    public long getTotalBytes() {
+        synchronized (sessions) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Chunks for a question asked in {@code session}: reused from the session when enough of
+     * its cached chunks match, searched otherwise.
+     */
+    public List<Document> retrieve(ChatSession session, String question, float[] questionEmbedding,
+                                   RetrievalFilter filter, ChatTimings timings) {
+        if (session.hasHistory()) {
+            List<Document> reused = session.reusableChunks(questionEmbedding, filter.cacheKey(),
+                    retrievalService.getTopK(), reuseSimilarity, reuseMinChunks);
+            if (!reused.isEmpty()) {
+                timings.sessionRetrieval(true);
+                return reused;
+            }
+        }
+        List<Document> docs = retrievalService.search(question, filter);
+        timings.sessionRetrieval(false);
+        if (!docs.isEmpty()) {
+            session.remember(docs, retrievalService.chunkEmbeddings(docs), filter.cacheKey());
+        }
+        return docs;
+    }
+
+    /**
+     * Records an answered turn and evicts sessions while the memory cap is exceeded.
+     */
+    public void addTurn(ChatSession session, String question, String answer) {
+        session.addTurn(question, answer);
+        long bytes = session.estimatedBytes();
+        synchronized (sessions) {
+            if (!sessions.containsKey(session.getId())) {
+                // Evicted while its answer was generated
+                return;
+            }
+            Long previous = accountedBytes.put(session.getId(), bytes);
+            totalBytes += bytes - (previous != null ? previous : 0);
+            evictOverCap(session.getId());
+        }
+    }
+
+    /**
+     * Drops cached chunks of a re-ingested document from every session.
+     */
+    public void invalidateDocument(String filename) {
+        List<ChatSession> all;
+        synchronized (sessions) {
+            all = List.copyOf(sessions.values());
+        }
+        all.forEach(session -> session.invalidateDocument(filename));
+    }
+
+    private void expireIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, ChatSession>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ChatSession> eldest = iterator.next();
+            if (now - eldest.getValue().getLastAccess() <= idleMillis) {
+                break;
+            }
+            iterator.remove();
+            Long bytes = accountedBytes.remove(eldest.getKey());
+            totalBytes -= bytes != null ? bytes : 0;
+        }
+    }
+
+    private void evictOverCap(String current) {
+        Iterator<Map.Entry<String, ChatSession>> iterator = sessions.entrySet().iterator();
+        int evicted = 0;
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, ChatSession> eldest = iterator.next();
+            if (eldest.getKey().equals(current)) {
+                continue;
+            }
+            iterator.remove();
+            Long bytes = accountedBytes.remove(eldest.getKey());
+            totalBytes -= bytes != null ? bytes : 0;
+            evicted++;
+        }
+        if (evicted > 0) {
+            log.debug("Evicted {} chat sessions to stay under {} bytes", evicted, maxBytes);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.document.Document;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Stage breakdown of a single chat request. Every timed stage is recorded to
+ * {@link RagMetrics} as it finishes and kept here so the response can report it.
+ */
+public class ChatTimings {
+
+    public static final String EMBED_QUERY = "embed_query";
+    public static final String CACHE_LOOKUP = "cache_lookup";
+    public static final String SEARCH = "search";
+    public static final String CONTEXT = "context";
+    public static final String PROMPT = "prompt";
+    public static final String LLM = "llm";
+
+    private final RagMetrics metrics;
+    private final String model;
+    private final long startedNanos = System.nanoTime();
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private boolean cached;
+    private Boolean sessionReuse;
+    private int retrieved;
+    private int contextChars;
+    private int promptChars;
+    private int estimatedPromptTokens;
+    private Integer promptTokens;
+    private Integer completionTokens;
+    private Integer cachedPromptTokens;
+
+    ChatTimings(RagMetrics metrics, String model) {
+        this.metrics = metrics;
+        this.model = model;
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        long started = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, System.nanoTime() - started);
+        }
+    }
+
+    public void time(String stage, Runnable work) {
+        time(stage, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public void cacheHit() {
+        cached = true;
+    }
+
+    /**
+     * Whether a session turn was answered from the session's cached chunks instead of a search.
+     */
+    public void sessionRetrieval(boolean reused) {
+        sessionReuse = reused;
+        metrics.recordSessionRetrieval(model, reused);
+    }
+
+    public void retrieved(List<Document> documents) {
+        retrieved = documents.size();
+        metrics.recordRetrieved(model, documents);
+    }
+
+    public void prompt(String context, String prompt) {
+        contextChars = context.length();
+        promptChars = prompt.length();
+        estimatedPromptTokens = RagMath.estimateTokens(prompt);
+        metrics.recordPromptSize(model, contextChars, promptChars);
+    }
+
+    /**
+     * Token usage as reported by the provider; either count may be null when it is not reported.
+     */
+    public void tokens(Integer prompt, Integer completion) {
+        promptTokens = prompt;
+        completionTokens = completion;
+        metrics.recordTokens(model, "prompt", prompt);
+        metrics.recordTokens(model, "completion", completion);
+    }
+
+    /**
+     * Prompt tokens the provider served from its prefix cache; null when it does not report them.
+     */
+    public void cachedPromptTokens(Integer cached) {
+        cachedPromptTokens = cached;
+        metrics.recordPrefixCache(model, cached);
+    }
+
+    /**
+     * Per-request breakdown for the JSON response, in milliseconds.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Double> stages = new LinkedHashMap<>();
+        stageNanos.forEach((stage, nanos) -> stages.put(stage, millis(nanos)));
+        result.put("stagesMs", stages);
+        result.put("totalMs", millis(System.nanoTime() - startedNanos));
+        result.put("cached", cached);
+        result.put("retrievedChunks", retrieved);
+        if (sessionReuse != null) {
+            result.put("sessionChunksReused", sessionReuse);
+        }
+        result.put("contextChars", contextChars);
+        result.put("promptChars", promptChars);
+        result.put("estimatedPromptTokens", estimatedPromptTokens);
+        result.put("promptTokens", promptTokens);
+        result.put("completionTokens", completionTokens);
+        result.put("cachedPromptTokens", cachedPromptTokens);
+        return result;
+    }
+
+    private void record(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+        metrics.recordChatStage(model, stage, nanos);
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
@@ -0,0 +1,344 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a paragraph into the multi-level chunk set used for retrieval: the paragraph itself,
+ * table rows, list items, sentences (for paragraphs over 300 characters) and sentences that
+ * carry numerical data.
+ *
+ * The paragraph is scanned once. A single walk over its lines finds table rows and list items,
+ * a single walk over its characters finds sentence boundaries, and the number check runs once
+ * per sentence and is shared by the sentence chunk, the numerical chunk and the paragraph flag.
+ * The per-paragraph metadata is built once and every chunk copies it exactly once.
+ *
+ * The scanners reproduce the matches of the regular expressions they replace, including rows
+ * and items that continue onto the next line, so the chunk set is unchanged:
+ * <ul>
+ *     <li>table row: {@code (?m)^.+\s+[\d%$,.-]+\s+[\d%$,.-]+.*$}</li>
+ *     <li>list item: {@code (?m)^\s*[•\-\*]\s+.+$|^\s*\d+\.\s+.+$}</li>
+ *     <li>sentence boundary: {@code (?<=[.!?])\s+(?=[A-Z])}</li>
+ * </ul>
+ */
+@Component
+public class ChunkingEngine {
+
+    private static final Pattern SLIDE_NUMBER_PATTERN = Pattern.compile("Slide\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NUMBER_DATA_PATTERN = Pattern.compile("\\b\\d+\\.?\\d*%?\\b|\\$[\\d,]+(?:\\.\\d{2})?\\b|\\b[\\d,]+\\s*(?:bps|basis\\s+points?)\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final int MIN_TABLE_ROW_LENGTH = 21;
+    private static final int MIN_LIST_ITEM_LENGTH = 11;
+    private static final int MIN_SENTENCE_LENGTH = 51;
+    private static final int MIN_NUMERICAL_SENTENCE_LENGTH = 31;
+    private static final int SENTENCE_CHUNK_PARAGRAPH_LENGTH = 300;
+
+    public List<Document> chunk(Document paragraph, int paragraphIndex, String filename) {
+        String content = paragraph.getText();
+        String slideNumber = extractSlideNumber(content, paragraph.getMetadata());
+
+        Map<String, Object> shared = new HashMap<>(paragraph.getMetadata());
+        shared.put("filename", filename);
+        shared.put("slide_number", slideNumber);
+        shared.put("paragraph_index", paragraphIndex);
+        shared = Collections.unmodifiableMap(shared);
+
+        List<String> sentences = splitSentences(content);
+        boolean[] sentenceHasNumbers = new boolean[sentences.size()];
+        boolean paragraphHasNumbers = false;
+        for (int i = 0; i < sentences.size(); i++) {
+            // A number match never spans a sentence boundary, so the paragraph flag is their union
+            sentenceHasNumbers[i] = containsNumbers(sentences.get(i));
+            paragraphHasNumbers |= sentenceHasNumbers[i];
+        }
+
+        List<String> tableRows = new ArrayList<>();
+        List<String> listItems = new ArrayList<>();
+        new LineScanner(content).scan(tableRows, listItems);
+
+        List<Document> chunks = new ArrayList<>(1 + tableRows.size() + listItems.size() + 2 * sentences.size());
+        chunks.add(chunk(shared, content, "paragraph", -1, "primary", paragraphHasNumbers, false));
+
+        int tableIndex = 0;
+        for (String row : tableRows) {
+            if (row.length() >= MIN_TABLE_ROW_LENGTH) {
+                chunks.add(chunk(shared, row, "table_row", tableIndex++, "secondary", containsNumbers(row), false));
+            }
+        }
+
+        int listIndex = 0;
+        for (String item : listItems) {
+            if (item.length() >= MIN_LIST_ITEM_LENGTH) {
+                chunks.add(chunk(shared, item, "list_item", listIndex++, "secondary", containsNumbers(item), false));
+            }
+        }
+
+        if (content.length() > SENTENCE_CHUNK_PARAGRAPH_LENGTH) {
+            for (int i = 0; i < sentences.size(); i++) {
+                String sentence = sentences.get(i);
+                if (sentence.length() >= MIN_SENTENCE_LENGTH) {
+                    chunks.add(chunk(shared, sentence, "sentence", i, "tertiary", sentenceHasNumbers[i], false));
+                }
+            }
+        }
+
+        int numberIndex = 0;
+        for (int i = 0; i < sentences.size(); i++) {
+            String sentence = sentences.get(i);
+            if (sentenceHasNumbers[i] && sentence.length() >= MIN_NUMERICAL_SENTENCE_LENGTH) {
+                chunks.add(chunk(shared, sentence, "numerical_data", numberIndex++, "analytical", true, true));
+            }
+        }
+
+        return chunks;
+    }
+
+    private Document chunk(Map<String, Object> shared, String text, String chunkType, int subIndex,
+                           String hierarchyLevel, boolean containsNumbers, boolean financialData) {
+        Map<String, Object> metadata = new HashMap<>(shared.size() + 10);
+        metadata.putAll(shared);
+        metadata.put("chunk_type", chunkType);
+        metadata.put("hierarchy_level", hierarchyLevel);
+        metadata.put("content_length", text.length());
+
+        if (subIndex >= 0) {
+            metadata.put("sub_index", subIndex);
+            metadata.put("parent_paragraph", shared.get("paragraph_index"));
+        }
+
+        // Add content analysis flags
+        metadata.put("contains_numbers", containsNumbers);
+        metadata.put("contains_percentages", text.indexOf('%') >= 0);
+        metadata.put("contains_currency", text.indexOf('$') >= 0);
+        if (financialData) {
+            metadata.put("contains_financial_data", true);
+        }
+
+        return new Document(text, metadata);
+    }
+
+    static String extractSlideNumber(String content, Map<String, Object> metadata) {
+        // First try to get from metadata
+        if (metadata.containsKey("slide") || metadata.containsKey("page")) {
+            Object slide = metadata.getOrDefault("slide", metadata.get("page"));
+            if (slide != null) {
+                return slide.toString();
+            }
+        }
+
+        // Then try to extract from content
+        Matcher matcher = SLIDE_NUMBER_PATTERN.matcher(content);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+
+        return "Unknown";
+    }
+
+    private static boolean containsNumbers(String text) {
+        return NUMBER_DATA_PATTERN.matcher(text).find();
+    }
+
+    /**
+     * Trimmed pieces between whitespace runs that follow {@code .!?} and precede a capital letter,
+     * indexed like {@code String.split} would index them.
+     */
+    static List<String> splitSentences(String content) {
+        List<String> sentences = new ArrayList<>();
+        int n = content.length();
+        int pieceStart = 0;
+        int i = 0;
+        while (i < n) {
+            if (!isWhitespace(content.charAt(i))) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < n && isWhitespace(content.charAt(i))) {
+                i++;
+            }
+            boolean boundary = runStart > 0 && isSentenceEnd(content.charAt(runStart - 1))
+                    && i < n && content.charAt(i) >= 'A' && content.charAt(i) <= 'Z';
+            if (boundary) {
+                sentences.add(content.substring(pieceStart, runStart).trim());
+                pieceStart = i;
+            }
+        }
+        sentences.add(content.substring(pieceStart).trim());
+        return sentences;
+    }
+
+    /**
+     * One walk over the line starts of a paragraph, tracking table and list matches side by side.
+     * A match may continue onto later lines, in which case the next search for that kind resumes
+     * after the line where it ended, exactly as {@link Matcher#find()} would.
+     */
+    static final class LineScanner {
+        private final String text;
+        private final int n;
+
+        LineScanner(String text) {
+            this.text = text;
+            this.n = text.length();
+        }
+
+        void scan(List<String> tableRows, List<String> listItems) {
+            int tableResume = 0;
+            int listResume = 0;
+            int lineStart = 0;
+            while (lineStart < n) {
+                int lineEnd = endOfLine(lineStart);
+
+                if (lineStart >= tableResume) {
+                    int end = matchTableRow(lineStart, lineEnd);
+                    if (end >= 0) {
+                        tableRows.add(text.substring(lineStart, end).trim());
+                        tableResume = end;
+                    }
+                }
+                if (lineStart >= listResume) {
+                    int end = matchListItem(lineStart);
+                    if (end >= 0) {
+                        listItems.add(text.substring(lineStart, end).trim());
+                        listResume = end;
+                    }
+                }
+
+                lineStart = nextLineStart(lineEnd);
+            }
+        }
+
+        /**
+         * End of a table row starting at {@code lineStart}, or -1. The row is a non-empty prefix,
+         * whitespace, a token made only of {@code [\d%$,.-]}, whitespace, and a token starting
+         * with one of those characters. Greedy {@code .+} makes the regex try the first token of the
+         * following line before the tokens of this line, last to first.
+         */
+        private int matchTableRow(int lineStart, int lineEnd) {
+            if (lineEnd == lineStart) {
+                return -1;
+            }
+            if (lineEnd < n && isWhitespace(text.charAt(lineEnd))) {
+                int end = tableTail(skipWhitespace(lineEnd));
+                if (end >= 0) {
+                    return end;
+                }
+            }
+            for (int s = lineEnd - 1; s >= lineStart + 2; s--) {
+                if (!isWhitespace(text.charAt(s)) && isWhitespace(text.charAt(s - 1))) {
+                    int end = tableTail(s);
+                    if (end >= 0) {
+                        return end;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private int tableTail(int tokenStart) {
+            int e = tokenStart;
+            while (e < n && isTableNumberChar(text.charAt(e))) {
+                e++;
+            }
+            if (e == tokenStart || e == n || !isWhitespace(text.charAt(e))) {
+                return -1;
+            }
+            int next = skipWhitespace(e);
+            if (next == n || !isTableNumberChar(text.charAt(next))) {
+                return -1;
+            }
+            return endOfLine(next);
+        }
+
+        /**
+         * End of a list item starting at {@code lineStart}, or -1: optional leading whitespace, a
+         * bullet ({@code • - *}) or a number followed by a dot, whitespace, then the rest of the line.
+         */
+        private int matchListItem(int lineStart) {
+            int c = skipWhitespace(lineStart);
+            if (c == n) {
+                return -1;
+            }
+            char marker = text.charAt(c);
+            int afterMarker;
+            if (marker == '•' || marker == '-' || marker == '*') {
+                afterMarker = c + 1;
+            } else if (marker >= '0' && marker <= '9') {
+                int d = c;
+                while (d < n && text.charAt(d) >= '0' && text.charAt(d) <= '9') {
+                    d++;
+                }
+                if (d == n || text.charAt(d) != '.') {
+                    return -1;
+                }
+                afterMarker = d + 1;
+            } else {
+                return -1;
+            }
+
+            int w = skipWhitespace(afterMarker);
+            if (w == afterMarker) {
+                return -1;
+            }
+            // .+ starts where the greedy \s+ stops, or gives whitespace back until it can
+            for (int q = w; q > afterMarker; q--) {
+                if (q < n && !isLineTerminator(text.charAt(q))) {
+                    return endOfLine(q);
+                }
+            }
+            return -1;
+        }
+
+        private int skipWhitespace(int from) {
+            int i = from;
+            while (i < n && isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private int endOfLine(int from) {
+            int i = from;
+            while (i < n && !isLineTerminator(text.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private int nextLineStart(int lineEnd) {
+            if (lineEnd >= n) {
+                return n;
+            }
+            if (text.charAt(lineEnd) == '\r' && lineEnd + 1 < n && text.charAt(lineEnd + 1) == '\n') {
+                return lineEnd + 2;
+            }
+            return lineEnd + 1;
+        }
+    }
+
+    // Character classes as java.util.regex defines them without UNICODE_CHARACTER_CLASS
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isTableNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '%' || c == '$' || c == ',' || c == '.' || c == '-';
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+}
@@ -0,0 +1,145 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Packs retrieved chunks into prompt context under a token budget.
+ *
+ * Ingestion stores a paragraph together with its own sentences, list items, table rows and
+ * numerical sentences, so the raw top-k often repeats the same text several times. Chunks are
+ * grouped by their parent paragraph ({@code filename} + {@code paragraph_index}); a retrieved
+ * paragraph absorbs its children, otherwise the distinct children are kept in {@code sub_index}
+ * order. Groups are admitted by best score until the budget is spent and rendered in slide order.
+ */
+@Component
+public class ContextAssembler {
+
+
+    private final int tokenBudget;
+
+    public ContextAssembler(@Value("${finance-rag.context.token-budget:3000}") int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    public String assemble(List<Document> documents) {
+        List<Section> admitted = new ArrayList<>();
+        int remaining = tokenBudget;
+
+        List<Section> byScore = new ArrayList<>(group(documents));
+        byScore.sort(Comparator.comparingDouble(Section::score).reversed());
+        for (Section section : byScore) {
+            int tokens = RagMath.estimateTokens(section.text());
+            if (tokens <= remaining) {
+                admitted.add(section);
+                remaining -= tokens;
+            } else if (admitted.isEmpty()) {
+                // Never send an empty context just because the best section is oversized
+                admitted.add(section.truncate(remaining * RagMath.CHARS_PER_TOKEN));
+                remaining = 0;
+            }
+        }
+
+        admitted.sort(Comparator.comparingInt(Section::slideOrder).thenComparingInt(Section::paragraphIndex));
+
+        StringBuilder context = new StringBuilder();
+        for (Section section : admitted) {
+            context.append("--- Document Section ---\n");
+            context.append("Slide: ").append(section.slideNumber()).append("\n");
+            context.append("Type: ").append(String.join(", ", section.chunkTypes())).append("\n");
+            context.append("Content: ").append(section.text()).append("\n\n");
+        }
+        return context.toString();
+    }
+
+    private List<Section> group(List<Document> documents) {
+        Map<String, List<Document>> groups = new LinkedHashMap<>();
+        for (Document doc : documents) {
+            Map<String, Object> metadata = doc.getMetadata();
+            Object paragraph = metadata.getOrDefault("parent_paragraph", metadata.get("paragraph_index"));
+            // Chunks without paragraph metadata cannot be merged and stand alone
+            String key = paragraph == null
+                    ? "doc:" + doc.getId()
+                    : metadata.getOrDefault("filename", "") + "#" + paragraph;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(doc);
+        }
+
+        List<Section> sections = new ArrayList<>(groups.size());
+        for (List<Document> members : groups.values()) {
+            sections.add(toSection(members));
+        }
+        return sections;
+    }
+
+    private Section toSection(List<Document> members) {
+        double score = members.stream().mapToDouble(ContextAssembler::score).max().orElse(0);
+        Document first = members.get(0);
+        String slideNumber = RetrievalService.extractSlideNumber(first.getMetadata());
+        int paragraphIndex = intValue(first.getMetadata().getOrDefault("parent_paragraph",
+                first.getMetadata().get("paragraph_index")), Integer.MAX_VALUE);
+
+        Document parent = members.stream()
+                .filter(doc -> "paragraph".equals(doc.getMetadata().get("chunk_type")))
+                .findFirst()
+                .orElse(null);
+        if (parent != null) {
+            return new Section(parent.getText(), slideNumber, paragraphIndex, Set.of("paragraph"), score);
+        }
+
+        List<Document> children = new ArrayList<>(members);
+        children.sort(Comparator.comparingInt(doc -> intValue(doc.getMetadata().get("sub_index"), 0)));
+
+        Set<String> texts = new LinkedHashSet<>();
+        Set<String> chunkTypes = new LinkedHashSet<>();
+        for (Document child : children) {
+            String text = child.getText().strip();
+            // A list item or numerical sentence is often a substring of a sibling sentence
+            boolean covered = texts.stream().anyMatch(kept -> kept.contains(text));
+            if (!covered) {
+                texts.removeIf(text::contains);
+                texts.add(text);
+            }
+            chunkTypes.add(child.getMetadata().getOrDefault("chunk_type", "content").toString());
+        }
+        return new Section(String.join("\n", texts), slideNumber, paragraphIndex, chunkTypes, score);
+    }
+
+    private static double score(Document doc) {
+        return doc.getScore() != null ? doc.getScore() : 0;
+    }
+
+    private static int intValue(Object value, int fallback) {
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+        return fallback;
+    }
+
+    private record Section(String text, String slideNumber, int paragraphIndex, Set<String> chunkTypes, double score) {
+
+        int slideOrder() {
+            return intValue(slideNumber, Integer.MAX_VALUE);
+        }
+
+        Section truncate(int maxChars) {
+            return text.length() <= maxChars ? this
+                    : new Section(text.substring(0, maxChars), slideNumber, paragraphIndex, chunkTypes, score);
+        }
+    }
+}
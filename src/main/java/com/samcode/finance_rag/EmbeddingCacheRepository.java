@@ -0,0 +1,76 @@
+package com.samcode.finance_rag;
+
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent backing table for {@link CachingEmbeddingModel}. Embeddings are keyed by the
+ * SHA-256 of the embedded text, so they survive restarts and are shared by every document
+ * and chunk type that produces the same text.
+ */
+@Repository
+public class EmbeddingCacheRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean initializeSchema;
+
+    public EmbeddingCacheRepository(JdbcTemplate jdbcTemplate,
+                                    @Value("${spring.ai.vectorstore.pgvector.initialize-schema:false}") boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.initializeSchema = initializeSchema;
+    }
+
+    @PostConstruct
+    void initializeSchema() {
+        if (!initializeSchema) {
+            return;
+        }
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS embedding_cache (
+                    content_hash varchar(64) PRIMARY KEY,
+                    embedding vector NOT NULL,
+                    created_at timestamptz NOT NULL DEFAULT now()
+                )""");
+    }
+
+    public Map<String, float[]> findAll(Collection<String> contentHashes) {
+        Map<String, float[]> found = new HashMap<>();
+        if (contentHashes.isEmpty()) {
+            return found;
+        }
+        jdbcTemplate.query(
+                connection -> {
+                    var statement = connection.prepareStatement(
+                            "SELECT content_hash, embedding::text FROM embedding_cache WHERE content_hash = ANY(?)");
+                    Array hashes = connection.createArrayOf("varchar", contentHashes.toArray());
+                    statement.setArray(1, hashes);
+                    return statement;
+                },
+                rs -> {
+                    found.put(rs.getString(1), new PGvector(rs.getString(2)).toArray());
+                });
+        return found;
+    }
+
+    public void saveAll(Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(embeddings.size());
+        embeddings.forEach((hash, embedding) -> rows.add(new Object[] { hash, new PGvector(embedding) }));
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO embedding_cache (content_hash, embedding) VALUES (?, ?) ON CONFLICT (content_hash) DO NOTHING",
+                rows);
+    }
+}
@@ -0,0 +1,186 @@
+package com.samcode.finance_rag;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedding stage in front of the vector store. Chunks are split into sized batches which
+ * run concurrently under a shared token bucket; each batch is embedded, written to pgvector
+ * as soon as it finishes and retried on its own when it fails, so one throttled request no
+ * longer loses the whole document.
+ */
+@Component
+public class EmbeddingStage {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingStage.class);
+
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorStore vectorStore;
+    private final ExecutorService executor;
+    private final TokenBucket tokenBucket;
+    private final RagMetrics metrics;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+
+    public EmbeddingStage(EmbeddingModel embeddingModel, VectorStore vectorStore, RagMetrics metrics,
+                          @Value("${finance-rag.embedding.batch-size:64}") int batchSize,
+                          @Value("${finance-rag.embedding.concurrency:4}") int concurrency,
+                          @Value("${finance-rag.embedding.tokens-per-minute:1000000}") long tokensPerMinute,
+                          @Value("${finance-rag.embedding.max-retries:3}") int maxRetries,
+                          @Value("${finance-rag.embedding.retry-backoff-ms:500}") long retryBackoffMs) {
+        this.embeddingModel = embeddingModel;
+        this.vectorStore = vectorStore;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.tokenBucket = new TokenBucket(tokensPerMinute);
+
+        // Shared by all ingestion jobs so the concurrency limit is global, not per document
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "embedding-worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Embeds and stores the chunks batch by batch, blocking until every batch has either
+     * been written or exhausted its retries.
+     *
+     * @throws EmbeddingFailedException when one or more batches could not be stored
+     */
+    public void embedAndStore(List<Document> chunks, IngestionJob job) throws InterruptedException {
+        List<List<Document>> batches = partition(chunks);
+        AtomicInteger embedded = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>(batches.size());
+        for (List<Document> batch : batches) {
+            futures.add(executor.submit(() -> {
+                processWithRetry(batch, chunks.size(), embedded, job);
+                return null;
+            }));
+        }
+
+        int failed = 0;
+        Throwable firstFailure = null;
+        List<Document> failedChunks = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                failedChunks.addAll(batches.get(i));
+                if (firstFailure == null) {
+                    firstFailure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                // The job was cancelled; stop the batches still queued or running for it
+                futures.forEach(future -> future.cancel(true));
+                throw e;
+            }
+        }
+
+        if (failed > 0) {
+            throw new EmbeddingFailedException(failed + " of " + batches.size()
+                    + " embedding batches failed: " + firstFailure.getMessage(), firstFailure, failedChunks);
+        }
+    }
+
+    private void processWithRetry(List<Document> batch, int total, AtomicInteger embedded,
+                                  IngestionJob job) throws Exception {
+        List<String> texts = batch.stream().map(Document::getText).toList();
+        long tokens = estimateTokens(texts);
+
+        boolean batchEmbedded = false;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                // Embeddings land in the cache, so the vector store insert below does not re-embed
+                if (!batchEmbedded) {
+                    // Every embed attempt is billed against the quota, retries included
+                    tokenBucket.acquire(tokens);
+                    long embedStarted = System.nanoTime();
+                    embeddingModel.embed(texts);
+                    metrics.recordIngestStage(IngestionJob.Stage.EMBED, System.nanoTime() - embedStarted);
+                    batchEmbedded = true;
+                    job.addEmbedded(batch.size());
+                    if (embedded.addAndGet(batch.size()) == total) {
+                        job.enterStage(IngestionJob.Stage.STORE);
+                    }
+                }
+
+                long storeStarted = System.nanoTime();
+                vectorStore.accept(batch);
+                metrics.recordIngestStage(IngestionJob.Stage.STORE, System.nanoTime() - storeStarted);
+                job.addStored(batch.size());
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    log.error("Embedding batch of {} chunks failed after {} attempts", batch.size(), attempt + 1, e);
+                    throw e;
+                }
+                long backoff = retryBackoffMs * (1L << attempt);
+                long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                log.warn("Embedding batch of {} chunks failed (attempt {}), retrying in {} ms: {}",
+                        batch.size(), attempt + 1, jittered, e.getMessage());
+                Thread.sleep(jittered);
+            }
+        }
+    }
+
+    private List<List<Document>> partition(List<Document> chunks) {
+        List<List<Document>> batches = new ArrayList<>();
+        for (int from = 0; from < chunks.size(); from += batchSize) {
+            batches.add(chunks.subList(from, Math.min(from + batchSize, chunks.size())));
+        }
+        return batches;
+    }
+
+    private long estimateTokens(List<String> texts) {
+        long chars = 0;
+        for (String text : texts) {
+            chars += text.length();
+        }
+        return Math.max(1, RagMath.estimateTokens(chars));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Thrown when some batches exhausted their retries; the other batches were stored.
+     */
+    public static class EmbeddingFailedException extends IllegalStateException {
+        private final List<Document> failedChunks;
+
+        public EmbeddingFailedException(String message, Throwable cause, List<Document> failedChunks) {
+            super(message, cause);
+            this.failedChunks = failedChunks;
+        }
+
+        public List<Document> getFailedChunks() {
+            return failedChunks;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.samcode.finance_rag;
+
+/**
+ * System prompt and RAG prompt template shared by the OpenAI and Gemini paths. Prompts are
+ * laid out as the static {@link #STATIC_PREFIX} followed by the retrieved context and the
+ * question, so provider-side prefix caching can reuse the prefix across requests.
+ */
+public final class FinancialPrompts {
+
+    public static final String SYSTEM_PROMPT = """
+        You are a sophisticated financial analyst AI assistant specializing in analyzing financial documents, presentations, and reports.
+
+        CORE EXPERTISE:
+        - Financial markets analysis (equity, fixed income, alternatives, currencies, commodities)
+        - Investment strategies and portfolio management
+        - Economic indicators and market trends
+        - Risk assessment and valuation analysis
+        - Corporate earnings and performance metrics
+
+        RESPONSE GUIDELINES:
+        1. ALWAYS provide accurate, data-driven analysis based on the retrieved context
+        2. MANDATORY: Include specific source citations using [Source: Slide X] format for every key point
+        3. Present numerical data with proper context and units (%, bps, $, etc.)
+        4. Explain financial concepts clearly when asked
+        5. Acknowledge limitations when data is insufficient
+
+        CITATION REQUIREMENTS:
+        - Use [Source: Slide X] for single source references
+        - Use [Sources: Slide X, Y, Z] for multiple sources
+        - Be specific about slide numbers from the document metadata
+        - If no slide number is available, use [Source: Document section]
+
+        FINANCIAL ANALYSIS FOCUS:
+        - Interpret trends, correlations, and performance metrics
+        - Explain market movements and economic implications
+        - Provide context for investment decisions and risk factors
+        - Highlight key insights and actionable information
+
+        If the provided context doesn't contain sufficient information to answer the question accurately,
+        clearly state the limitation rather than speculating.
+        """;
+
+    /**
+     * Answering instructions; static, so they belong to the cacheable prefix rather than to
+     * each request's user message.
+     */
+    public static final String INSTRUCTIONS = """
+        ANSWERING INSTRUCTIONS:
+        - Analyze the provided context thoroughly using your financial expertise.
+        - Answer the user's question with specific data-driven insights.
+        - MANDATORY: Include [Source: Slide X] citations for every key point you reference.
+        - When referencing numerical data, include proper units and context.
+        - If analyzing trends or performance, provide meaningful interpretation.
+        - If the context lacks sufficient information, clearly state the limitation.
+        """;
+
+    /**
+     * Byte-stable prompt prefix sent ahead of every request, once, as the system message.
+     * Providers cache prompt prefixes, so nothing request-specific may appear in it.
+     */
+    public static final String STATIC_PREFIX = SYSTEM_PROMPT + "\n" + INSTRUCTIONS;
+
+    private FinancialPrompts() {
+    }
+
+    /**
+     * Request-specific part of the prompt, sent after {@link #STATIC_PREFIX}.
+     */
+    public static String userPrompt(String question, String context) {
+        return String.format("""
+            Context information from financial documents is below:
+            ---------------------
+            %s
+            ---------------------
+            Question: %s
+
+            Financial Analysis:""", context, question);
+    }
+
+    /**
+     * {@link #userPrompt(String, String)} for a chat-session turn, preceded by the compacted
+     * conversation so far. The history comes first and only grows at its end between
+     * compactions, so consecutive turns share a longer cacheable prefix.
+     */
+    public static String userPrompt(String question, String context, String history) {
+        if (history == null || history.isEmpty()) {
+            return userPrompt(question, context);
+        }
+        return String.format("""
+            Conversation so far:
+            ---------------------
+            %s---------------------
+            Answer the new question in the context of this conversation.
+
+            """, history) + userPrompt(question, context);
+    }
+}
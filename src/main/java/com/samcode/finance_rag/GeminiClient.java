@@ -0,0 +1,340 @@
+package com.samcode.finance_rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Shared HTTP transport for the Gemini API.
+ *
+ * One JDK {@link HttpClient} (HTTP/2 with HTTP/1.1 fallback, pooled keep-alive connections)
+ * serves every call, with connect and request timeouts, bounded retries with jittered
+ * exponential backoff on 429/5xx and I/O errors, and optional hedging: when a
+ * {@code generateContent} call runs past the configured percentile of recent latencies a
+ * second identical request is sent and whichever answers first wins. Streaming calls are
+ * retried only before the first byte and are never hedged, since tokens are already on their
+ * way to the user.
+ *
+ * The base URL is configurable so tests can point the client at a local stub server.
+ */
+@Component
+public class GeminiClient {
+    private static final Logger log = LoggerFactory.getLogger(GeminiClient.class);
+
+    private static final int ERROR_DETAIL_CHARS = 500;
+
+    private final HttpClient httpClient;
+    private final URI generateUri;
+    private final URI streamUri;
+    private final URI cachedContentsUri;
+    private final String model;
+    private final String apiKey;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final boolean hedgingEnabled;
+    private final double hedgePercentile;
+    private final int hedgeMinSamples;
+    private final LatencyTracker latencies = new LatencyTracker(200);
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    public GeminiClient(@Value("${google.ai.api-key}") String apiKey,
+                        @Value("${finance-rag.gemini.base-url:https://generativelanguage.googleapis.com/v1beta}") String baseUrl,
+                        @Value("${finance-rag.gemini.model:gemini-1.5-flash}") String model,
+                        @Value("${finance-rag.gemini.connect-timeout-ms:2000}") long connectTimeoutMs,
+                        @Value("${finance-rag.gemini.request-timeout-ms:30000}") long requestTimeoutMs,
+                        @Value("${finance-rag.gemini.max-retries:2}") int maxRetries,
+                        @Value("${finance-rag.gemini.retry-backoff-ms:250}") long retryBackoffMs,
+                        @Value("${finance-rag.gemini.hedge.enabled:true}") boolean hedgingEnabled,
+                        @Value("${finance-rag.gemini.hedge.percentile:0.95}") double hedgePercentile,
+                        @Value("${finance-rag.gemini.hedge.min-samples:20}") int hedgeMinSamples) {
+        this.apiKey = apiKey;
+        this.generateUri = URI.create(baseUrl + "/models/" + model + ":generateContent");
+        this.streamUri = URI.create(baseUrl + "/models/" + model + ":streamGenerateContent?alt=sse");
+        this.cachedContentsUri = URI.create(baseUrl + "/cachedContents");
+        this.model = model;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinSamples = hedgeMinSamples;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+    }
+
+    /**
+     * Raised for non-2xx responses that survived all retries. Extends
+     * {@link RestClientException} so callers keep handling Gemini failures in one place.
+     */
+    public static class GeminiApiException extends RestClientException {
+        private final int statusCode;
+
+        public GeminiApiException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Sends a {@code generateContent} request and returns the response body.
+     */
+    public String generate(String requestJson) {
+        List<CompletableFuture<?>> attempts = new CopyOnWriteArrayList<>();
+        try {
+            return generateAsync(requestJson, attempts::add).get();
+        } catch (InterruptedException e) {
+            // As in stream(): cancel every attempt, including a hedged copy sent later
+            attempts.forEach(attempt -> attempt.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while waiting for Gemini", e);
+        } catch (ExecutionException e) {
+            throw asRestClientException(e.getCause());
+        }
+    }
+
+    public CompletableFuture<String> generateAsync(String requestJson) {
+        return generateAsync(requestJson, attempt -> { });
+    }
+
+    private CompletableFuture<String> generateAsync(String requestJson, Consumer<CompletableFuture<?>> onAttempt) {
+        HttpRequest request = request(generateUri, requestJson);
+        long hedgeDelayMs = hedgeDelayMs();
+        CompletableFuture<HttpResponse<String>> response = hedgeDelayMs > 0
+                ? sendHedged(request, hedgeDelayMs, onAttempt)
+                : sendWithRetry(request, HttpResponse.BodyHandlers.ofString(), 0, onAttempt);
+        return response.thenApply(HttpResponse::body);
+    }
+
+    /**
+     * Sends a {@code streamGenerateContent} request and hands each SSE {@code data:} payload to
+     * {@code onData} as it arrives. Blocks until the stream ends; interrupting the calling
+     * thread aborts the request.
+     */
+    public void stream(String requestJson, Consumer<String> onData) {
+        HttpResponse<Stream<String>> response;
+        List<CompletableFuture<?>> attempts = new CopyOnWriteArrayList<>();
+        try {
+            response = sendWithRetry(request(streamUri, requestJson), HttpResponse.BodyHandlers.ofLines(), 0, attempts::add)
+                    .get();
+        } catch (InterruptedException e) {
+            // The caller gave up (e.g. lost a model race); do not leave the request running
+            attempts.forEach(attempt -> attempt.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while waiting for Gemini", e);
+        } catch (ExecutionException e) {
+            throw asRestClientException(e.getCause());
+        }
+
+        try (Stream<String> lines = response.body()) {
+            lines.filter(line -> line.startsWith("data:"))
+                    .map(line -> line.substring(5).trim())
+                    .forEach(onData);
+        }
+    }
+
+    /**
+     * Creates a {@code cachedContents} resource (a server-side cached prompt prefix) and returns
+     * the response body, which names the handle and its expiry.
+     */
+    public String createCachedContent(String requestJson) {
+        try {
+            return sendWithRetry(request(cachedContentsUri, requestJson), HttpResponse.BodyHandlers.ofString(), 0, attempt -> { })
+                    .get()
+                    .body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestClientException("Interrupted while waiting for Gemini", e);
+        } catch (ExecutionException e) {
+            throw asRestClientException(e.getCause());
+        }
+    }
+
+    /**
+     * Resource name of the configured model, as cached contents refer to it.
+     */
+    public String getModelResource() {
+        return "models/" + model;
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    private HttpRequest request(URI uri, String requestJson) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                // Header instead of the ?key= query parameter keeps the key out of URLs and logs
+                .header("x-goog-api-key", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(requestJson))
+                .build();
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendWithRetry(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                                  int attempt, Consumer<CompletableFuture<?>> onAttempt) {
+        // Only whole generateContent calls feed the hedging percentile; for streams this is time to first byte
+        boolean timed = request.uri().equals(generateUri);
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> inFlight = httpClient.sendAsync(request, handler);
+        onAttempt.accept(inFlight);
+
+        return inFlight.handle((response, error) -> {
+            if (error == null && response.statusCode() / 100 == 2) {
+                if (timed) {
+                    latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+                return CompletableFuture.completedFuture(response);
+            }
+
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            boolean retryable = cause == null ? isRetryable(response.statusCode()) : cause instanceof IOException;
+            if (response != null) {
+                discard(response);
+            }
+            if (!retryable || attempt >= maxRetries) {
+                return CompletableFuture.<HttpResponse<T>>failedFuture(cause != null ? cause
+                        : new GeminiApiException(response.statusCode(),
+                                "Gemini API returned HTTP " + response.statusCode() + errorDetail(response)));
+            }
+
+            long backoffMs = backoffMs(attempt);
+            retries.incrementAndGet();
+            log.debug("Gemini call failed ({}), retry {} of {} in {} ms",
+                    cause != null ? cause.toString() : "HTTP " + response.statusCode(), attempt + 1, maxRetries, backoffMs);
+            return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(backoffMs, TimeUnit.MILLISECONDS))
+                    .thenCompose(ignored -> sendWithRetry(request, handler, attempt + 1, onAttempt));
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Sends the request, and a second copy after {@code delayMs} if no answer has arrived yet.
+     * The first successful response wins and the outstanding attempts are cancelled. A failure
+     * fails the call when no other copy is in flight, or at once when it is not retryable,
+     * since the other copy would be rejected the same way.
+     */
+    private CompletableFuture<HttpResponse<String>> sendHedged(HttpRequest request, long delayMs,
+                                                               Consumer<CompletableFuture<?>> onAttempt) {
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        List<CompletableFuture<?>> attempts = new CopyOnWriteArrayList<>();
+        Consumer<CompletableFuture<?>> track = attempt -> {
+            attempts.add(attempt);
+            onAttempt.accept(attempt);
+        };
+        // Copies sent and not yet failed; incremented before each send
+        AtomicInteger outstanding = new AtomicInteger(1);
+
+        Consumer<CompletableFuture<HttpResponse<String>>> race = copy -> copy.whenComplete((response, error) -> {
+            if (error == null) {
+                if (result.complete(response)) {
+                    attempts.forEach(attempt -> attempt.cancel(true));
+                }
+                return;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (outstanding.decrementAndGet() == 0 || !isRetryable(cause)) {
+                if (result.completeExceptionally(cause)) {
+                    attempts.forEach(attempt -> attempt.cancel(true));
+                }
+            }
+        });
+
+        race.accept(sendWithRetry(request, HttpResponse.BodyHandlers.ofString(), 0, track));
+        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+            // Only hedge while the first copy is still in flight; once it has failed, so has the call
+            if (result.isDone() || outstanding.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+                return;
+            }
+            hedges.incrementAndGet();
+            log.debug("Gemini call exceeded {} ms, sending hedged request", delayMs);
+            race.accept(sendWithRetry(request, HttpResponse.BodyHandlers.ofString(), 0, track));
+        });
+        return result;
+    }
+
+    /**
+     * Hedge delay from recent latencies, or -1 while hedging is off or warming up.
+     */
+    private long hedgeDelayMs() {
+        if (!hedgingEnabled || latencies.count() < hedgeMinSamples) {
+            return -1;
+        }
+        return Math.max(1, latencies.percentile(hedgePercentile));
+    }
+
+    private long backoffMs(int attempt) {
+        // Jitter keeps retries from concurrent requests from arriving in lockstep
+        long ceiling = retryBackoffMs << Math.min(attempt, 10);
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode / 100 == 5;
+    }
+
+    private static boolean isRetryable(Throwable failure) {
+        return failure instanceof GeminiApiException apiException
+                ? isRetryable(apiException.getStatusCode())
+                : failure instanceof IOException;
+    }
+
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception ignored) {
+                // Nothing left to read from a failed response
+            }
+        }
+    }
+
+    /**
+     * The start of a buffered error body, which names what Gemini rejected; streamed bodies
+     * are not read.
+     */
+    private static String errorDetail(HttpResponse<?> response) {
+        if (!(response.body() instanceof String body) || body.isBlank()) {
+            return "";
+        }
+        return ": " + (body.length() <= ERROR_DETAIL_CHARS ? body : body.substring(0, ERROR_DETAIL_CHARS) + "...");
+    }
+
+    private static RestClientException asRestClientException(Throwable cause) {
+        if (cause instanceof RestClientException restClientException) {
+            return restClientException;
+        }
+        return new RestClientException("Gemini request failed: " + cause.getMessage(), cause);
+    }
+}
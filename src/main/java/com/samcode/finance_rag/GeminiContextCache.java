@@ -0,0 +1,147 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Handle to a Gemini {@code cachedContents} resource holding {@link FinancialPrompts#STATIC_PREFIX}.
+ * Off by default: today's prefix is about 700 tokens, far below the minimum a model caches, so
+ * enabling it only pays off once the prefix grows (e.g. with few-shot examples) past {@code min-tokens}.
+ *
+ * Requests that name the handle skip re-processing the prefix and pay the cached-token rate for
+ * it. The handle is created lazily and replaced shortly before its TTL runs out; while one
+ * caller creates it the others carry the prefix inline instead of waiting. Gemini rejects
+ * prefixes below the model's minimum cacheable size, so no handle is requested while the
+ * estimated prefix is under {@code min-tokens}. Creation also fails for models without caching;
+ * requests then send the prefix as the system instruction and creation is retried after a
+ * back-off.
+ */
+@Component
+public class GeminiContextCache {
+    private static final Logger log = LoggerFactory.getLogger(GeminiContextCache.class);
+
+    private final GeminiClient geminiClient;
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final boolean enabled;
+    private final Duration ttl;
+    private final Duration refreshMargin;
+    private final Duration retryAfterFailure;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile String handle;
+    private volatile Instant expiresAt = Instant.EPOCH;
+    private volatile Instant nextAttempt = Instant.EPOCH;
+
+    public GeminiContextCache(GeminiClient geminiClient,
+                              @Value("${finance-rag.gemini.context-cache.enabled:false}") boolean enabled,
+                              @Value("${finance-rag.gemini.context-cache.ttl-seconds:3600}") long ttlSeconds,
+                              @Value("${finance-rag.gemini.context-cache.retry-after-failure-seconds:600}") long retryAfterFailureSeconds,
+                              @Value("${finance-rag.gemini.context-cache.min-tokens:32768}") int minTokens) {
+        this.geminiClient = geminiClient;
+        int prefixTokens = RagMath.estimateTokens(FinancialPrompts.STATIC_PREFIX);
+        this.enabled = enabled && prefixTokens >= minTokens;
+        if (enabled && !this.enabled) {
+            log.warn("Gemini context caching is enabled but skipped: the prompt prefix is about {} tokens, below the {} the model caches",
+                    prefixTokens, minTokens);
+        }
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.refreshMargin = Duration.ofSeconds(Math.min(60, ttlSeconds / 10));
+        this.retryAfterFailure = Duration.ofSeconds(retryAfterFailureSeconds);
+    }
+
+    /**
+     * Name of the cached prefix, or empty when requests should carry the prefix inline.
+     */
+    public Optional<String> handle() {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Instant now = Instant.now();
+        if (handle != null && now.isBefore(expiresAt.minus(refreshMargin))) {
+            return Optional.of(handle);
+        }
+        if (now.isBefore(nextAttempt) || !lock.tryLock()) {
+            return current(now);
+        }
+        try {
+            if (handle == null || !now.isBefore(expiresAt.minus(refreshMargin))) {
+                create(now);
+            }
+            return current(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops {@code staleHandle} after Gemini rejected it, e.g. because it expired early.
+     */
+    public void invalidate(String staleHandle) {
+        if (staleHandle.equals(handle)) {
+            handle = null;
+        }
+    }
+
+    /**
+     * Whether a failed request may have failed because of its cached-content handle: a 403 or
+     * 404, or a 400 whose error names the cached content. Other 400s are plain bad requests.
+     */
+    static boolean isStaleHandle(RestClientException e) {
+        if (!(e instanceof GeminiClient.GeminiApiException apiException)) {
+            return false;
+        }
+        int status = apiException.getStatusCode();
+        return status == 403 || status == 404
+                || (status == 400 && apiException.getMessage() != null
+                        && apiException.getMessage().toLowerCase(Locale.ROOT).contains("cachedcontent"));
+    }
+
+    private Optional<String> current(Instant now) {
+        String current = handle;
+        return current != null && now.isBefore(expiresAt) ? Optional.of(current) : Optional.empty();
+    }
+
+    private void create(Instant now) {
+        CachedContentRequest request = new CachedContentRequest();
+        request.model = geminiClient.getModelResource();
+        request.systemInstruction = new GeminiService.Content(List.of(new GeminiService.Part(FinancialPrompts.STATIC_PREFIX)));
+        request.ttl = ttl.toSeconds() + "s";
+        try {
+            CachedContent created = objectMapper.readValue(
+                    geminiClient.createCachedContent(objectMapper.writeValueAsString(request)), CachedContent.class);
+            expiresAt = created.expireTime != null ? Instant.parse(created.expireTime) : now.plus(ttl);
+            handle = created.name;
+            log.debug("Created Gemini cached content {} expiring at {}", created.name, expiresAt);
+        } catch (RestClientException | JsonProcessingException e) {
+            nextAttempt = now.plus(retryAfterFailure);
+            log.info("Gemini context caching unavailable, sending the prompt prefix inline for {}: {}",
+                    retryAfterFailure, e.getMessage());
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class CachedContentRequest {
+        public String model;
+        public GeminiService.Content systemInstruction;
+        public String ttl;
+    }
+
+    static class CachedContent {
+        public String name;
+        public String expireTime;
+    }
+}
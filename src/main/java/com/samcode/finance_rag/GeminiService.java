@@ -1,177 +1,192 @@
 package com.samcode.finance_rag;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClientException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class GeminiService {
     
-    @Value("${google.ai.api-key}")
-    private String apiKey;
-    
-    private final VectorStore vectorStore;
-    private final RestTemplate restTemplate;
+    private final RetrievalService retrievalService;
+    private final SemanticAnswerCache answerCache;
+    private final GeminiClient geminiClient;
+    private final GeminiContextCache contextCache;
     private final ObjectMapper objectMapper;
     
-    private static final String FINANCIAL_SYSTEM_PROMPT = """
-        You are a sophisticated financial analyst AI assistant specializing in analyzing financial documents, presentations, and reports.
-        
-        CORE EXPERTISE:
-        - Financial markets analysis (equity, fixed income, alternatives, currencies, commodities)
-        - Investment strategies and portfolio management
-        - Economic indicators and market trends
-        - Risk assessment and valuation analysis
-        - Corporate earnings and performance metrics
-        
-        RESPONSE GUIDELINES:
-        1. ALWAYS provide accurate, data-driven analysis based on the retrieved context
-        2. MANDATORY: Include specific source citations using [Source: Slide X] format for every key point
-        3. Present numerical data with proper context and units (%, bps, $, etc.)
-        4. Explain financial concepts clearly when asked
-        5. Acknowledge limitations when data is insufficient
-        
-        CITATION REQUIREMENTS:
-        - Use [Source: Slide X] for single source references
-        - Use [Sources: Slide X, Y, Z] for multiple sources
-        - Be specific about slide numbers from the document metadata
-        - If no slide number is available, use [Source: Document section]
-        
-        FINANCIAL ANALYSIS FOCUS:
-        - Interpret trends, correlations, and performance metrics
-        - Explain market movements and economic implications
-        - Provide context for investment decisions and risk factors
-        - Highlight key insights and actionable information
-        
-        If the provided context doesn't contain sufficient information to answer the question accurately, 
-        clearly state the limitation rather than speculating.
-        """;
-    
-    public GeminiService(VectorStore vectorStore) {
-        this.vectorStore = vectorStore;
-        this.restTemplate = new RestTemplate();
-        this.objectMapper = new ObjectMapper();
+    static final String CACHE_MODEL_KEY = "gemini";
+    
+    public GeminiService(RetrievalService retrievalService, SemanticAnswerCache answerCache, GeminiClient geminiClient,
+                         GeminiContextCache contextCache) {
+        this.retrievalService = retrievalService;
+        this.answerCache = answerCache;
+        this.geminiClient = geminiClient;
+        this.contextCache = contextCache;
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
     }
     
-    public String chat(String question) {
+    /**
+     * Answers a question that the caller already embedded and missed the semantic answer cache
+     * with, and stores the answer there.
+     */
+    public String chat(String question, float[] questionEmbedding, RetrievalFilter filter, ChatTimings timings) {
         try {
             // Get relevant context from vector store
-            List<Document> similarDocuments = vectorStore.similaritySearch(question);
+            List<Document> similarDocuments = timings.time(ChatTimings.SEARCH, () -> retrievalService.search(question, filter));
+            timings.retrieved(similarDocuments);
             
             // Build enhanced context with metadata
-            String context = buildEnhancedContext(similarDocuments);
+            String context = timings.time(ChatTimings.CONTEXT, () -> retrievalService.buildContext(similarDocuments));
             
-            // Create prompt with RAG context and system prompt
-            String prompt = buildPromptWithContext(question, context);
+            // Only context and question go in the user turn; the static prefix is cached or sent as system instruction
+            String prompt = timings.time(ChatTimings.PROMPT, () -> FinancialPrompts.userPrompt(question, context));
+            timings.prompt(context, FinancialPrompts.STATIC_PREFIX + prompt);
             
             // Call Google AI Studio API
-            return callGeminiAPI(prompt);
+            String answer = callGeminiAPI(prompt, timings);
+            if (answer == null) {
+                return "I apologize, but I couldn't generate a response. Please try again.";
+            }
+            
+            answerCache.put(CACHE_MODEL_KEY + filter.cacheKey(), questionEmbedding, answer, similarDocuments);
+            return answer;
             
+        } catch (RestClientException e) {
+            // Throttling propagates so the provider bulkhead can back off
+            if (ProviderBulkhead.isThrottling(e)) {
+                throw e;
+            }
+            return "I encountered an error while calling the Gemini API. Please check your API key and try again.";
         } catch (Exception e) {
             return "I apologize, but I encountered an error while processing your question. Please try again.";
         }
     }
     
-    private String buildEnhancedContext(List<Document> documents) {
-        StringBuilder context = new StringBuilder();
+    /**
+     * Streams the Gemini answer token by token. Retrieval, restricted by {@code filter}, runs
+     * first, then every text chunk from streamGenerateContent is handed to {@code onToken} as
+     * soon as it arrives. Returns the retrieved documents so the caller can report sources. Like
+     * {@link #chat}, it is only called after a miss in the semantic answer cache.
+     */
+    public List<Document> streamChat(String question, float[] questionEmbedding, RetrievalFilter filter, ChatTimings timings,
+                                     Consumer<String> onToken) {
+        List<Document> similarDocuments = timings.time(ChatTimings.SEARCH, () -> retrievalService.search(question, filter));
+        timings.retrieved(similarDocuments);
+        String context = timings.time(ChatTimings.CONTEXT, () -> retrievalService.buildContext(similarDocuments));
+        String prompt = timings.time(ChatTimings.PROMPT, () -> FinancialPrompts.userPrompt(question, context));
+        timings.prompt(context, FinancialPrompts.STATIC_PREFIX + prompt);
         
-        for (Document doc : documents) {
-            Map<String, Object> metadata = doc.getMetadata();
-            String slideNumber = extractSlideNumber(metadata);
-            String chunkType = metadata.getOrDefault("chunk_type", "content").toString();
-            
-            context.append("--- Document Section ---\n");
-            context.append("Slide: ").append(slideNumber).append("\n");
-            context.append("Type: ").append(chunkType).append("\n");
-            context.append("Content: ").append(doc.getText()).append("\n\n");
+        StringBuilder answer = new StringBuilder();
+        timings.time(ChatTimings.LLM, () -> streamPrompt(prompt, timings, token -> {
+            answer.append(token);
+            onToken.accept(token);
+        }));
+        answerCache.put(CACHE_MODEL_KEY + filter.cacheKey(), questionEmbedding, answer.toString(), similarDocuments);
+        return similarDocuments;
+    }
+    
+    private String callGeminiAPI(String prompt, ChatTimings timings) throws JsonProcessingException {
+        String response = timings.time(ChatTimings.LLM, () -> withPrefix(prompt, geminiClient::generate));
+        GeminiResponse parsed = objectMapper.readValue(response, GeminiResponse.class);
+        recordUsage(parsed, timings);
+        return extractText(parsed);
+    }
+    
+    /**
+     * Streams the answer to an already assembled user prompt, without retrieval or the answer
+     * cache; used when the same prompt is raced against another provider.
+     */
+    public void streamPrompt(String prompt, ChatTimings timings, Consumer<String> onToken) {
+        GeminiResponse[] last = new GeminiResponse[1];
+        withPrefix(prompt, request -> {
+            geminiClient.stream(request, data -> {
+                // Each SSE event carries a partial GeminiResponse as JSON
+                try {
+                    GeminiResponse event = objectMapper.readValue(data, GeminiResponse.class);
+                    last[0] = event;
+                    String text = extractText(event);
+                    if (text != null && !text.isEmpty()) {
+                        onToken.accept(text);
+                    }
+                } catch (JsonProcessingException e) {
+                    throw new RestClientException("Unreadable Gemini stream event", e);
+                }
+            });
+            return null;
+        });
+        // Usage on the final event covers the whole stream
+        recordUsage(last[0], timings);
+    }
+    
+    private void recordUsage(GeminiResponse response, ChatTimings timings) {
+        if (response != null && response.usageMetadata != null) {
+            timings.tokens(response.usageMetadata.promptTokenCount, response.usageMetadata.candidatesTokenCount);
+            // Gemini omits the cached count when nothing was served from cache
+            Integer cached = response.usageMetadata.cachedContentTokenCount;
+            timings.cachedPromptTokens(cached != null ? cached : 0);
         }
-        
-        return context.toString();
     }
     
-    private String extractSlideNumber(Map<String, Object> metadata) {
-        if (metadata.containsKey("slide_number")) {
-            Object slideNum = metadata.get("slide_number");
-            if (slideNum != null && !slideNum.toString().equals("Unknown")) {
-                return slideNum.toString();
+    /**
+     * Sends the user prompt behind the static prefix: by cached-content handle when one is
+     * available, otherwise inline as the system instruction. A rejected handle is dropped and
+     * the request resent once with the prefix inline.
+     */
+    private <T> T withPrefix(String prompt, Function<String, T> send) {
+        Optional<String> handle = contextCache.handle();
+        if (handle.isPresent()) {
+            try {
+                return send.apply(buildRequestBody(prompt, handle.get()));
+            } catch (RestClientException e) {
+                if (!GeminiContextCache.isStaleHandle(e)) {
+                    throw e;
+                }
+                contextCache.invalidate(handle.get());
             }
         }
-        
-        // Fallback to other metadata keys
-        if (metadata.containsKey("slide")) {
-            return metadata.get("slide").toString();
-        }
-        if (metadata.containsKey("page")) {
-            return metadata.get("page").toString();
-        }
-        
-        return "Unknown";
+        return send.apply(buildRequestBody(prompt, null));
     }
     
-    private String buildPromptWithContext(String question, String context) {
-        return String.format("""
-            %s
-            
-            Context information from financial documents is below:
-            ---------------------
-            %s
-            ---------------------
-            
-            Instructions: 
-            - Analyze the provided context thoroughly using your financial expertise
-            - Answer the user's question with specific data-driven insights
-            - MANDATORY: Include [Source: Slide X] citations for every key point you reference
-            - When referencing numerical data, include proper units and context
-            - If analyzing trends or performance, provide meaningful interpretation
-            - If the context lacks sufficient information, clearly state the limitation
-            
-            Question: %s
-            
-            Financial Analysis:""", FINANCIAL_SYSTEM_PROMPT, context, question);
+    private String buildRequestBody(String prompt, String cachedContent) {
+        GeminiRequest request = new GeminiRequest();
+        request.contents = List.of(new Content(List.of(new Part(prompt))));
+        // Gemini rejects a system instruction next to cached content that already holds one
+        if (cachedContent != null) {
+            request.cachedContent = cachedContent;
+        } else {
+            request.systemInstruction = new Content(List.of(new Part(FinancialPrompts.STATIC_PREFIX)));
+        }
+        try {
+            return objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize Gemini request", e);
+        }
     }
     
-    private String callGeminiAPI(String prompt) {
-        try {
-            String url = "https://generativelanguage.googleapis.com/v1beta/models/gemini-1.5-flash:generateContent?key=" + apiKey;
-            
-            // Build request body
-            GeminiRequest request = new GeminiRequest();
-            request.contents = List.of(new Content(List.of(new Part(prompt))));
-            
-            // Set headers
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            
-            HttpEntity<GeminiRequest> entity = new HttpEntity<>(request, headers);
-            
-            // Make API call
-            GeminiResponse response = restTemplate.exchange(url, HttpMethod.POST, entity, GeminiResponse.class).getBody();
-            
-            if (response != null && response.candidates != null && !response.candidates.isEmpty()) {
-                return response.candidates.get(0).content.parts.get(0).text;
-            }
-            
-            return "I apologize, but I couldn't generate a response. Please try again.";
-            
-        } catch (Exception e) {
-            return "I encountered an error while calling the Gemini API. Please check your API key and try again.";
+    private String extractText(GeminiResponse response) {
+        if (response == null || response.candidates == null || response.candidates.isEmpty()) {
+            return null;
+        }
+        Content content = response.candidates.get(0).content;
+        if (content == null || content.parts == null || content.parts.isEmpty()) {
+            return null;
         }
+        return content.parts.get(0).text;
     }
     
     // DTOs for Google AI Studio API
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     static class GeminiRequest {
+        public Content systemInstruction;
+        public String cachedContent;
         public List<Content> contents;
     }
     
@@ -193,6 +208,13 @@ public class GeminiService {
     
     static class GeminiResponse {
         public List<Candidate> candidates;
+        public UsageMetadata usageMetadata;
+    }
+    
+    static class UsageMetadata {
+        public Integer promptTokenCount;
+        public Integer candidatesTokenCount;
+        public Integer cachedContentTokenCount;
     }
     
     static class Candidate {
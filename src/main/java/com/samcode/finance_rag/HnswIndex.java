@@ -0,0 +1,342 @@
+package com.samcode.finance_rag;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Hierarchical Navigable Small World graph over unit-normalised vectors.
+ *
+ * Vectors live in one flat {@code float[]} ({@code node * dimensions} offset) and adjacency in
+ * {@code int[]} lists whose first slot holds the neighbour count, so a search touches no boxed
+ * values. Similarity is the dot product of normalised vectors, i.e. cosine similarity, matching
+ * the {@code vector_cosine_ops} index on the pgvector table.
+ *
+ * Removal marks a node deleted: it still routes searches but is never returned. Callers rebuild
+ * the index (see {@link #compact()}) once tombstones pile up. Not thread-safe; concurrent
+ * searches are fine only while no node is being added or removed.
+ */
+public final class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+
+    private final int dimensions;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private float[] vectors;
+    private int[] levels;
+    private int[][][] links;
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimensions, int m, int efConstruction) {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.vectors = new float[dimensions * 64];
+        this.levels = new int[64];
+        this.links = new int[64][][];
+    }
+
+    public record Neighbor(int node, float similarity) {
+    }
+
+    private record Candidate(int node, float distance) {
+    }
+
+    /**
+     * Inserts a vector and returns its node id; ids are assigned sequentially from zero.
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+        float[] query = RagMath.normalize(vector);
+        System.arraycopy(query, 0, vectors, node * dimensions, dimensions);
+
+        int level = randomLevel();
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int layer = 0; layer <= level; layer++) {
+            links[node][layer] = new int[maxLinks(layer) + 1];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = greedyClosest(query, current, layer);
+        }
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            List<Candidate> nearest = sortedAscending(searchLayer(query, current, efConstruction, layer));
+            for (int i = 0; i < Math.min(m, nearest.size()); i++) {
+                int neighbor = nearest.get(i).node();
+                connect(node, neighbor, layer);
+                connect(neighbor, node, layer);
+            }
+            current = nearest.get(0).node();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * Up to {@code k} live nodes closest to {@code query}, most similar first.
+     */
+    public List<Neighbor> search(float[] query, int k, int ef) {
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        float[] normalized = RagMath.normalize(query);
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = greedyClosest(normalized, current, layer);
+        }
+
+        List<Neighbor> results = new ArrayList<>(k);
+        for (Candidate candidate : sortedAscending(searchLayer(normalized, current, Math.max(ef, k), 0))) {
+            if (!deleted.get(candidate.node())) {
+                results.add(new Neighbor(candidate.node(), 1 - candidate.distance()));
+                if (results.size() == k) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    public void remove(int node) {
+        if (node < size && !deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    public float[] vector(int node) {
+        return Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * New index holding only the live nodes, renumbered in their current order.
+     */
+    public HnswIndex compact() {
+        HnswIndex compacted = new HnswIndex(dimensions, m, efConstruction);
+        for (int node = 0; node < size; node++) {
+            if (!deleted.get(node)) {
+                compacted.add(vector(node));
+            }
+        }
+        return compacted;
+    }
+
+    private int greedyClosest(float[] query, int start, int layer) {
+        int current = start;
+        float currentDistance = distance(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbors = links[current][layer];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float d = distance(query, neighbors[i]);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = neighbors[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private PriorityQueue<Candidate> searchLayer(float[] query, int entry, int ef, int layer) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance));
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance).reversed());
+
+        Candidate start = new Candidate(entry, distance(query, entry));
+        visited.set(entry);
+        candidates.add(start);
+        results.add(start);
+
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (results.size() >= ef && closest.distance() > results.peek().distance()) {
+                break;
+            }
+            int[] neighbors = links[closest.node()][layer];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float d = distance(query, neighbor);
+                if (results.size() < ef || d < results.peek().distance()) {
+                    Candidate candidate = new Candidate(neighbor, d);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private void connect(int from, int to, int layer) {
+        int[] neighbors = links[from][layer];
+        int count = neighbors[0];
+        if (count < neighbors.length - 1) {
+            neighbors[count + 1] = to;
+            neighbors[0] = count + 1;
+            return;
+        }
+
+        // Full: keep the closest neighbours, newcomer included
+        float[] base = vector(from);
+        List<Candidate> pool = new ArrayList<>(count + 1);
+        for (int i = 1; i <= count; i++) {
+            pool.add(new Candidate(neighbors[i], distance(base, neighbors[i])));
+        }
+        pool.add(new Candidate(to, distance(base, to)));
+        pool.sort(Comparator.comparingDouble(Candidate::distance));
+        for (int i = 0; i < count; i++) {
+            neighbors[i + 1] = pool.get(i).node();
+        }
+    }
+
+    private float distance(float[] query, int node) {
+        int offset = node * dimensions;
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) {
+            dot += query[i] * vectors[offset + i];
+        }
+        return 1 - dot;
+    }
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? maxM0 : m;
+    }
+
+    private int randomLevel() {
+        return (int) Math.floor(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= levels.length) {
+            return;
+        }
+        int capacity = Math.max(required, levels.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimensions);
+        levels = Arrays.copyOf(levels, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private static List<Candidate> sortedAscending(PriorityQueue<Candidate> queue) {
+        List<Candidate> sorted = new ArrayList<>(queue);
+        sorted.sort(Comparator.comparingDouble(Candidate::distance));
+        return sorted;
+    }
+
+    // Snapshot format: header, vectors, then per node the deleted flag, level and adjacency lists
+
+    public long serializedSize() {
+        long bytes = 8L * Integer.BYTES + (long) size * dimensions * Float.BYTES;
+        for (int node = 0; node < size; node++) {
+            bytes += 1 + Integer.BYTES;
+            for (int[] neighbors : links[node]) {
+                bytes += (long) (neighbors[0] + 1) * Integer.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(dimensions).putInt(m).putInt(efConstruction)
+                .putInt(size).putInt(deletedCount).putInt(entryPoint).putInt(maxLevel);
+        buffer.asFloatBuffer().put(vectors, 0, size * dimensions);
+        buffer.position(buffer.position() + size * dimensions * Float.BYTES);
+        for (int node = 0; node < size; node++) {
+            buffer.put((byte) (deleted.get(node) ? 1 : 0));
+            buffer.putInt(levels[node]);
+            for (int[] neighbors : links[node]) {
+                buffer.asIntBuffer().put(neighbors, 0, neighbors[0] + 1);
+                buffer.position(buffer.position() + (neighbors[0] + 1) * Integer.BYTES);
+            }
+        }
+    }
+
+    public static HnswIndex readFrom(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an HNSW snapshot");
+        }
+        HnswIndex index = new HnswIndex(buffer.getInt(), buffer.getInt(), buffer.getInt());
+        int size = buffer.getInt();
+        index.deletedCount = buffer.getInt();
+        index.entryPoint = buffer.getInt();
+        index.maxLevel = buffer.getInt();
+
+        index.ensureCapacity(size);
+        buffer.asFloatBuffer().get(index.vectors, 0, size * index.dimensions);
+        buffer.position(buffer.position() + size * index.dimensions * Float.BYTES);
+        for (int node = 0; node < size; node++) {
+            if (buffer.get() == 1) {
+                index.deleted.set(node);
+            }
+            int level = buffer.getInt();
+            index.levels[node] = level;
+            index.links[node] = new int[level + 1][];
+            for (int layer = 0; layer <= level; layer++) {
+                int[] neighbors = new int[index.maxLinks(layer) + 1];
+                neighbors[0] = buffer.getInt();
+                buffer.asIntBuffer().get(neighbors, 1, neighbors[0]);
+                buffer.position(buffer.position() + neighbors[0] * Integer.BYTES);
+                index.links[node][layer] = neighbors;
+            }
+        }
+        index.size = size;
+        return index;
+    }
+}
@@ -0,0 +1,502 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hot-tier vector store: an in-process {@link HnswIndex} in front of pgvector.
+ *
+ * pgvector stays the source of truth. Writes are COPY-loaded into pgvector by
+ * {@link PgVectorBulkLoader} first and are then applied to the in-memory graph; the vectors
+ * come from the embedding cache the embedding stage has just filled, so keeping both in sync
+ * costs no extra provider calls. Unfiltered similarity searches are answered from memory
+ * without a database round trip; searches with a metadata filter are delegated to pgvector,
+ * through {@link QuantizedVectorSearch} when a quantized mode is configured.
+ *
+ * Every chunk is also indexed in a {@link LexicalIndex} under its node number, so
+ * {@link #lexicalSearch} can serve BM25 matches on exact tokens next to the semantic ones.
+ *
+ * The graph is loaded from a memory-mapped snapshot at startup when the snapshot still matches
+ * the {@code vector_store} table, and otherwise rebuilt from it. Disable with
+ * {@code finance-rag.hot-tier.enabled=false} to serve every search from pgvector; writes still
+ * go through COPY.
+ */
+@Component
+@Primary
+public class HnswVectorStore implements VectorStore {
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x46524856; // "FRHV"
+    // Bumped whenever the snapshot layout or LexicalIndex tokenization changes
+    private static final int SNAPSHOT_VERSION = 3;
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final PgVectorStore pgVectorStore;
+    private final PgVectorBulkLoader bulkLoader;
+    private final QuantizedVectorSearch quantizedSearch;
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+    private final FilterExpressionConverter filterConverter = new SimpleVectorStoreFilterExpressionConverter();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final boolean enabled;
+    private final Path snapshotPath;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+
+    // documents.get(node) is the chunk stored at that HNSW node, null once removed
+    private HnswIndex index;
+    private LexicalIndex lexicalIndex;
+    private List<Document> documents = new ArrayList<>();
+    private Map<String, Integer> nodesById = new HashMap<>();
+    private volatile boolean ready;
+    private volatile boolean dirty;
+
+    public HnswVectorStore(PgVectorStore pgVectorStore, PgVectorBulkLoader bulkLoader,
+                           QuantizedVectorSearch quantizedSearch, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate,
+                           @Value("${finance-rag.hot-tier.enabled:true}") boolean enabled,
+                           @Value("${finance-rag.hot-tier.snapshot-path:data/hnsw-snapshot.bin}") String snapshotPath,
+                           @Value("${finance-rag.hot-tier.m:16}") int m,
+                           @Value("${finance-rag.hot-tier.ef-construction:100}") int efConstruction,
+                           @Value("${finance-rag.hot-tier.ef-search:64}") int efSearch) {
+        this.pgVectorStore = pgVectorStore;
+        this.bulkLoader = bulkLoader;
+        this.quantizedSearch = quantizedSearch;
+        this.enabled = enabled;
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.snapshotPath = Path.of(snapshotPath);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+    }
+
+    @PostConstruct
+    void load() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            String fingerprint = tableFingerprint();
+            if (!loadSnapshot(fingerprint)) {
+                rebuildFromPgVector();
+                saveSnapshot();
+            }
+            ready = true;
+            log.info("Hot-tier HNSW index ready with {} chunks", nodesById.size());
+        } catch (Exception e) {
+            // Searches keep working against pgvector, just without the in-memory tier
+            log.warn("Hot-tier HNSW index unavailable, serving searches from pgvector: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (ready && dirty) {
+            saveSnapshot();
+        }
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        // One embedding lookup serves both the COPY into pgvector and the graph insert
+        List<float[]> embeddings = embeddingModel.embed(documents.stream().map(Document::getText).toList());
+        bulkLoader.load(documents, embeddings);
+        if (!ready) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document doc = documents.get(i);
+                insert(doc.getId(), doc.getText(), doc.getMetadata(), embeddings.get(i));
+            }
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes from pgvector, and from the in-memory graph once the surrounding transaction, if
+     * any, has committed, so a rollback never leaves rows in pgvector the hot tier has dropped.
+     */
+    @Override
+    public void delete(List<String> idList) {
+        pgVectorStore.delete(idList);
+        if (!ready) {
+            return;
+        }
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                idList.forEach(this::remove);
+                compactIfNeeded();
+                dirty = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        pgVectorStore.delete(filterExpression);
+        if (!ready) {
+            return;
+        }
+        Expression expression = expressionParser.parseExpression(filterConverter.convertExpression(filterExpression));
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                List<String> matching = new ArrayList<>();
+                for (Document doc : documents) {
+                    if (doc != null && matches(expression, doc.getMetadata())) {
+                        matching.add(doc.getId());
+                    }
+                }
+                matching.forEach(this::remove);
+                compactIfNeeded();
+                dirty = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        if (!ready || request.hasFilterExpression()) {
+            if (quantizedSearch.isEnabled()) {
+                return quantizedSearch.search(request, embeddingModel.embed(request.getQuery()));
+            }
+            return pgVectorStore.similaritySearch(request);
+        }
+        float[] query = embeddingModel.embed(request.getQuery());
+
+        lock.readLock().lock();
+        try {
+            List<Document> results = new ArrayList<>(request.getTopK());
+            for (HnswIndex.Neighbor neighbor : index.search(query, request.getTopK(), efSearch)) {
+                if (neighbor.similarity() < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                Document stored = documents.get(neighbor.node());
+                Map<String, Object> metadata = new HashMap<>(stored.getMetadata());
+                // Same key PgVectorStore adds to its results
+                metadata.put("distance", 1 - neighbor.similarity());
+                results.add(Document.builder()
+                        .id(stored.getId())
+                        .text(stored.getText())
+                        .metadata(metadata)
+                        .score((double) neighbor.similarity())
+                        .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 matches for the query terms among the chunks passing {@code filter} (may be null),
+     * best first, with the BM25 score as document score. Empty while the hot tier is not loaded.
+     */
+    public List<Document> lexicalSearch(String query, int topK, Filter.Expression filter) {
+        if (!ready) {
+            return List.of();
+        }
+        Expression expression = filter == null ? null
+                : expressionParser.parseExpression(filterConverter.convertExpression(filter));
+        lock.readLock().lock();
+        try {
+            List<Document> results = new ArrayList<>(topK);
+            for (LexicalIndex.Hit hit : lexicalIndex.search(query, topK,
+                    node -> expression == null || matches(expression, documents.get(node).getMetadata()))) {
+                Document stored = documents.get(hit.doc());
+                results.add(Document.builder()
+                        .id(stored.getId())
+                        .text(stored.getText())
+                        .metadata(new HashMap<>(stored.getMetadata()))
+                        .score((double) hit.score())
+                        .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the in-memory tier is loaded and serving searches.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Stored, normalised embeddings of the chunks with these ids; ids the hot tier does not hold
+     * are left out. Empty while the hot tier is not loaded.
+     */
+    public Map<String, float[]> embeddings(Collection<String> ids) {
+        if (!ready) {
+            return Map.of();
+        }
+        lock.readLock().lock();
+        try {
+            Map<String, float[]> embeddings = new HashMap<>();
+            for (String id : ids) {
+                Integer node = nodesById.get(id);
+                if (node != null) {
+                    embeddings.put(id, index.vector(node));
+                }
+            }
+            return embeddings;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> getNativeClient() {
+        return Optional.of((T) pgVectorStore);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void insert(String id, String text, Map<String, Object> metadata, float[] embedding) {
+        remove(id);
+        int node = index.add(embedding);
+        lexicalIndex.add(text);
+        documents.add(Document.builder().id(id).text(text).metadata(new HashMap<>(metadata)).build());
+        nodesById.put(id, node);
+    }
+
+    private void remove(String id) {
+        Integer node = nodesById.remove(id);
+        if (node != null) {
+            index.remove(node);
+            lexicalIndex.remove(node);
+            documents.set(node, null);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (index.deletedCount() == 0 || index.deletedCount() < index.size() / 4) {
+            return;
+        }
+        List<Document> live = new ArrayList<>(index.size() - index.deletedCount());
+        Map<String, Integer> liveIds = new HashMap<>();
+        for (int node = 0; node < documents.size(); node++) {
+            Document doc = documents.get(node);
+            if (doc != null) {
+                liveIds.put(doc.getId(), live.size());
+                live.add(doc);
+            }
+        }
+        index = index.compact();
+        lexicalIndex = lexicalIndex.compact();
+        documents = live;
+        nodesById = liveIds;
+        log.debug("Compacted hot-tier HNSW index to {} chunks", live.size());
+    }
+
+    private boolean matches(Expression expression, Map<String, Object> metadata) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", metadata);
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    private void rebuildFromPgVector() {
+        long started = System.currentTimeMillis();
+        index = new HnswIndex(embeddingModel.dimensions(), m, efConstruction);
+        lexicalIndex = new LexicalIndex();
+        documents = new ArrayList<>();
+        nodesById = new HashMap<>();
+        jdbcTemplate.query("SELECT id::text, content, metadata::text, embedding::text FROM vector_store", rs -> {
+            Map<String, Object> metadata = parseMetadata(rs.getString(3));
+            insert(rs.getString(1), rs.getString(2), metadata, new PGvector(rs.getString(4)).toArray());
+        });
+        log.info("Built hot-tier HNSW index from pgvector: {} chunks in {} ms",
+                documents.size(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Row count plus the newest row version, so a snapshot is only reused when the table has not
+     * changed since it was written. Chunk ids are random UUIDs, so the highest id says nothing
+     * about writes; the highest {@code xmin} grows with every insert or update, and deletes
+     * change the count. Unlike a digest over the content it reads no TOASTed values.
+     */
+    private String tableFingerprint() {
+        return jdbcTemplate.queryForObject("""
+                SELECT count(*) || ':' || coalesce(max(xmin::text::bigint), 0)
+                FROM vector_store""", String.class);
+    }
+
+    // Snapshot layout: magic, version, fingerprint, HNSW index, lexical index, then id/content/metadata per node
+
+    private boolean loadSnapshot(String fingerprint) {
+        if (!Files.isRegularFile(snapshotPath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION
+                    || !fingerprint.equals(readString(buffer))) {
+                log.info("Hot-tier snapshot {} is stale, rebuilding from pgvector", snapshotPath);
+                return false;
+            }
+            HnswIndex loaded = HnswIndex.readFrom(buffer);
+            if (loaded.dimensions() != embeddingModel.dimensions()) {
+                return false;
+            }
+            LexicalIndex loadedLexical = LexicalIndex.readFrom(buffer);
+            List<Document> loadedDocuments = new ArrayList<>(loaded.size());
+            Map<String, Integer> loadedIds = new HashMap<>();
+            for (int node = 0; node < loaded.size(); node++) {
+                String id = readString(buffer);
+                String text = readString(buffer);
+                String metadata = readString(buffer);
+                if (loaded.isDeleted(node)) {
+                    loadedDocuments.add(null);
+                } else {
+                    loadedDocuments.add(Document.builder().id(id).text(text).metadata(parseMetadata(metadata)).build());
+                    loadedIds.put(id, node);
+                }
+            }
+            index = loaded;
+            lexicalIndex = loadedLexical;
+            documents = loadedDocuments;
+            nodesById = loadedIds;
+            log.info("Loaded hot-tier HNSW index from snapshot {}", snapshotPath);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read hot-tier snapshot {}: {}", snapshotPath, e.getMessage());
+            return false;
+        }
+    }
+
+    private void saveSnapshot() {
+        lock.readLock().lock();
+        try {
+            byte[] fingerprint = tableFingerprint().getBytes(StandardCharsets.UTF_8);
+            List<byte[]> strings = new ArrayList<>(documents.size() * 3);
+            long size = 2L * Integer.BYTES + Integer.BYTES + fingerprint.length + index.serializedSize()
+                    + lexicalIndex.serializedSize();
+            for (Document doc : documents) {
+                String id = doc != null ? doc.getId() : "";
+                String text = doc != null ? doc.getText() : "";
+                String metadata = doc != null ? objectMapper.writeValueAsString(doc.getMetadata()) : "{}";
+                for (String value : List.of(id, text, metadata)) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    strings.add(bytes);
+                    size += Integer.BYTES + bytes.length;
+                }
+            }
+            if (size > Integer.MAX_VALUE) {
+                log.warn("Hot-tier index too large to snapshot ({} bytes)", size);
+                return;
+            }
+
+            Path parent = snapshotPath.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "hnsw-", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+                buffer.putInt(fingerprint.length).put(fingerprint);
+                index.writeTo(buffer);
+                lexicalIndex.writeTo(buffer);
+                for (byte[] bytes : strings) {
+                    buffer.putInt(bytes.length).put(bytes);
+                }
+                buffer.force();
+            }
+            Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            log.info("Wrote hot-tier snapshot {} ({} bytes)", snapshotPath, size);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write hot-tier snapshot {}: {}", snapshotPath, e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        if (json == null) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable chunk metadata: " + e.getMessage(), e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
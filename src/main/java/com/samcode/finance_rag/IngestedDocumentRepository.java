@@ -0,0 +1,99 @@
+package com.samcode.finance_rag;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Fingerprints of ingested documents and their paragraphs, used to make re-ingestion
+ * incremental. The document hash lives in {@code ingested_document}; paragraph hashes are
+ * stored on every chunk as {@code paragraph_hash} metadata and read back from the vector store.
+ */
+@Repository
+public class IngestedDocumentRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean initializeSchema;
+
+    public IngestedDocumentRepository(JdbcTemplate jdbcTemplate,
+                                      @Value("${spring.ai.vectorstore.pgvector.initialize-schema:false}") boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.initializeSchema = initializeSchema;
+    }
+
+    @PostConstruct
+    void initializeSchema() {
+        if (!initializeSchema) {
+            return;
+        }
+        jdbcTemplate.execute("""
+                CREATE TABLE IF NOT EXISTS ingested_document (
+                    filename text PRIMARY KEY,
+                    document_hash varchar(64) NOT NULL,
+                    paragraphs integer NOT NULL,
+                    chunks integer NOT NULL,
+                    ingested_at timestamptz NOT NULL DEFAULT now()
+                )""");
+    }
+
+    /**
+     * Hash of the last completed ingestion of {@code filename}, if any.
+     */
+    public Optional<String> findDocumentHash(String filename) {
+        List<String> hashes = jdbcTemplate.queryForList(
+                "SELECT document_hash FROM ingested_document WHERE filename = ?", String.class, filename);
+        return hashes.stream().findFirst();
+    }
+
+    /**
+     * Chunks stored for one paragraph version, and whether its {@code paragraph} chunk is among
+     * them; an interrupted ingestion can leave only part of a paragraph's chunks behind.
+     */
+    public record StoredParagraph(List<String> chunkIds, boolean hasParagraphChunk) {
+    }
+
+    /**
+     * Stored chunks of {@code filename}, keyed by {@link #paragraphKey}. Chunks stored before
+     * paragraph hashing existed have no hash and never match a current paragraph.
+     */
+    public Map<String, StoredParagraph> findStoredParagraphs(String filename) {
+        Map<String, List<String>> chunkIds = new HashMap<>();
+        Set<String> withParagraphChunk = new HashSet<>();
+        jdbcTemplate.query("""
+                        SELECT id::text, metadata->>'paragraph_index', metadata->>'paragraph_hash', metadata->>'chunk_type'
+                        FROM vector_store WHERE metadata->>'filename' = ?""",
+                rs -> {
+                    String key = paragraphKey(rs.getString(2), rs.getString(3));
+                    chunkIds.computeIfAbsent(key, k -> new ArrayList<>()).add(rs.getString(1));
+                    if ("paragraph".equals(rs.getString(4))) {
+                        withParagraphChunk.add(key);
+                    }
+                },
+                filename);
+        Map<String, StoredParagraph> stored = new HashMap<>();
+        chunkIds.forEach((key, ids) -> stored.put(key, new StoredParagraph(ids, withParagraphChunk.contains(key))));
+        return stored;
+    }
+
+    public void save(String filename, String documentHash, int paragraphs, int chunks) {
+        jdbcTemplate.update("""
+                        INSERT INTO ingested_document (filename, document_hash, paragraphs, chunks, ingested_at)
+                        VALUES (?, ?, ?, ?, now())
+                        ON CONFLICT (filename) DO UPDATE SET document_hash = EXCLUDED.document_hash,
+                            paragraphs = EXCLUDED.paragraphs, chunks = EXCLUDED.chunks, ingested_at = now()""",
+                filename, documentHash, paragraphs, chunks);
+    }
+
+    static String paragraphKey(Object paragraphIndex, String paragraphHash) {
+        return paragraphIndex + ":" + paragraphHash;
+    }
+}
@@ -0,0 +1,121 @@
+package com.samcode.finance_rag;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks a single queued document ingestion as it moves through the
+ * parse -> chunk -> embed -> store stages. Updated by the worker thread,
+ * read concurrently by the status endpoint.
+ */
+public class IngestionJob {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    public enum Stage { PARSE, CHUNK, EMBED, STORE }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String filename;
+    private final Instant submittedAt = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Stage stage;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    private final AtomicInteger paragraphs = new AtomicInteger();
+    private final AtomicInteger chunks = new AtomicInteger();
+    private final AtomicInteger embedded = new AtomicInteger();
+    private final AtomicInteger stored = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+
+    public IngestionJob(String filename) {
+        this.filename = filename;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    void start() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    void enterStage(Stage stage) {
+        this.stage = stage;
+    }
+
+    void complete() {
+        finishedAt = Instant.now();
+        status = Status.COMPLETED;
+    }
+
+    void fail(String message) {
+        finishedAt = Instant.now();
+        error = message;
+        status = Status.FAILED;
+    }
+
+    void addParagraphs(int count) {
+        paragraphs.addAndGet(count);
+    }
+
+    void addChunks(int count) {
+        chunks.addAndGet(count);
+    }
+
+    void addEmbedded(int count) {
+        embedded.addAndGet(count);
+    }
+
+    void addStored(int count) {
+        stored.addAndGet(count);
+    }
+
+    void addUnchanged(int count) {
+        unchanged.addAndGet(count);
+    }
+
+    void addRemoved(int count) {
+        removed.addAndGet(count);
+    }
+
+    public Map<String, Object> toStatus() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("jobId", id);
+        result.put("filename", filename);
+        result.put("status", status.name());
+        result.put("stage", stage != null ? stage.name() : null);
+        result.put("paragraphs", paragraphs.get());
+        result.put("chunks", chunks.get());
+        result.put("embedded", embedded.get());
+        result.put("stored", stored.get());
+        result.put("unchangedParagraphs", unchanged.get());
+        result.put("removedChunks", removed.get());
+        result.put("submittedAt", submittedAt.toString());
+        result.put("startedAt", startedAt != null ? startedAt.toString() : null);
+        result.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package com.samcode.finance_rag;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs document ingestion off the servlet thread. Uploads are spooled to a temp file,
+ * registered as an {@link IngestionJob} and processed by a bounded worker pool, so a
+ * large deck never holds a Tomcat thread for the duration of parsing and embedding.
+ */
+@Service
+public class IngestionJobService {
+    private static final Logger log = LoggerFactory.getLogger(IngestionJobService.class);
+
+    private final IngestionService ingestionService;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final int retainedJobs;
+
+    public IngestionJobService(IngestionService ingestionService,
+                               @Value("${finance-rag.ingestion.workers:2}") int workerCount,
+                               @Value("${finance-rag.ingestion.queue-capacity:20}") int queueCapacity,
+                               @Value("${finance-rag.ingestion.retained-jobs:100}") int retainedJobs) {
+        this.ingestionService = ingestionService;
+        this.retainedJobs = retainedJobs;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ingestion-worker-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Spools the upload to disk and queues it for processing.
+     *
+     * @throws RejectedExecutionException when the ingestion queue is full
+     */
+    public IngestionJob submit(MultipartFile file) throws IOException {
+        String filename = file.getOriginalFilename();
+        Path spooled = Files.createTempFile("finance-rag-upload-", ".pdf");
+        file.transferTo(spooled);
+
+        IngestionJob job = new IngestionJob(filename);
+        try {
+            workers.execute(() -> run(job, spooled));
+        } catch (RejectedExecutionException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+
+        jobs.put(job.getId(), job);
+        evictFinishedJobs();
+        log.info("Queued ingestion job {} for '{}'", job.getId(), filename);
+        return job;
+    }
+
+    public Optional<IngestionJob> findJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private void run(IngestionJob job, Path spooled) {
+        job.start();
+        try {
+            ingestionService.ingestDocument(spooled, job.getFilename(), job);
+            job.complete();
+        } catch (Exception e) {
+            log.error("Ingestion job {} for '{}' failed", job.getId(), job.getFilename(), e);
+            job.fail(e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(spooled);
+            } catch (IOException e) {
+                log.warn("Could not delete spooled upload {}", spooled, e);
+            }
+        }
+    }
+
+    private void evictFinishedJobs() {
+        if (jobs.size() <= retainedJobs) {
+            return;
+        }
+        Iterator<IngestionJob> iterator = jobs.values().iterator();
+        while (jobs.size() > retainedJobs && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
@@ -3,230 +3,282 @@ package com.samcode.finance_rag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.pdf.ParagraphPdfDocumentReader;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.springframework.web.multipart.MultipartFile;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 public class IngestionService {
     private static final Logger log = LoggerFactory.getLogger(IngestionService.class);
+    private final EmbeddingStage embeddingStage;
+    private final ChunkingEngine chunkingEngine;
+    private final SemanticAnswerCache answerCache;
+    private final ParentParagraphCache parentCache;
+    private final ChatSessions chatSessions;
+    private final RagMetrics metrics;
+    private final IngestedDocumentRepository documentRepository;
     private final VectorStore vectorStore;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkBufferSize;
+    private final long pdfMemoryBytes;
+    // Filenames between diff and commit; guarded by itself
+    private final Set<String> ingesting = new HashSet<>();
     
-    // Enhanced patterns for content extraction
-    private static final Pattern SENTENCE_PATTERN = Pattern.compile("(?<=[.!?])\\s+(?=[A-Z])");
-    private static final Pattern SLIDE_NUMBER_PATTERN = Pattern.compile("Slide\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern TABLE_PATTERN = Pattern.compile("(?m)^.+\\s+[\\d%$,.-]+\\s+[\\d%$,.-]+.*$");
-    private static final Pattern LIST_PATTERN = Pattern.compile("(?m)^\\s*[•\\-\\*]\\s+.+$|^\\s*\\d+\\.\\s+.+$");
-    private static final Pattern NUMBER_DATA_PATTERN = Pattern.compile("\\b\\d+\\.?\\d*%?\\b|\\$[\\d,]+(?:\\.\\d{2})?\\b|\\b[\\d,]+\\s*(?:bps|basis\\s+points?)\\b", Pattern.CASE_INSENSITIVE);
-    
-    public IngestionService(VectorStore vectorStore) {
+    public IngestionService(EmbeddingStage embeddingStage, ChunkingEngine chunkingEngine,
+                            SemanticAnswerCache answerCache, ParentParagraphCache parentCache, ChatSessions chatSessions,
+                            RagMetrics metrics,
+                            IngestedDocumentRepository documentRepository, VectorStore vectorStore,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${finance-rag.ingestion.chunk-buffer-size:256}") int chunkBufferSize,
+                            @Value("${finance-rag.ingestion.pdf-memory-mb:16}") long pdfMemoryMb) {
+        this.embeddingStage = embeddingStage;
+        this.chunkingEngine = chunkingEngine;
+        this.answerCache = answerCache;
+        this.parentCache = parentCache;
+        this.chatSessions = chatSessions;
+        this.metrics = metrics;
+        this.documentRepository = documentRepository;
         this.vectorStore = vectorStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkBufferSize = chunkBufferSize;
+        this.pdfMemoryBytes = pdfMemoryMb * 1024 * 1024;
     }
     
-    public void ingestDocument(MultipartFile file) throws IOException {
-        log.info("Starting granular ingestion of document: {}", file.getOriginalFilename());
-        
-        // Convert MultipartFile to Resource
-        ByteArrayResource resource = new ByteArrayResource(file.getBytes()) {
-            @Override
-            public String getFilename() {
-                return file.getOriginalFilename();
+    /**
+     * Ingests a PDF spooled to disk. Paragraphs are parsed one at a time and their chunks are
+     * embedded and stored whenever {@code chunk-buffer-size} chunks have accumulated, so heap
+     * use per upload is bounded by the buffer and the PDFBox memory budget, not the file size.
+     *
+     * Re-ingesting a filename is incremental: an identical file is skipped outright, paragraphs
+     * whose {@code paragraph_index} and content hash are already stored are not re-chunked or
+     * re-embedded, and chunks of changed or removed paragraphs are deleted in one transaction
+     * once the new chunks are stored. A failed run leaves the previous chunks in place and the
+     * next run picks up where it stopped: a paragraph only counts as stored when its paragraph
+     * chunk and as many chunks as it chunks into now are present, so one that was stored in
+     * part is chunked and embedded again. Concurrent ingestions of the same filename run one
+     * after the other, see {@link #lock}.
+     */
+    public void ingestDocument(Path pdf, String filename, IngestionJob job) throws IOException, InterruptedException {
+        try (DocumentLock ignored = lock(filename)) {
+            List<Document> buffer = new ArrayList<>(chunkBufferSize);
+            Optional<DocumentDiff> diff = diff(pdf, filename, job, chunks -> {
+                buffer.addAll(chunks);
+                if (buffer.size() >= chunkBufferSize) {
+                    flush(buffer, job);
+                }
+            });
+            if (diff.isPresent()) {
+                flush(buffer, job);
+                commit(diff.get(), job);
             }
-        };
-        
-        // Process the PDF with paragraph-level reading
-        var pdfReader = new ParagraphPdfDocumentReader(resource);
-        var documents = pdfReader.get();
-        
-        // Create multi-level granular chunks
-        List<Document> granularChunks = createGranularChunks(documents, file.getOriginalFilename());
-        
-        // Add documents to vector store
-        vectorStore.accept(granularChunks);
-        
-        log.info("Document '{}' ingested with {} granular chunks (from {} source paragraphs)!", 
-                file.getOriginalFilename(), granularChunks.size(), documents.size());
+        }
     }
     
-    private List<Document> createGranularChunks(List<Document> paragraphs, String filename) {
-        List<Document> granularChunks = new ArrayList<>();
-        
-        for (int i = 0; i < paragraphs.size(); i++) {
-            Document paragraph = paragraphs.get(i);
-            String content = paragraph.getText();
-            Map<String, Object> originalMetadata = paragraph.getMetadata();
-            
-            // Extract slide number from content or metadata
-            String slideNumber = extractSlideNumber(content, originalMetadata);
-            
-            // 1. Create paragraph-level chunk with enhanced metadata
-            granularChunks.add(createEnhancedChunk(
-                content, originalMetadata, filename, slideNumber, 
-                "paragraph", i, -1, "primary"
-            ));
-            
-            // 2. Extract and create table chunks
-            granularChunks.addAll(extractTableChunks(
-                content, originalMetadata, filename, slideNumber, i
-            ));
-            
-            // 3. Extract and create list chunks
-            granularChunks.addAll(extractListChunks(
-                content, originalMetadata, filename, slideNumber, i
-            ));
-            
-            // 4. Create sentence-level chunks for longer paragraphs
-            if (content.length() > 300) {
-                granularChunks.addAll(extractSentenceChunks(
-                    content, originalMetadata, filename, slideNumber, i
-                ));
+    /**
+     * Waits until no other ingestion of {@code filename} is in progress and claims it. Callers
+     * hold the lock from {@link #diff} until after {@link #commit}; otherwise two runs would
+     * read the same stored chunks, each store a full chunk set and delete only the older one.
+     * Not bound to a thread, so a bulk ingestion can release it from its coordinator.
+     */
+    DocumentLock lock(String filename) throws InterruptedException {
+        synchronized (ingesting) {
+            while (!ingesting.add(filename)) {
+                ingesting.wait();
             }
-            
-            // 5. Extract numerical data chunks
-            granularChunks.addAll(extractNumericalDataChunks(
-                content, originalMetadata, filename, slideNumber, i
-            ));
         }
-        
-        return granularChunks;
+        AtomicBoolean held = new AtomicBoolean(true);
+        return () -> {
+            if (held.compareAndSet(true, false)) {
+                synchronized (ingesting) {
+                    ingesting.remove(filename);
+                    ingesting.notifyAll();
+                }
+            }
+        };
     }
     
-    private String extractSlideNumber(String content, Map<String, Object> metadata) {
-        // First try to get from metadata
-        if (metadata.containsKey("slide") || metadata.containsKey("page")) {
-            Object slide = metadata.getOrDefault("slide", metadata.get("page"));
-            if (slide != null) {
-                return slide.toString();
-            }
+    /**
+     * Parses and chunks a document, handing the chunks of new or changed paragraphs to
+     * {@code sink} as it goes. Nothing is deleted or recorded until {@link #commit} runs, which
+     * must only happen once everything handed to the sink has been stored. The caller holds
+     * {@link #lock} on the filename from before this call until after the commit.
+     *
+     * @return the changes to commit, or empty when the file is unchanged since its last ingestion
+     */
+    Optional<DocumentDiff> diff(Path pdf, String filename, IngestionJob job, ChunkSink sink) throws IOException, InterruptedException {
+        String documentHash = fileHash(pdf);
+        Optional<String> previousHash = documentRepository.findDocumentHash(filename);
+        if (documentHash.equals(previousHash.orElse(null))) {
+            log.info("Document '{}' is unchanged since its last ingestion, skipping", filename);
+            return Optional.empty();
         }
+        log.info("Starting granular ingestion of document: {}", filename);
         
-        // Then try to extract from content
-        Matcher matcher = SLIDE_NUMBER_PATTERN.matcher(content);
-        if (matcher.find()) {
-            return matcher.group(1);
-        }
-        
-        return "Unknown";
-    }
-    
-    private Document createEnhancedChunk(String content, Map<String, Object> originalMetadata, 
-                                       String filename, String slideNumber, String chunkType, 
-                                       int paragraphIndex, int subIndex, String hierarchyLevel) {
-        Map<String, Object> metadata = new java.util.HashMap<>(originalMetadata);
-        metadata.put("filename", filename);
-        metadata.put("slide_number", slideNumber);
-        metadata.put("chunk_type", chunkType);
-        metadata.put("paragraph_index", paragraphIndex);
-        metadata.put("hierarchy_level", hierarchyLevel);
-        metadata.put("content_length", content.length());
+        Map<String, IngestedDocumentRepository.StoredParagraph> storedParagraphs = documentRepository.findStoredParagraphs(filename);
+        Set<String> keptParagraphs = new HashSet<>();
+        int paragraphCount = 0;
+        int chunkCount = 0;
+        int keptChunkCount = 0;
         
-        if (subIndex >= 0) {
-            metadata.put("sub_index", subIndex);
-            metadata.put("parent_paragraph", paragraphIndex);
+        long parseStarted = System.nanoTime();
+        try (PdfParagraphReader reader = new PdfParagraphReader(pdf, filename, pdfMemoryBytes)) {
+            job.enterStage(IngestionJob.Stage.PARSE);
+            // The reader extracts a paragraph's text lazily in hasNext(), so that is where parsing happens
+            while (reader.hasNext()) {
+                Document paragraph = reader.next();
+                metrics.recordIngestStage(IngestionJob.Stage.PARSE, System.nanoTime() - parseStarted);
+                job.addParagraphs(1);
+                int paragraphIndex = paragraphCount++;
+                
+                String paragraphHash = paragraphHash(paragraph);
+                String key = IngestedDocumentRepository.paragraphKey(paragraphIndex, paragraphHash);
+                paragraph.getMetadata().put("paragraph_hash", paragraphHash);
+                
+                // Create multi-level granular chunks; chunking is cheap next to embedding, and its
+                // count tells a completely stored paragraph from one a failed run stored in part
+                long chunkStarted = System.nanoTime();
+                List<Document> chunks = chunkingEngine.chunk(paragraph, paragraphIndex, filename);
+                metrics.recordIngestStage(IngestionJob.Stage.CHUNK, System.nanoTime() - chunkStarted);
+                
+                // Unchanged paragraphs keep their stored chunks and embeddings; partial ones are
+                // not kept, so their chunks are deleted as stale once the full set is stored
+                IngestedDocumentRepository.StoredParagraph stored = storedParagraphs.get(key);
+                if (stored != null && stored.hasParagraphChunk() && stored.chunkIds().size() == chunks.size()) {
+                    keptParagraphs.add(key);
+                    keptChunkCount += chunks.size();
+                    job.addUnchanged(1);
+                    parseStarted = System.nanoTime();
+                    continue;
+                }
+                metrics.recordChunks(chunks);
+                job.addChunks(chunks.size());
+                chunkCount += chunks.size();
+                sink.accept(chunks);
+                parseStarted = System.nanoTime();
+            }
         }
         
-        // Add content analysis flags
-        metadata.put("contains_numbers", NUMBER_DATA_PATTERN.matcher(content).find());
-        metadata.put("contains_percentages", content.contains("%"));
-        metadata.put("contains_currency", content.contains("$"));
-        
-        return new Document(content, metadata);
+        // Everything not kept belongs to a changed or removed paragraph, or to an older ingestion
+        List<String> staleChunkIds = new ArrayList<>();
+        storedParagraphs.forEach((key, stored) -> {
+            if (!keptParagraphs.contains(key)) {
+                staleChunkIds.addAll(stored.chunkIds());
+            }
+        });
+        return Optional.of(new DocumentDiff(filename, documentHash, previousHash.isEmpty(), paragraphCount,
+                keptParagraphs.size(), chunkCount, keptChunkCount, staleChunkIds));
     }
     
-    private List<Document> extractTableChunks(String content, Map<String, Object> originalMetadata, 
-                                            String filename, String slideNumber, int paragraphIndex) {
-        List<Document> tableChunks = new ArrayList<>();
-        Matcher matcher = TABLE_PATTERN.matcher(content);
-        int tableIndex = 0;
+    /**
+     * Records the document and deletes its stale chunks in one transaction.
+     */
+    void commit(DocumentDiff diff, IngestionJob job) {
+        transactionTemplate.executeWithoutResult(status -> {
+            documentRepository.save(diff.filename(), diff.documentHash(), diff.paragraphs(),
+                    diff.keptChunks() + diff.newChunks());
+            // pgvector rows go with the transaction; the hot tier drops them only after it commits
+            if (!diff.staleChunkIds().isEmpty()) {
+                vectorStore.delete(diff.staleChunkIds());
+            }
+        });
+        job.addRemoved(diff.staleChunkIds().size());
         
-        while (matcher.find()) {
-            String tableRow = matcher.group().trim();
-            if (tableRow.length() > 20) { // Filter out too short matches
-                Document tableChunk = createEnhancedChunk(
-                    tableRow, originalMetadata, filename, slideNumber,
-                    "table_row", paragraphIndex, tableIndex, "secondary"
-                );
-                tableChunks.add(tableChunk);
-                tableIndex++;
+        if (diff.newChunks() > 0 || !diff.staleChunkIds().isEmpty()) {
+            // Cached answers, paragraphs and session chunks from an older version of this document are now stale.
+            // A new document may answer any cached question better, and no cached answer names it as a source.
+            if (diff.newDocument()) {
+                answerCache.clear();
+            } else {
+                answerCache.invalidateDocument(diff.filename());
             }
+            parentCache.invalidateDocument(diff.filename());
+            chatSessions.invalidateDocument(diff.filename());
         }
         
-        return tableChunks;
+        log.info("Document '{}' ingested with {} new granular chunks ({} of {} source paragraphs unchanged, {} stale chunks removed)",
+                diff.filename(), diff.newChunks(), diff.keptParagraphs(), diff.paragraphs(), diff.staleChunkIds().size());
     }
     
-    private List<Document> extractListChunks(String content, Map<String, Object> originalMetadata,
-                                           String filename, String slideNumber, int paragraphIndex) {
-        List<Document> listChunks = new ArrayList<>();
-        Matcher matcher = LIST_PATTERN.matcher(content);
-        int listIndex = 0;
-        
-        while (matcher.find()) {
-            String listItem = matcher.group().trim();
-            if (listItem.length() > 10) { // Filter out too short matches
-                Document listChunk = createEnhancedChunk(
-                    listItem, originalMetadata, filename, slideNumber,
-                    "list_item", paragraphIndex, listIndex, "secondary"
-                );
-                listChunks.add(listChunk);
-                listIndex++;
-            }
+    private void flush(List<Document> buffer, IngestionJob job) throws InterruptedException {
+        if (buffer.isEmpty()) {
+            return;
         }
-        
-        return listChunks;
+        // Embed and store in concurrent, individually retried batches
+        job.enterStage(IngestionJob.Stage.EMBED);
+        embeddingStage.embedAndStore(buffer, job);
+        buffer.clear();
+        job.enterStage(IngestionJob.Stage.PARSE);
     }
     
-    private List<Document> extractSentenceChunks(String content, Map<String, Object> originalMetadata,
-                                               String filename, String slideNumber, int paragraphIndex) {
-        List<Document> sentenceChunks = new ArrayList<>();
-        String[] sentences = SENTENCE_PATTERN.split(content);
-        
-        for (int i = 0; i < sentences.length; i++) {
-            String sentence = sentences[i].trim();
-            if (sentence.length() > 50) { // Only meaningful sentences
-                Document sentenceChunk = createEnhancedChunk(
-                    sentence, originalMetadata, filename, slideNumber,
-                    "sentence", paragraphIndex, i, "tertiary"
-                );
-                sentenceChunks.add(sentenceChunk);
-            }
+    /**
+     * A claim on one filename from {@link #lock}; closing it more than once is harmless.
+     */
+    @FunctionalInterface
+    interface DocumentLock extends AutoCloseable {
+        @Override
+        void close();
+    }
+    
+    /**
+     * Receives the chunks of each new or changed paragraph during {@link #diff}.
+     */
+    @FunctionalInterface
+    interface ChunkSink {
+        void accept(List<Document> chunks) throws InterruptedException;
+    }
+    
+    /**
+     * @param newDocument whether no earlier version of the document was recorded
+     */
+    record DocumentDiff(String filename, String documentHash, boolean newDocument, int paragraphs, int keptParagraphs,
+                        int newChunks, int keptChunks, List<String> staleChunkIds) {
+    }
+    
+    private static String fileHash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
         }
-        
-        return sentenceChunks;
+        return HexFormat.of().formatHex(digest.digest());
     }
     
-    private List<Document> extractNumericalDataChunks(String content, Map<String, Object> originalMetadata,
-                                                    String filename, String slideNumber, int paragraphIndex) {
-        List<Document> numericalChunks = new ArrayList<>();
-        Matcher matcher = NUMBER_DATA_PATTERN.matcher(content);
-        int numberIndex = 0;
-        
-        // Extract sentences containing numerical data
-        String[] sentences = SENTENCE_PATTERN.split(content);
-        for (int i = 0; i < sentences.length; i++) {
-            String sentence = sentences[i].trim();
-            if (NUMBER_DATA_PATTERN.matcher(sentence).find() && sentence.length() > 30) {
-                Map<String, Object> numericalMetadata = new java.util.HashMap<>(originalMetadata);
-                numericalMetadata.putAll(createEnhancedChunk(
-                    sentence, originalMetadata, filename, slideNumber,
-                    "numerical_data", paragraphIndex, numberIndex, "analytical"
-                ).getMetadata());
-                numericalMetadata.put("contains_financial_data", true);
-                
-                Document numericalChunk = new Document(sentence, numericalMetadata);
-                numericalChunks.add(numericalChunk);
-                numberIndex++;
-            }
+    /**
+     * Hash of a paragraph's text and source metadata, i.e. of everything its chunks are built from.
+     */
+    static String paragraphHash(Document paragraph) {
+        MessageDigest digest = sha256();
+        digest.update(paragraph.getText().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(new TreeMap<>(paragraph.getMetadata()).toString().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
-        
-        return numericalChunks;
     }
 }
@@ -0,0 +1,41 @@
+package com.samcode.finance_rag;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of recent call latencies, used to derive hedging delays from the observed
+ * latency distribution instead of a fixed timeout.
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Latency at the given percentile (0-1) of the current window, or -1 when empty.
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(rank, count - 1))];
+    }
+}
@@ -0,0 +1,370 @@
+package com.samcode.finance_rag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BM25 inverted index over chunk texts, for the exact tokens embeddings handle poorly:
+ * tickers, "bps", percentages, years and slide numbers.
+ *
+ * Postings are parallel {@code int[]} arrays of document and term frequency per term, kept in
+ * document order, and scores accumulate in a {@code float[]}, so neither indexing nor search
+ * touches boxed values beyond the term dictionary. Documents are numbered sequentially from
+ * zero like {@link HnswIndex} nodes, so the two indexes can share numbering.
+ *
+ * Removal marks a document deleted; it stops matching at once and is dropped from the postings
+ * by {@link #compact()}. Not thread-safe; concurrent searches are fine only while no document
+ * is being added or removed.
+ */
+public final class LexicalIndex {
+
+    private static final int MAGIC = 0x424D3235; // "BM25"
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Numbers keep sign, currency, thousands separators, decimals and a percent sign or unit
+    // ("-4.2%", "$1,250", "12bps", "10y"); words keep inner '&', '.' and apostrophes ("s&p", "u.s").
+    // A sign counts only at the start, after whitespace or after an opening bracket, so the
+    // dash in ranges like "2023-2024", "Q3-2024" or "3.5%-4.0%" is not read as a minus.
+    private static final Pattern TOKEN = Pattern.compile(
+            "(?:(?<![^\\s(\\[])[-+])?(?<![\\p{L}\\p{N}.])[$€£¥]?\\d+(?:,\\d{3}(?!\\d))*(?:\\.\\d+)?(?:%|\\p{L}+)?"
+                    + "|\\p{L}[\\p{L}\\p{N}]*(?:[&.'][\\p{L}\\p{N}]+)*");
+    private static final Pattern NUMBER_WITH_UNIT = Pattern.compile("(-?[$€£¥]?[\\d.]+)(\\p{L}+)");
+    private static final Set<String> STOPWORDS = Set.of("a", "an", "and", "are", "as", "at", "be", "by", "did",
+            "do", "does", "for", "from", "had", "has", "have", "how", "in", "into", "is", "it", "its", "of", "on",
+            "or", "than", "that", "the", "this", "to", "was", "were", "what", "when", "where", "which", "who", "why",
+            "with");
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private String[] terms = new String[256];
+    private int[][] postingDocs = new int[256][];
+    private int[][] postingFreqs = new int[256][];
+    private int[] postingSizes = new int[256];
+    private int termCount;
+
+    private int[] docLengths = new int[64];
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int deletedCount;
+    private long liveLength;
+
+    public record Hit(int doc, float score) {
+    }
+
+    /**
+     * Lower-cased index terms of {@code text}, stop words removed. A number with a unit suffix
+     * also yields its parts, so "12bps" matches questions that say "12 bps".
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String token = matcher.group();
+            if (Character.isDigit(token.charAt(token.length() - 1)) || token.endsWith("%")
+                    || !Character.isLetter(token.charAt(0))) {
+                token = token.replace(",", "").replace("+", "");
+                tokens.add(token);
+                Matcher unit = NUMBER_WITH_UNIT.matcher(token);
+                if (unit.matches()) {
+                    tokens.add(unit.group(1));
+                    tokens.add(unit.group(2));
+                }
+            } else if (!STOPWORDS.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Indexes a text and returns its document number; numbers are assigned sequentially from zero.
+     */
+    public int add(String text) {
+        List<String> tokens = tokenize(text);
+        int doc = size;
+        if (doc == docLengths.length) {
+            docLengths = Arrays.copyOf(docLengths, doc * 2);
+        }
+        docLengths[doc] = tokens.size();
+        liveLength += tokens.size();
+        size++;
+
+        // Sorting the term ids groups repeats of a term, so frequencies need no per-document map
+        int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = termId(tokens.get(i));
+        }
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; ) {
+            int run = i;
+            while (run < ids.length && ids[run] == ids[i]) {
+                run++;
+            }
+            appendPosting(ids[i], doc, run - i);
+            i = run;
+        }
+        return doc;
+    }
+
+    /**
+     * Up to {@code k} live documents that contain a query term and pass {@code accept}, best
+     * BM25 score first.
+     */
+    public List<Hit> search(String query, int k, IntPredicate accept) {
+        int live = size - deletedCount;
+        if (live == 0 || k <= 0) {
+            return List.of();
+        }
+        int[] queryTerms = tokenize(query).stream()
+                .map(termIds::get)
+                .filter(id -> id != null)
+                .mapToInt(Integer::intValue)
+                .distinct()
+                .toArray();
+        if (queryTerms.length == 0) {
+            return List.of();
+        }
+
+        float averageLength = Math.max(1f, (float) liveLength / live);
+        float[] scores = new float[size];
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        for (int term : queryTerms) {
+            int documentFrequency = postingSizes[term];
+            float idf = (float) Math.log(1 + (live - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            int[] docs = postingDocs[term];
+            int[] freqs = postingFreqs[term];
+            for (int i = 0; i < documentFrequency; i++) {
+                int doc = docs[i];
+                if (deleted.get(doc)) {
+                    continue;
+                }
+                float tf = freqs[i];
+                float norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                if (scores[doc] == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        return topK(scores, touched, touchedCount, k, accept);
+    }
+
+    public void remove(int doc) {
+        if (doc < size && !deleted.get(doc)) {
+            deleted.set(doc);
+            deletedCount++;
+            liveLength -= docLengths[doc];
+        }
+    }
+
+    public boolean isDeleted(int doc) {
+        return deleted.get(doc);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * New index holding only the live documents, renumbered in their current order like
+     * {@link HnswIndex#compact()}.
+     */
+    public LexicalIndex compact() {
+        int[] renumbered = new int[size];
+        LexicalIndex compacted = new LexicalIndex();
+        for (int doc = 0; doc < size; doc++) {
+            if (deleted.get(doc)) {
+                renumbered[doc] = -1;
+            } else {
+                renumbered[doc] = compacted.size;
+                if (compacted.size == compacted.docLengths.length) {
+                    compacted.docLengths = Arrays.copyOf(compacted.docLengths, compacted.size * 2);
+                }
+                compacted.docLengths[compacted.size++] = docLengths[doc];
+                compacted.liveLength += docLengths[doc];
+            }
+        }
+        for (int term = 0; term < termCount; term++) {
+            int[] docs = postingDocs[term];
+            for (int i = 0; i < postingSizes[term]; i++) {
+                if (renumbered[docs[i]] >= 0) {
+                    compacted.appendPosting(compacted.termId(terms[term]), renumbered[docs[i]], postingFreqs[term][i]);
+                }
+            }
+        }
+        return compacted;
+    }
+
+    private int termId(String term) {
+        Integer id = termIds.get(term);
+        if (id != null) {
+            return id;
+        }
+        if (termCount == terms.length) {
+            int capacity = termCount * 2;
+            terms = Arrays.copyOf(terms, capacity);
+            postingDocs = Arrays.copyOf(postingDocs, capacity);
+            postingFreqs = Arrays.copyOf(postingFreqs, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+        }
+        terms[termCount] = term;
+        postingDocs[termCount] = new int[4];
+        postingFreqs[termCount] = new int[4];
+        termIds.put(term, termCount);
+        return termCount++;
+    }
+
+    private void appendPosting(int term, int doc, int frequency) {
+        int count = postingSizes[term];
+        if (count == postingDocs[term].length) {
+            postingDocs[term] = Arrays.copyOf(postingDocs[term], count * 2);
+            postingFreqs[term] = Arrays.copyOf(postingFreqs[term], count * 2);
+        }
+        postingDocs[term][count] = doc;
+        postingFreqs[term][count] = frequency;
+        postingSizes[term] = count + 1;
+    }
+
+    /**
+     * Best {@code k} accepted documents among {@code touched}, via a min-heap on parallel arrays.
+     */
+    private static List<Hit> topK(float[] scores, int[] touched, int touchedCount, int k, IntPredicate accept) {
+        int[] heapDocs = new int[k];
+        float[] heapScores = new float[k];
+        int heapSize = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            float score = scores[doc];
+            if (heapSize == k && score <= heapScores[0]) {
+                continue;
+            }
+            if (!accept.test(doc)) {
+                continue;
+            }
+            if (heapSize < k) {
+                int slot = heapSize++;
+                while (slot > 0 && heapScores[(slot - 1) / 2] > score) {
+                    heapDocs[slot] = heapDocs[(slot - 1) / 2];
+                    heapScores[slot] = heapScores[(slot - 1) / 2];
+                    slot = (slot - 1) / 2;
+                }
+                heapDocs[slot] = doc;
+                heapScores[slot] = score;
+            } else {
+                siftDown(heapDocs, heapScores, heapSize, doc, score);
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(heapSize);
+        for (int i = 0; i < heapSize; i++) {
+            hits.add(new Hit(heapDocs[i], heapScores[i]));
+        }
+        hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return hits;
+    }
+
+    // Replaces the root (the lowest score) and restores the heap order
+    private static void siftDown(int[] heapDocs, float[] heapScores, int heapSize, int doc, float score) {
+        int slot = 0;
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapScores[child + 1] < heapScores[child]) {
+                child++;
+            }
+            if (heapScores[child] >= score) {
+                break;
+            }
+            heapDocs[slot] = heapDocs[child];
+            heapScores[slot] = heapScores[child];
+            slot = child;
+        }
+        heapDocs[slot] = doc;
+        heapScores[slot] = score;
+    }
+
+    // Snapshot format: header, document lengths and deleted flags, then per term its text and postings
+
+    public long serializedSize() {
+        long bytes = 4L * Integer.BYTES + Long.BYTES + (long) size * (Integer.BYTES + 1);
+        for (int term = 0; term < termCount; term++) {
+            bytes += 2L * Integer.BYTES + terms[term].getBytes(StandardCharsets.UTF_8).length
+                    + 2L * postingSizes[term] * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(size).putInt(deletedCount).putInt(termCount).putLong(liveLength);
+        for (int doc = 0; doc < size; doc++) {
+            buffer.putInt(docLengths[doc]);
+            buffer.put((byte) (deleted.get(doc) ? 1 : 0));
+        }
+        for (int term = 0; term < termCount; term++) {
+            byte[] text = terms[term].getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(text.length).put(text);
+            buffer.putInt(postingSizes[term]);
+            buffer.asIntBuffer().put(postingDocs[term], 0, postingSizes[term]);
+            buffer.position(buffer.position() + postingSizes[term] * Integer.BYTES);
+            buffer.asIntBuffer().put(postingFreqs[term], 0, postingSizes[term]);
+            buffer.position(buffer.position() + postingSizes[term] * Integer.BYTES);
+        }
+    }
+
+    public static LexicalIndex readFrom(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a lexical index snapshot");
+        }
+        LexicalIndex index = new LexicalIndex();
+        int size = buffer.getInt();
+        index.deletedCount = buffer.getInt();
+        int termCount = buffer.getInt();
+        index.liveLength = buffer.getLong();
+
+        index.docLengths = new int[Math.max(64, size)];
+        for (int doc = 0; doc < size; doc++) {
+            index.docLengths[doc] = buffer.getInt();
+            if (buffer.get() == 1) {
+                index.deleted.set(doc);
+            }
+        }
+        index.size = size;
+        for (int term = 0; term < termCount; term++) {
+            byte[] text = new byte[buffer.getInt()];
+            buffer.get(text);
+            int id = index.termId(new String(text, StandardCharsets.UTF_8));
+            int postings = buffer.getInt();
+            int[] docs = new int[Math.max(4, postings)];
+            int[] freqs = new int[Math.max(4, postings)];
+            buffer.asIntBuffer().get(docs, 0, postings);
+            buffer.position(buffer.position() + postings * Integer.BYTES);
+            buffer.asIntBuffer().get(freqs, 0, postings);
+            buffer.position(buffer.position() + postings * Integer.BYTES);
+            index.postingDocs[id] = docs;
+            index.postingFreqs[id] = freqs;
+            index.postingSizes[id] = postings;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,232 @@
+package com.samcode.finance_rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Hedged race between the two LLM providers behind {@code model=auto}.
+ *
+ * The prompt goes to the primary provider first. When it has produced no token after the
+ * configured percentile of its recent times to first token (a fixed initial delay until
+ * enough samples exist), or when it fails, the same prompt goes to the secondary provider.
+ * A whole answer goes to whichever provider finishes first; a streamed answer commits to the
+ * first provider to produce a token, since its tokens are already on their way to the user.
+ * The loser is cancelled by interrupting its thread, which aborts its in-flight HTTP call.
+ * Each contender holds a permit of its own provider bulkhead, and a hedge that finds the
+ * secondary at capacity is dropped rather than queued behind it.
+ */
+@Component
+public class ModelRace {
+    private static final Logger log = LoggerFactory.getLogger(ModelRace.class);
+
+    /**
+     * Generates the answer to an already assembled prompt, handing each token to
+     * {@code onToken}. Blocks until the answer is complete and aborts when interrupted.
+     */
+    @FunctionalInterface
+    public interface Contender {
+        void generate(Consumer<String> onToken);
+    }
+
+    public record Result(String provider, String answer, boolean hedged) {
+    }
+
+    private final ProviderBulkheads bulkheads;
+    private final RagMetrics metrics;
+    private final String primary;
+    private final String secondary;
+    private final double hedgePercentile;
+    private final int minSamples;
+    private final long initialHedgeDelayMs;
+    private final Map<String, LatencyTracker> firstTokenLatencies = Map.of(
+            ProviderBulkheads.OPENAI, new LatencyTracker(200),
+            ProviderBulkheads.GEMINI, new LatencyTracker(200));
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ModelRace(ProviderBulkheads bulkheads, RagMetrics metrics,
+                     @Value("${finance-rag.chat.race.primary:openai}") String primary,
+                     @Value("${finance-rag.chat.race.hedge-percentile:0.9}") double hedgePercentile,
+                     @Value("${finance-rag.chat.race.min-samples:20}") int minSamples,
+                     @Value("${finance-rag.chat.race.initial-hedge-delay-ms:3000}") long initialHedgeDelayMs) {
+        this.bulkheads = bulkheads;
+        this.metrics = metrics;
+        this.primary = ProviderBulkheads.GEMINI.equals(primary) ? ProviderBulkheads.GEMINI : ProviderBulkheads.OPENAI;
+        this.secondary = ProviderBulkheads.GEMINI.equals(this.primary) ? ProviderBulkheads.OPENAI : ProviderBulkheads.GEMINI;
+        this.hedgePercentile = hedgePercentile;
+        this.minSamples = minSamples;
+        this.initialHedgeDelayMs = initialHedgeDelayMs;
+    }
+
+    public String getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Races {@code contenders} (keyed by provider) for one prompt. With {@code onToken} set the
+     * race is decided by the first token and the winner's tokens are passed on as they arrive;
+     * without it, by the first complete answer. {@code permit} is a held slot of the primary's
+     * bulkhead, so callers can shed the request before doing any work; the race releases it.
+     */
+    public Result run(Map<String, Contender> contenders, Consumer<String> onToken, ProviderBulkhead.Permit permit) {
+        Race race = new Race(contenders, onToken);
+        race.start(primary, permit);
+        CompletableFuture.delayedExecutor(hedgeDelayMs(), TimeUnit.MILLISECONDS).execute(() -> race.hedge(false));
+
+        try {
+            Result result = race.result.get();
+            metrics.recordRace(primary, result.hedged(), result.provider());
+            return result;
+        } catch (InterruptedException e) {
+            race.cancelAll();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while racing " + primary + " and " + secondary);
+        } catch (ExecutionException e) {
+            metrics.recordRace(primary, race.hedged, "none");
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Model race failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * How long the primary gets to produce its first token before the secondary is asked too.
+     */
+    long hedgeDelayMs() {
+        LatencyTracker latencies = firstTokenLatencies.get(primary);
+        if (latencies.count() < minSamples) {
+            return initialHedgeDelayMs;
+        }
+        return Math.max(1, latencies.percentile(hedgePercentile));
+    }
+
+    private final class Race {
+        private final Map<String, Contender> contenders;
+        private final Consumer<String> onToken;
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private final Map<String, Future<?>> running = new ConcurrentHashMap<>();
+        private final Set<String> firstTokens = ConcurrentHashMap.newKeySet();
+        private final AtomicReference<String> winner = new AtomicReference<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean hedged;
+
+        Race(Map<String, Contender> contenders, Consumer<String> onToken) {
+            this.contenders = contenders;
+            this.onToken = onToken;
+        }
+
+        void start(String provider, ProviderBulkhead.Permit permit) {
+            outstanding.incrementAndGet();
+            running.put(provider, executor.submit(() -> {
+                Throwable error = null;
+                long started = System.nanoTime();
+                try {
+                    StringBuilder answer = new StringBuilder();
+                    contenders.get(provider).generate(token -> token(provider, started, token, answer));
+                    finished(provider, answer.toString());
+                } catch (Throwable e) {
+                    error = e;
+                    failed(provider, e, started);
+                } finally {
+                    permit.release(error);
+                }
+            }));
+        }
+
+        /**
+         * Sends the prompt to the secondary provider, at most once: on the timer only while the
+         * primary has not produced a token, on a primary failure in any case.
+         */
+        synchronized void hedge(boolean failover) {
+            if (hedged || result.isDone() || winner.get() != null || (!failover && firstTokens.contains(primary))) {
+                return;
+            }
+            ProviderBulkhead.Permit permit = bulkheads.forModel(secondary).tryAcquire();
+            if (permit == null) {
+                log.debug("{} is at capacity, not hedging {}", secondary, primary);
+                return;
+            }
+            log.debug("{} {}, hedging to {}", primary, failover ? "failed" : "has no first token yet", secondary);
+            hedged = true;
+            start(secondary, permit);
+        }
+
+        void cancelAll() {
+            running.values().forEach(future -> future.cancel(true));
+        }
+
+        private void token(String provider, long started, String token, StringBuilder answer) {
+            if (firstTokens.add(provider)) {
+                firstTokenLatencies.get(provider).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            }
+            if (onToken != null && winner.compareAndSet(null, provider)) {
+                cancelOthers(provider);
+            }
+            String current = winner.get();
+            // Covers a loser whose future was not yet registered when the others were cancelled
+            if (current != null && !current.equals(provider)) {
+                throw new CancellationException(provider + " lost the race to " + current);
+            }
+            answer.append(token);
+            if (onToken != null) {
+                onToken.accept(token);
+            }
+        }
+
+        private void finished(String provider, String answer) {
+            if (winner.compareAndSet(null, provider)) {
+                cancelOthers(provider);
+            }
+            if (provider.equals(winner.get())) {
+                result.complete(new Result(provider, answer, hedged));
+            }
+        }
+
+        private void failed(String provider, Throwable error, long started) {
+            String current = winner.get();
+            if (current != null) {
+                if (current.equals(provider)) {
+                    result.completeExceptionally(error);
+                } else if (firstTokens.add(provider)) {
+                    // A loser cancelled before its first token took at least this long; leaving it
+                    // out would drag the percentile, and so the hedge delay, down
+                    firstTokenLatencies.get(provider).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+                return;
+            }
+            failure.compareAndSet(null, error);
+            if (provider.equals(primary)) {
+                hedge(true);
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                // The primary's failure is the one the caller maps to a response (e.g. 429)
+                result.completeExceptionally(failure.get());
+            }
+        }
+
+        private void cancelOthers(String provider) {
+            running.forEach((other, future) -> {
+                if (!other.equals(provider)) {
+                    future.cancel(true);
+                }
+            });
+        }
+    }
+}
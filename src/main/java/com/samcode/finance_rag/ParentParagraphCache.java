@@ -0,0 +1,137 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU of paragraph chunks keyed by (filename, paragraph_index), used to expand
+ * fine-grained retrieval hits to their parent paragraph. Misses for a whole result set are
+ * read from {@code vector_store} in one query; entries of a document are dropped when it is
+ * re-ingested. Each invalidation bumps the document's generation, and a load that started
+ * under an older generation is returned to its caller but not cached, so it cannot put
+ * paragraphs of the replaced version back.
+ */
+@Component
+public class ParentParagraphCache {
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Document> paragraphs;
+    // Guarded by paragraphs; absent means generation 0
+    private final Map<String, Long> generations = new HashMap<>();
+
+    public ParentParagraphCache(JdbcTemplate jdbcTemplate,
+                                @Value("${finance-rag.retrieval.parent-cache-size:2000}") int maxEntries) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.paragraphs = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static String key(Object filename, Object paragraphIndex) {
+        return filename + "#" + paragraphIndex;
+    }
+
+    /**
+     * Paragraph chunks for the given {@link #key keys}; keys without a stored paragraph are absent.
+     */
+    public Map<String, Document> getAll(Collection<String> keys) {
+        Map<String, Document> found = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        Map<String, Long> loadedUnder = new HashMap<>();
+        synchronized (paragraphs) {
+            for (String key : keys) {
+                Document cached = paragraphs.get(key);
+                if (cached != null) {
+                    found.put(key, cached);
+                } else {
+                    missing.add(key);
+                    String filename = filenameOf(key);
+                    loadedUnder.put(filename, generations.getOrDefault(filename, 0L));
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+        // Load outside the lock; racing callers at worst read the same paragraphs twice
+        Map<String, Document> loaded = load(missing);
+        synchronized (paragraphs) {
+            loaded.forEach((key, paragraph) -> {
+                String filename = filenameOf(key);
+                Long generation = loadedUnder.get(filename);
+                if (generation != null && generation.equals(generations.getOrDefault(filename, 0L))) {
+                    paragraphs.put(key, paragraph);
+                }
+            });
+        }
+        found.putAll(loaded);
+        return found;
+    }
+
+    public void invalidateDocument(String filename) {
+        String prefix = key(filename, "");
+        synchronized (paragraphs) {
+            generations.merge(filename, 1L, Long::sum);
+            paragraphs.keySet().removeIf(key -> key.startsWith(prefix) && key.indexOf('#', prefix.length()) < 0);
+        }
+    }
+
+    Map<String, Document> load(Set<String> keys) {
+        Set<String> filenames = new LinkedHashSet<>();
+        for (String key : keys) {
+            filenames.add(filenameOf(key));
+        }
+        Map<String, Document> loaded = new HashMap<>();
+        jdbcTemplate.query(
+                connection -> {
+                    // The filename condition lets Postgres use vector_store_filename_idx
+                    var statement = connection.prepareStatement("""
+                            SELECT id::text, content, metadata::text FROM vector_store
+                            WHERE metadata->>'filename' = ANY(?) AND metadata->>'chunk_type' = 'paragraph'
+                              AND (metadata->>'filename') || '#' || (metadata->>'paragraph_index') = ANY(?)""");
+                    Array filenameArray = connection.createArrayOf("varchar", filenames.toArray());
+                    Array keyArray = connection.createArrayOf("varchar", keys.toArray());
+                    statement.setArray(1, filenameArray);
+                    statement.setArray(2, keyArray);
+                    return statement;
+                },
+                rs -> {
+                    Map<String, Object> metadata = parseMetadata(rs.getString(3));
+                    Document paragraph = Document.builder().id(rs.getString(1)).text(rs.getString(2)).metadata(metadata).build();
+                    loaded.put(key(metadata.get("filename"), metadata.get("paragraph_index")), paragraph);
+                });
+        return loaded;
+    }
+
+    private static String filenameOf(String key) {
+        return key.substring(0, key.lastIndexOf('#'));
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable chunk metadata: " + e.getMessage(), e);
+        }
+    }
+}
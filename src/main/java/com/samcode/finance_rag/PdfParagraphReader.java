@@ -0,0 +1,190 @@
+package com.samcode.finance_rag;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.reader.pdf.ParagraphPdfDocumentReader;
+import org.springframework.ai.reader.pdf.config.ParagraphManager;
+import org.springframework.ai.reader.pdf.config.PdfDocumentReaderConfig;
+import org.springframework.ai.reader.pdf.layout.PDFLayoutTextStripperByArea;
+import org.springframework.util.StringUtils;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a spooled PDF one paragraph at a time.
+ *
+ * Produces the same paragraphs as {@link ParagraphPdfDocumentReader} (outline entries, text cut
+ * between consecutive entries, same metadata keys), but the document is opened from disk with a
+ * capped PDFBox memory budget instead of being copied into a byte array, and each paragraph's
+ * text is extracted only when the iterator reaches it. Documents without an outline fall back to
+ * one paragraph per page instead of failing.
+ */
+public class PdfParagraphReader implements Iterator<Document>, Closeable {
+
+    private static final String REGION = "pdfPageRegion";
+
+    private final PDDocument document;
+    private final String filename;
+    private final PdfDocumentReaderConfig config = PdfDocumentReaderConfig.defaultConfig();
+    private final List<ParagraphManager.Paragraph> paragraphs;
+    private final boolean outlined;
+    private int position;
+    private Document next;
+
+    public PdfParagraphReader(Path pdf, String filename, long maxMainMemoryBytes) throws IOException {
+        this.document = Loader.loadPDF(pdf.toFile(), MemoryUsageSetting.setupMixed(maxMainMemoryBytes).streamCache);
+        this.filename = filename;
+
+        List<ParagraphManager.Paragraph> outline;
+        try {
+            outline = new ParagraphManager(document).flatten();
+        } catch (IllegalArgumentException e) {
+            // No outline (TOC) to derive paragraphs from
+            outline = null;
+        }
+        this.outlined = outline != null && !outline.isEmpty();
+        this.paragraphs = outlined ? outline : pageParagraphs();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && hasMoreParagraphs()) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Document paragraph = next;
+        next = null;
+        return paragraph;
+    }
+
+    @Override
+    public void close() throws IOException {
+        document.close();
+    }
+
+    private boolean hasMoreParagraphs() {
+        // ParagraphPdfDocumentReader reads each outline entry up to the start of the next one,
+        // so the last entry only stands on its own when it is the only one
+        if (outlined && paragraphs.size() > 1) {
+            return position < paragraphs.size() - 1;
+        }
+        return position < paragraphs.size();
+    }
+
+    private Document readNext() {
+        ParagraphManager.Paragraph from = paragraphs.get(position);
+        ParagraphManager.Paragraph to = outlined && paragraphs.size() > 1 ? paragraphs.get(position + 1) : from;
+        position++;
+
+        String text = outlined ? textBetween(from, to) : pageText(from.startPageNumber() - 1);
+        if (!StringUtils.hasText(text)) {
+            return null;
+        }
+        Document paragraph = new Document(text);
+        paragraph.getMetadata().put("title", from.title());
+        paragraph.getMetadata().put("page_number", from.startPageNumber());
+        paragraph.getMetadata().put("end_page_number", to.startPageNumber());
+        paragraph.getMetadata().put("level", from.level());
+        paragraph.getMetadata().put("file_name", filename);
+        return paragraph;
+    }
+
+    /**
+     * Same page-region extraction as {@link ParagraphPdfDocumentReader#getTextBetweenParagraphs}.
+     */
+    private String textBetween(ParagraphManager.Paragraph from, ParagraphManager.Paragraph to) {
+        int startPage = from.startPageNumber() - 1;
+        int endPage = to.startPageNumber() - 1;
+        try {
+            StringBuilder text = new StringBuilder();
+            PDFLayoutTextStripperByArea stripper = new PDFLayoutTextStripperByArea();
+            stripper.setSortByPosition(true);
+
+            for (int pageIndex = startPage; pageIndex <= endPage; pageIndex++) {
+                PDPage page = document.getPage(pageIndex);
+                PDRectangle mediaBox = page.getMediaBox();
+                int fromPosition = from.position();
+                int toPosition = to.position();
+                if (config.reversedParagraphPosition) {
+                    fromPosition = (int) (mediaBox.getHeight() - fromPosition);
+                    toPosition = (int) (mediaBox.getHeight() - toPosition);
+                }
+
+                int x = (int) mediaBox.getLowerLeftX();
+                int width = (int) mediaBox.getWidth();
+                int y = (int) mediaBox.getLowerLeftY();
+                int height = (int) mediaBox.getHeight();
+                if (pageIndex == startPage) {
+                    y = fromPosition;
+                    height = (int) mediaBox.getHeight() - y;
+                }
+                if (pageIndex == endPage) {
+                    height = toPosition - y;
+                }
+                if (y + height == (int) mediaBox.getHeight()) {
+                    height -= config.pageBottomMargin;
+                }
+                if (y == 0) {
+                    y += config.pageTopMargin;
+                    height -= config.pageTopMargin;
+                }
+
+                stripper.addRegion(REGION, new Rectangle(x, y, width, height));
+                stripper.extractRegions(page);
+                String pageText = stripper.getTextForRegion(REGION);
+                if (StringUtils.hasText(pageText)) {
+                    text.append(pageText);
+                }
+                stripper.removeRegion(REGION);
+            }
+
+            String result = text.toString();
+            return StringUtils.hasText(result) ? config.pageExtractedTextFormatter.format(result, startPage) : result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<ParagraphManager.Paragraph> pageParagraphs() {
+        List<ParagraphManager.Paragraph> pages = new ArrayList<>(document.getNumberOfPages());
+        for (int page = 1; page <= document.getNumberOfPages(); page++) {
+            pages.add(new ParagraphManager.Paragraph(null, "Page " + page, 0, page, page, 0));
+        }
+        return pages;
+    }
+
+    private String pageText(int pageIndex) {
+        try {
+            PDPage page = document.getPage(pageIndex);
+            PDRectangle mediaBox = page.getMediaBox();
+            PDFLayoutTextStripperByArea stripper = new PDFLayoutTextStripperByArea();
+            stripper.setSortByPosition(true);
+            stripper.addRegion(REGION, new Rectangle((int) mediaBox.getLowerLeftX(), (int) mediaBox.getLowerLeftY(),
+                    (int) mediaBox.getWidth(), (int) mediaBox.getHeight()));
+            stripper.extractRegions(page);
+            String text = stripper.getTextForRegion(REGION);
+            return StringUtils.hasText(text) ? config.pageExtractedTextFormatter.format(text, pageIndex) : text;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.postgresql.PGConnection;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes already-embedded chunks to the {@code vector_store} table with PostgreSQL COPY.
+ *
+ * {@link org.springframework.ai.vectorstore.pgvector.PgVectorStore#add} upserts row by row in a
+ * JDBC batch, and its upsert binds parameters in the {@code SET} clause, so pgjdbc cannot rewrite
+ * it into multi-row inserts. Here the rows are streamed into a transaction-scoped temp table in
+ * one COPY and upserted from there with a single {@code INSERT ... SELECT}. As with row-by-row
+ * upserts, the last of several chunks with the same id wins.
+ */
+@Component
+public class PgVectorBulkLoader {
+
+    static final String CREATE_LOAD_TABLE = """
+            CREATE TEMP TABLE vector_store_load (LIKE vector_store) ON COMMIT DROP""";
+    static final String COPY = "COPY vector_store_load (id, content, metadata, embedding) FROM STDIN";
+    static final String UPSERT = """
+            INSERT INTO vector_store (id, content, metadata, embedding)
+            SELECT id, content, metadata, embedding FROM vector_store_load
+            ON CONFLICT (id) DO UPDATE
+            SET content = EXCLUDED.content, metadata = EXCLUDED.metadata, embedding = EXCLUDED.embedding""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public PgVectorBulkLoader(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Inserts or replaces the chunks; {@code embeddings.get(i)} is the embedding of {@code documents.get(i)}.
+     */
+    public void load(List<Document> documents, List<float[]> embeddings) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        // ON CONFLICT cannot update a row twice in one statement, so duplicate ids are collapsed here
+        Map<String, Integer> lastById = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            lastById.put(documents.get(i).getId(), i);
+        }
+        StringBuilder rows = new StringBuilder(lastById.size() * 2048);
+        for (int i : lastById.values()) {
+            Document doc = documents.get(i);
+            appendRow(rows, doc.getId(), doc.getText(), toJson(doc), embeddings.get(i));
+        }
+
+        // The temp table lives until commit, so COPY and the upsert must share one transaction
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_LOAD_TABLE);
+            }
+            try {
+                connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY, new StringReader(rows.toString()));
+            } catch (IOException e) {
+                throw new IllegalStateException("COPY into vector_store failed: " + e.getMessage(), e);
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(UPSERT);
+            }
+            return null;
+        }));
+    }
+
+    private String toJson(Document doc) {
+        try {
+            return objectMapper.writeValueAsString(doc.getMetadata());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unserializable chunk metadata: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * One row in COPY's default text format: tab-separated, newline-terminated, with
+     * backslashes and control characters escaped.
+     */
+    static void appendRow(StringBuilder rows, String id, String content, String metadata, float[] embedding) {
+        rows.append(id).append('\t');
+        appendEscaped(rows, content);
+        rows.append('\t');
+        appendEscaped(rows, metadata);
+        rows.append('\t').append(new PGvector(embedding).getValue()).append('\n');
+    }
+
+    private static void appendEscaped(StringBuilder rows, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> rows.append("\\\\");
+                case '\t' -> rows.append("\\t");
+                case '\n' -> rows.append("\\n");
+                case '\r' -> rows.append("\\r");
+                default -> rows.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Concurrency bulkhead for one LLM provider with an adaptive limit.
+ *
+ * Calls beyond the current limit wait in a short bounded queue; when the queue is full or the
+ * wait times out the call is shed with a {@link BulkheadFullException} carrying a Retry-After
+ * estimate, instead of piling up threads behind a throttled provider. The limit follows AIMD:
+ * every successful call at full utilisation raises it by {@code 1/limit}, every throttled or
+ * timed-out call cuts it by a quarter, so it settles at what the provider quota sustains.
+ *
+ * Uses a {@link ReentrantLock} rather than {@code synchronized} so waiting virtual threads
+ * do not pin their carriers.
+ */
+public class ProviderBulkhead {
+
+    private final String provider;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitMs;
+    private final LatencyTracker latencies = new LatencyTracker(100);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+
+    public ProviderBulkhead(String provider, int minLimit, int maxLimit, int maxQueue, long maxWaitMs) {
+        this.provider = provider;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxWaitMs = maxWaitMs;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Thrown when a call is shed; maps to HTTP 429 with a Retry-After header.
+     */
+    public static class BulkheadFullException extends RuntimeException {
+        private final String provider;
+        private final long retryAfterSeconds;
+
+        public BulkheadFullException(String provider, long retryAfterSeconds) {
+            super(provider + " is at capacity, retry in " + retryAfterSeconds + "s");
+            this.provider = provider;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public String getProvider() {
+            return provider;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * A held slot. Must be released exactly once, reporting whether the provider throttled.
+     */
+    public class Permit {
+        private final long startedNanos = System.nanoTime();
+        private boolean released;
+
+        public void release(Throwable failure) {
+            lock.lock();
+            try {
+                if (released) {
+                    return;
+                }
+                released = true;
+                inFlight--;
+                if (failure != null && isThrottling(failure)) {
+                    limit = Math.max(minLimit, limit * 0.75);
+                } else if (failure == null) {
+                    latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+                    if (inFlight + 1 >= (int) limit) {
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                permitReleased.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits for a slot, at most {@code maxWaitMs}.
+     *
+     * @throws BulkheadFullException when the wait queue is full or the wait times out
+     */
+    public Permit acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return new Permit();
+            }
+            if (waiting >= maxQueue) {
+                throw new BulkheadFullException(provider, estimateRetryAfterSeconds());
+            }
+
+            waiting++;
+            try {
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (inFlight >= (int) limit) {
+                    if (remainingNanos <= 0) {
+                        throw new BulkheadFullException(provider, estimateRetryAfterSeconds());
+                    }
+                    remainingNanos = permitReleased.awaitNanos(remainingNanos);
+                }
+                inFlight++;
+                return new Permit();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BulkheadFullException(provider, estimateRetryAfterSeconds());
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot only if one is free now and nobody is queued for it, for optional work
+     * such as a hedged request; returns null otherwise.
+     */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (waiting == 0 && inFlight < (int) limit) {
+                inFlight++;
+                return new Permit();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <T> T call(Supplier<T> task) {
+        Permit permit = acquire();
+        try {
+            T result = task.get();
+            permit.release(null);
+            return result;
+        } catch (RuntimeException e) {
+            permit.release(e);
+            throw e;
+        }
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Time for the queue ahead of a new caller to drain at the median call latency.
+     */
+    public long retryAfterSeconds() {
+        lock.lock();
+        try {
+            return estimateRetryAfterSeconds();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long estimateRetryAfterSeconds() {
+        long medianMs = Math.max(latencies.percentile(0.5), 1000);
+        double rounds = (waiting + 1) / Math.max(limit, 1);
+        return Math.max(1, (long) Math.ceil(medianMs * rounds / 1000));
+    }
+
+    static boolean isThrottling(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof GeminiClient.GeminiApiException apiException
+                    && (apiException.getStatusCode() == 429 || apiException.getStatusCode() == 503)) {
+                return true;
+            }
+            // Spring AI raises transient errors for 5xx and spring.ai.retry.on-http-codes once its
+            // own retries are spent, and non-transient ones for any other 4xx
+            if (cause instanceof TransientAiException || cause instanceof HttpTimeoutException) {
+                return true;
+            }
+            // Its error handler words the message "HTTP <status> - <body>"
+            if (cause instanceof NonTransientAiException && cause.getMessage() != null
+                    && cause.getMessage().startsWith("HTTP 429 ")) {
+                return true;
+            }
+            // Streamed calls go through WebClient, whose errors bypass that handler
+            if (cause instanceof WebClientResponseException responseException
+                    && responseException.getStatusCode().value() == 429) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
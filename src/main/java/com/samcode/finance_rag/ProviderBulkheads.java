@@ -0,0 +1,33 @@
+package com.samcode.finance_rag;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * One {@link ProviderBulkhead} per LLM provider, so a throttled or stalled Gemini cannot
+ * take OpenAI capacity with it and vice versa.
+ */
+@Component
+public class ProviderBulkheads {
+
+    public static final String OPENAI = "openai";
+    public static final String GEMINI = "gemini";
+
+    private final Map<String, ProviderBulkhead> bulkheads;
+
+    public ProviderBulkheads(@Value("${finance-rag.bulkhead.openai.max-concurrency:32}") int openAiMaxConcurrency,
+                             @Value("${finance-rag.bulkhead.gemini.max-concurrency:16}") int geminiMaxConcurrency,
+                             @Value("${finance-rag.bulkhead.min-concurrency:2}") int minConcurrency,
+                             @Value("${finance-rag.bulkhead.max-queue:64}") int maxQueue,
+                             @Value("${finance-rag.bulkhead.max-wait-ms:2000}") long maxWaitMs) {
+        this.bulkheads = Map.of(
+                OPENAI, new ProviderBulkhead(OPENAI, minConcurrency, openAiMaxConcurrency, maxQueue, maxWaitMs),
+                GEMINI, new ProviderBulkhead(GEMINI, minConcurrency, geminiMaxConcurrency, maxQueue, maxWaitMs));
+    }
+
+    public ProviderBulkhead forModel(String model) {
+        return GEMINI.equals(model) ? bulkheads.get(GEMINI) : bulkheads.get(OPENAI);
+    }
+}
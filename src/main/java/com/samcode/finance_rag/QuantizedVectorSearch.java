@@ -0,0 +1,143 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Two-stage similarity search over {@code vector_store} using a compact copy of each embedding.
+ *
+ * The first stage walks an HNSW expression index over half-precision ({@code halfvec}, half
+ * the size) or binary-quantized ({@code bit}, 1/32 of the size) embeddings and takes
+ * {@code oversampling * topK} candidates; the second re-scores only those candidates by cosine
+ * distance on the full-precision column and keeps the top-k. The compact index stays in
+ * {@code shared_buffers} long after the full-precision one would have spilled to disk, and the
+ * re-ranking recovers most of the recall quantization loses. Metadata filters are applied in
+ * the first stage, as PgVectorStore does.
+ *
+ * Enable per deployment with {@code finance-rag.quantization.mode=halfvec|binary};
+ * {@link VectorStoreIndexes} creates the matching index.
+ */
+@Component
+public class QuantizedVectorSearch {
+
+    public enum Mode { NONE, HALFVEC, BINARY }
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final FilterExpressionConverter filterConverter = new PgVectorFilterExpressionConverter();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Mode mode;
+    private final int dimensions;
+    private final int oversampling;
+
+    public QuantizedVectorSearch(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                 EmbeddingModel embeddingModel,
+                                 @Value("${finance-rag.quantization.mode:none}") String mode,
+                                 @Value("${finance-rag.quantization.oversampling:4}") int oversampling) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.dimensions = embeddingModel.dimensions();
+        this.oversampling = Math.max(1, oversampling);
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.NONE;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * DDL of the compact HNSW index for {@code mode}, or null for {@link Mode#NONE}.
+     */
+    static String indexDdl(Mode mode, int dimensions) {
+        return switch (mode) {
+            case NONE -> null;
+            case HALFVEC -> "CREATE INDEX IF NOT EXISTS vector_store_embedding_halfvec_idx ON vector_store "
+                    + "USING hnsw ((embedding::halfvec(" + dimensions + ")) halfvec_cosine_ops)";
+            case BINARY -> "CREATE INDEX IF NOT EXISTS vector_store_embedding_binary_idx ON vector_store "
+                    + "USING hnsw ((binary_quantize(embedding)::bit(" + dimensions + ")) bit_hamming_ops)";
+        };
+    }
+
+    public String indexDdl() {
+        return indexDdl(mode, dimensions);
+    }
+
+    /**
+     * Top-k chunks for {@code query}, the embedding of {@code request.getQuery()}, scored like
+     * PgVectorStore results (score {@code 1 - distance}, {@code distance} in the metadata). With
+     * {@link Mode#NONE} this is a single-stage search on the full-precision column.
+     */
+    public List<Document> search(SearchRequest request, float[] query) {
+        int candidates = mode == Mode.NONE ? request.getTopK() : request.getTopK() * oversampling;
+        String filter = request.hasFilterExpression()
+                ? "WHERE metadata::jsonb @@ '" + filterConverter.convertExpression(request.getFilterExpression()) + "'::jsonpath"
+                : "";
+        String sql = """
+                SELECT id::text, content, metadata::text, distance FROM (
+                    SELECT id, content, metadata, embedding <=> ?::vector AS distance
+                    FROM vector_store
+                    %s
+                    ORDER BY %s
+                    LIMIT ?
+                ) candidates
+                WHERE distance <= ?
+                ORDER BY distance
+                LIMIT ?""".formatted(filter, candidateOrder());
+        PGvector vector = new PGvector(query);
+
+        return transactionTemplate.execute(status -> {
+            // HNSW returns at most ef_search rows per scan; the candidate list must fit in it
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + Math.max(40, candidates));
+            return jdbcTemplate.query(sql, (rs, rowNum) -> {
+                Map<String, Object> metadata = parseMetadata(rs.getString(3));
+                double distance = rs.getDouble(4);
+                metadata.put("distance", distance);
+                return Document.builder()
+                        .id(rs.getString(1))
+                        .text(rs.getString(2))
+                        .metadata(metadata)
+                        .score(1 - distance)
+                        .build();
+            }, vector, vector, candidates, 1 - request.getSimilarityThreshold(), request.getTopK());
+        });
+    }
+
+    private String candidateOrder() {
+        return switch (mode) {
+            case NONE -> "embedding <=> ?::vector";
+            case HALFVEC -> "embedding::halfvec(" + dimensions + ") <=> ?::vector::halfvec(" + dimensions + ")";
+            case BINARY -> "binary_quantize(embedding)::bit(" + dimensions + ") <~> binary_quantize(?::vector)";
+        };
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        try {
+            return objectMapper.readValue(json, METADATA_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable chunk metadata: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.samcode.finance_rag;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU of question embeddings. Unlike chunk embeddings these are never persisted:
+ * questions are ephemeral, but repeats and retries are common, and each miss costs a
+ * network round trip on the critical path of a chat request.
+ */
+@Component
+public class QueryEmbeddingCache {
+
+    private final Map<String, float[]> embeddings;
+
+    public QueryEmbeddingCache(@Value("${finance-rag.retrieval.query-cache-size:1000}") int maxEntries) {
+        this.embeddings = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public float[] get(String question, Function<String, float[]> embedder) {
+        String key = question.strip();
+        synchronized (embeddings) {
+            float[] cached = embeddings.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Embed outside the lock; two racing callers at worst embed the same question twice
+        float[] embedding = embedder.apply(key);
+        synchronized (embeddings) {
+            embeddings.put(key, embedding);
+        }
+        return embedding;
+    }
+
+    /**
+     * Batched {@link #get}: the questions not cached yet are embedded in one call, in order.
+     */
+    public List<float[]> getAll(List<String> questions, Function<List<String>, List<float[]>> batchEmbedder) {
+        List<String> keys = questions.stream().map(String::strip).toList();
+        Map<String, float[]> found = new HashMap<>();
+        synchronized (embeddings) {
+            for (String key : keys) {
+                float[] cached = embeddings.get(key);
+                if (cached != null) {
+                    found.put(key, cached);
+                }
+            }
+        }
+        List<String> missing = keys.stream().filter(key -> !found.containsKey(key)).distinct().toList();
+        if (!missing.isEmpty()) {
+            List<float[]> embedded = batchEmbedder.apply(missing);
+            synchronized (embeddings) {
+                for (int i = 0; i < missing.size(); i++) {
+                    embeddings.put(missing.get(i), embedded.get(i));
+                    found.put(missing.get(i), embedded.get(i));
+                }
+            }
+        }
+        return keys.stream().map(found::get).toList();
+    }
+
+    public void put(String question, float[] embedding) {
+        synchronized (embeddings) {
+            embeddings.put(question.strip(), embedding);
+        }
+    }
+}
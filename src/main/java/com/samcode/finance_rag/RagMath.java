@@ -0,0 +1,54 @@
+package com.samcode.finance_rag;
+
+/**
+ * Vector and token arithmetic shared by the index, the caches and prompt sizing. Cosine
+ * similarity is computed as the dot product of vectors normalised once, when they are stored.
+ */
+final class RagMath {
+
+    // Rough OpenAI tokenizer ratio for English prose; good enough for budgets, limits and reports
+    static final int CHARS_PER_TOKEN = 4;
+
+    private RagMath() {
+    }
+
+    /**
+     * A unit-length copy of {@code vector}; a zero vector stays zero.
+     */
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = vector.clone();
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= scale;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Dot product, i.e. cosine similarity of normalised vectors; 0 for vectors of different dimensions.
+     */
+    static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    static int estimateTokens(String text) {
+        return (int) estimateTokens((long) text.length());
+    }
+
+    static long estimateTokens(long chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
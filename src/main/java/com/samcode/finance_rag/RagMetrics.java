@@ -0,0 +1,143 @@
+package com.samcode.finance_rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer instrumentation for the chat and ingestion pipelines, exported through the
+ * actuator Prometheus endpoint.
+ *
+ * <ul>
+ *     <li>{@code rag.chat.stage} timer per {@code model} and {@code stage}: embed_query, cache_lookup,
+ *     search, context, prompt, llm</li>
+ *     <li>{@code rag.chat.context.size} / {@code rag.chat.prompt.size} in characters per {@code model}</li>
+ *     <li>{@code rag.llm.tokens} counter of provider-reported tokens per {@code model} and {@code type}
+ *     (prompt, completion, cached_prompt)</li>
+ *     <li>{@code rag.llm.prefix.cache} counter of requests per {@code model} and {@code result} (hit, miss)
+ *     whose prompt prefix was served from the provider's cache</li>
+ *     <li>{@code rag.chat.race} counter of {@code model=auto} requests per {@code primary}, {@code hedged}
+ *     (true, false) and {@code winner} provider (none when both failed), for hedge and win rates</li>
+ *     <li>{@code rag.chat.session.retrieval} counter of chat-session turns per {@code model} and
+ *     {@code source}: session (answered from the session's cached chunks) or search</li>
+ *     <li>{@code rag.retrieval.chunks} counter of retrieved chunks per {@code model} and {@code chunk_type}</li>
+ *     <li>{@code rag.ingest.stage} timer per {@code stage}: parse and chunk per paragraph, embed and
+ *     store per batch</li>
+ *     <li>{@code rag.ingest.chunks} counter of produced chunks per {@code chunk_type}</li>
+ * </ul>
+ */
+@Component
+public class RagMetrics {
+
+    private final MeterRegistry registry;
+
+    public RagMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts the stage breakdown of one chat request.
+     */
+    public ChatTimings startChat(String model) {
+        return new ChatTimings(this, model);
+    }
+
+    void recordChatStage(String model, String stage, long nanos) {
+        Timer.builder("rag.chat.stage")
+                .description("Time spent in each stage of a chat request")
+                .tags("model", model, "stage", stage)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordPromptSize(String model, int contextChars, int promptChars) {
+        DistributionSummary.builder("rag.chat.context.size")
+                .description("Retrieved context packed into the prompt")
+                .baseUnit("chars")
+                .tags("model", model)
+                .register(registry)
+                .record(contextChars);
+        DistributionSummary.builder("rag.chat.prompt.size")
+                .description("Full prompt sent to the model")
+                .baseUnit("chars")
+                .tags("model", model)
+                .register(registry)
+                .record(promptChars);
+    }
+
+    void recordTokens(String model, String type, Integer tokens) {
+        if (tokens != null && tokens > 0) {
+            Counter.builder("rag.llm.tokens")
+                    .description("Tokens reported by the model provider")
+                    .tags("model", model, "type", type)
+                    .register(registry)
+                    .increment(tokens);
+        }
+    }
+
+    void recordPrefixCache(String model, Integer cachedTokens) {
+        if (cachedTokens == null) {
+            return;
+        }
+        Counter.builder("rag.llm.prefix.cache")
+                .description("Requests whose prompt prefix was served from the provider's cache")
+                .tags("model", model, "result", cachedTokens > 0 ? "hit" : "miss")
+                .register(registry)
+                .increment();
+        recordTokens(model, "cached_prompt", cachedTokens);
+    }
+
+    void recordRace(String primary, boolean hedged, String winner) {
+        Counter.builder("rag.chat.race")
+                .description("Hedged multi-provider requests and which provider answered")
+                .tags("primary", primary, "hedged", String.valueOf(hedged), "winner", winner)
+                .register(registry)
+                .increment();
+    }
+
+    void recordSessionRetrieval(String model, boolean reused) {
+        Counter.builder("rag.chat.session.retrieval")
+                .description("Chat-session turns answered from session-cached chunks or a fresh search")
+                .tags("model", model, "source", reused ? "session" : "search")
+                .register(registry)
+                .increment();
+    }
+
+    void recordRetrieved(String model, List<Document> documents) {
+        for (Document doc : documents) {
+            Counter.builder("rag.retrieval.chunks")
+                    .description("Chunks returned by vector search")
+                    .tags("model", model, "chunk_type", chunkType(doc))
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    public void recordIngestStage(IngestionJob.Stage stage, long nanos) {
+        Timer.builder("rag.ingest.stage")
+                .description("Time spent in each ingestion stage")
+                .tags("stage", stage.name().toLowerCase())
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordChunks(List<Document> chunks) {
+        for (Document chunk : chunks) {
+            Counter.builder("rag.ingest.chunks")
+                    .description("Chunks produced by ingestion")
+                    .tags("chunk_type", chunkType(chunk))
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    private static String chunkType(Document doc) {
+        return doc.getMetadata().getOrDefault("chunk_type", "unknown").toString();
+    }
+}
@@ -0,0 +1,105 @@
+package com.samcode.finance_rag;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Metadata restrictions for a chat retrieval: source documents, a slide range, chunk types and
+ * "financial data only". {@link #toExpression} turns them into a vector store filter, which
+ * pgvector evaluates as a JSONPath predicate inside the similarity query.
+ *
+ * The pgvector filter converter inlines string values into SQL unescaped, so values containing
+ * quotes or backslashes are rejected here.
+ */
+public record RetrievalFilter(List<String> documents, Integer slideFrom, Integer slideTo,
+                              List<String> chunkTypes, boolean financialOnly) {
+
+    public static final RetrievalFilter NONE = new RetrievalFilter(null, null, null, null, false);
+
+    static final Set<String> CHUNK_TYPES = Set.of("paragraph", "table_row", "list_item", "sentence", "numerical_data");
+
+    // slide_number is stored as a string, so a range becomes one equality per slide
+    static final int MAX_SLIDE_RANGE = 200;
+
+    /**
+     * @throws IllegalArgumentException for unknown chunk types, unsafe values or an invalid slide range
+     */
+    public RetrievalFilter {
+        documents = documents != null ? documents.stream().filter(d -> !d.isBlank()).toList() : List.of();
+        chunkTypes = chunkTypes != null ? chunkTypes.stream().filter(t -> !t.isBlank()).toList() : List.of();
+        documents.forEach(RetrievalFilter::checkSafe);
+        for (String chunkType : chunkTypes) {
+            if (!CHUNK_TYPES.contains(chunkType)) {
+                throw new IllegalArgumentException("Unknown chunk type '" + chunkType + "', expected one of " + CHUNK_TYPES);
+            }
+        }
+        // A single bound selects a single slide
+        if (slideFrom == null) {
+            slideFrom = slideTo;
+        } else if (slideTo == null) {
+            slideTo = slideFrom;
+        }
+        if (slideFrom != null && (slideFrom < 1 || slideTo < slideFrom || slideTo - slideFrom >= MAX_SLIDE_RANGE)) {
+            throw new IllegalArgumentException("Slide range must be 1-based, ascending and at most "
+                    + MAX_SLIDE_RANGE + " slides wide");
+        }
+    }
+
+    public boolean isEmpty() {
+        return documents.isEmpty() && slideFrom == null && chunkTypes.isEmpty() && !financialOnly;
+    }
+
+    /**
+     * Conjunction of the given restrictions, or null when there are none.
+     */
+    public Filter.Expression toExpression() {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        List<FilterExpressionBuilder.Op> clauses = new ArrayList<>();
+        if (!documents.isEmpty()) {
+            clauses.add(b.in("filename", new ArrayList<Object>(documents)));
+        }
+        if (slideFrom != null) {
+            List<Object> slides = new ArrayList<>();
+            for (int slide = slideFrom; slide <= slideTo; slide++) {
+                slides.add(String.valueOf(slide));
+            }
+            clauses.add(b.in("slide_number", slides));
+        }
+        if (!chunkTypes.isEmpty()) {
+            clauses.add(b.in("chunk_type", new ArrayList<Object>(chunkTypes)));
+        }
+        if (financialOnly) {
+            // contains_financial_data is only set on numerical_data chunks; this also keeps table rows
+            clauses.add(b.eq("contains_numbers", true));
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        FilterExpressionBuilder.Op expression = clauses.get(0);
+        for (int i = 1; i < clauses.size(); i++) {
+            expression = b.and(expression, clauses.get(i));
+        }
+        return expression.build();
+    }
+
+    /**
+     * Partition key for caches whose entries depend on what the retrieval could see.
+     */
+    public String cacheKey() {
+        if (isEmpty()) {
+            return "";
+        }
+        return "|documents=" + documents.stream().sorted().toList() + "|slides=" + slideFrom + "-" + slideTo
+                + "|chunkTypes=" + chunkTypes.stream().sorted().toList() + "|financialOnly=" + financialOnly;
+    }
+
+    private static void checkSafe(String value) {
+        if (value.indexOf('"') >= 0 || value.indexOf('\'') >= 0 || value.indexOf('\\') >= 0) {
+            throw new IllegalArgumentException("Filter values may not contain quotes or backslashes: " + value);
+        }
+    }
+}
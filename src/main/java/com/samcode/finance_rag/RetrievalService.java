@@ -0,0 +1,308 @@
+package com.samcode.finance_rag;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Retrieval shared by the OpenAI and Gemini paths: embeds the question once, searches the
+ * vector store with configurable top-k, similarity threshold and metadata filter, and turns
+ * the hits into prompt context and source citations.
+ *
+ * The question embedding is served from {@link QueryEmbeddingCache}, and the vector store
+ * embeds its query through the same cache, so a request costs at most one embedding call.
+ *
+ * With {@code finance-rag.retrieval.small-to-big} enabled, the search matches fine-grained
+ * chunks (sentences, table rows, list items, numerical data) and each hit is replaced by its
+ * parent paragraph from {@link ParentParagraphCache}, so a matched table row reaches the
+ * prompt together with its header and neighbouring rows.
+ *
+ * With {@code finance-rag.retrieval.hybrid} enabled and the hot tier loaded, a BM25 search over
+ * the same chunks runs in parallel with the vector search and both rankings are merged by
+ * reciprocal-rank fusion, so exact tokens such as tickers, "bps" or "4.2%" are found even when
+ * the embedding blurs them. Lexical hits are held to the same {@code similarity-threshold} as
+ * vector hits, by the cosine similarity of their stored embedding to the question.
+ */
+@Service
+public class RetrievalService {
+    private static final Logger log = LoggerFactory.getLogger(RetrievalService.class);
+
+    // Paragraph chunks are a small share of the index, so twice top-k leaves enough fine-grained hits
+    private static final int SMALL_TO_BIG_OVERFETCH = 2;
+
+    private final VectorStore vectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final ContextAssembler contextAssembler;
+    private final ParentParagraphCache parentCache;
+    private final int topK;
+    private final double similarityThreshold;
+    private final boolean smallToBig;
+    private final boolean hybrid;
+    private final int rrfK;
+    private final ExecutorService lexicalExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public RetrievalService(VectorStore vectorStore, EmbeddingModel embeddingModel, ContextAssembler contextAssembler,
+                            ParentParagraphCache parentCache,
+                            @Value("${finance-rag.retrieval.top-k:4}") int topK,
+                            @Value("${finance-rag.retrieval.similarity-threshold:0.0}") double similarityThreshold,
+                            @Value("${finance-rag.retrieval.small-to-big:false}") boolean smallToBig,
+                            @Value("${finance-rag.retrieval.hybrid:true}") boolean hybrid,
+                            @Value("${finance-rag.retrieval.rrf-k:60}") int rrfK) {
+        this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.contextAssembler = contextAssembler;
+        this.parentCache = parentCache;
+        this.topK = topK;
+        this.similarityThreshold = similarityThreshold;
+        this.smallToBig = smallToBig;
+        this.hybrid = hybrid;
+        this.rrfK = rrfK;
+    }
+
+    @PostConstruct
+    void warnIfHybridIsInactive() {
+        if (hybrid && !(vectorStore instanceof HnswVectorStore hotTier && hotTier.isReady())) {
+            log.warn("finance-rag.retrieval.hybrid is on but the hot tier is not loaded; searches are vector-only");
+        }
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public float[] embedQuestion(String question) {
+        return embeddingModel.embed(question);
+    }
+
+    /**
+     * Embeds many questions in one provider call; later {@link #embedQuestion} and search
+     * calls for them are served from the query cache.
+     */
+    public List<float[]> embedQuestions(List<String> questions) {
+        if (embeddingModel instanceof CachingEmbeddingModel caching) {
+            return caching.embedQuestions(questions);
+        }
+        return embeddingModel.embed(questions);
+    }
+
+    /**
+     * Embeddings of retrieved chunks, in order: the hot tier's stored vectors where it holds the
+     * chunk, otherwise embedded through the content-hash cache that ingestion filled.
+     */
+    public List<float[]> chunkEmbeddings(List<Document> documents) {
+        Map<String, float[]> stored = vectorStore instanceof HnswVectorStore hotTier
+                ? hotTier.embeddings(documents.stream().map(Document::getId).toList())
+                : Map.of();
+        List<String> missing = documents.stream()
+                .filter(doc -> !stored.containsKey(doc.getId()))
+                .map(Document::getText)
+                .toList();
+        Iterator<float[]> embedded = missing.isEmpty()
+                ? Collections.emptyIterator()
+                : embeddingModel.embed(missing).iterator();
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for (Document doc : documents) {
+            float[] vector = stored.get(doc.getId());
+            embeddings.add(vector != null ? vector : embedded.next());
+        }
+        return embeddings;
+    }
+
+    public List<Document> search(String question) {
+        return search(question, RetrievalFilter.NONE);
+    }
+
+    /**
+     * Similarity search restricted by {@code filter}; a non-empty filter runs inside pgvector.
+     */
+    public List<Document> search(String question, RetrievalFilter filter) {
+        // Explicit chunk types are honoured as asked rather than expanded
+        if (!smallToBig || !filter.chunkTypes().isEmpty()) {
+            return hybridSearch(searchRequest(question, filter.toExpression()).build());
+        }
+        // Paragraph hits are dropped in memory rather than by filter, which would bypass the hot tier
+        List<Document> fineGrained = hybridSearch(searchRequest(question, filter.toExpression())
+                        .topK(topK * SMALL_TO_BIG_OVERFETCH)
+                        .build())
+                .stream()
+                .filter(doc -> !"paragraph".equals(doc.getMetadata().get("chunk_type")))
+                .limit(topK)
+                .toList();
+        return expandToParents(fineGrained);
+    }
+
+    /**
+     * Vector search, fused with a BM25 search of the same size when hybrid retrieval is on.
+     * The lexical side is best effort: if it fails, the semantic results are returned alone.
+     */
+    List<Document> hybridSearch(SearchRequest request) {
+        if (!hybrid || !(vectorStore instanceof HnswVectorStore hotTier)) {
+            return vectorStore.similaritySearch(request);
+        }
+        CompletableFuture<List<Document>> lexical = CompletableFuture
+                .supplyAsync(() -> hotTier.lexicalSearch(request.getQuery(), request.getTopK(),
+                        request.getFilterExpression()), lexicalExecutor)
+                .exceptionally(e -> List.of());
+        List<Document> semantic = vectorStore.similaritySearch(request);
+        return fuse(semantic, aboveThreshold(hotTier, lexical.join(), request), request.getTopK(), rrfK);
+    }
+
+    /**
+     * Lexical hits whose stored embedding clears the request's similarity threshold, the bar
+     * vector hits already pass; BM25 scores cannot be compared with it directly.
+     */
+    private List<Document> aboveThreshold(HnswVectorStore hotTier, List<Document> hits, SearchRequest request) {
+        double threshold = request.getSimilarityThreshold();
+        if (hits.isEmpty() || threshold <= SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL) {
+            return hits;
+        }
+        // Served from the query cache the vector search has just filled
+        float[] query = RagMath.normalize(embeddingModel.embed(request.getQuery()));
+        Map<String, float[]> stored = hotTier.embeddings(hits.stream().map(Document::getId).toList());
+        return hits.stream()
+                .filter(doc -> stored.containsKey(doc.getId()) && RagMath.dot(query, stored.get(doc.getId())) >= threshold)
+                .toList();
+    }
+
+    /**
+     * Reciprocal-rank fusion: each document scores the sum of {@code 1 / (k + rank)} over the
+     * rankings it appears in, and the best {@code topK} are returned with that score. The
+     * semantic copy of a document found by both is kept, as it carries the distance.
+     */
+    static List<Document> fuse(List<Document> semantic, List<Document> lexical, int topK, int k) {
+        if (lexical.isEmpty()) {
+            return semantic;
+        }
+        Map<String, Document> byId = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<Document> ranking : List.of(semantic, lexical)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document doc = ranking.get(rank);
+                byId.putIfAbsent(doc.getId(), doc);
+                scores.merge(doc.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+        return byId.values().stream()
+                .sorted((a, b) -> Double.compare(scores.get(b.getId()), scores.get(a.getId())))
+                .limit(topK)
+                .map(doc -> doc.mutate().score(scores.get(doc.getId())).build())
+                .toList();
+    }
+
+    /**
+     * Replaces hits by their parent paragraphs, one per paragraph, scored by the best hit and
+     * kept in score order. Hits without a stored parent are returned as they are.
+     */
+    List<Document> expandToParents(List<Document> hits) {
+        Map<String, List<Document>> byParent = new LinkedHashMap<>();
+        Set<String> parentKeys = new LinkedHashSet<>();
+        for (Document hit : hits) {
+            Map<String, Object> metadata = hit.getMetadata();
+            Object paragraph = metadata.getOrDefault("parent_paragraph", metadata.get("paragraph_index"));
+            String key;
+            if (paragraph == null) {
+                key = "doc:" + hit.getId();
+            } else {
+                key = ParentParagraphCache.key(metadata.get("filename"), paragraph);
+                parentKeys.add(key);
+            }
+            byParent.computeIfAbsent(key, k -> new ArrayList<>()).add(hit);
+        }
+        Map<String, Document> parents = parentCache.getAll(parentKeys);
+
+        List<Document> expanded = new ArrayList<>(byParent.size());
+        byParent.forEach((key, children) -> {
+            Document parent = parents.get(key);
+            if (parent == null) {
+                expanded.addAll(children);
+                return;
+            }
+            // Hits arrive best first, so the first child carries the group's score
+            Document best = children.get(0);
+            expanded.add(Document.builder()
+                    .id(parent.getId())
+                    .text(parent.getText())
+                    .metadata(new HashMap<>(parent.getMetadata()))
+                    .score(best.getScore())
+                    .build());
+        });
+        return expanded;
+    }
+
+    /**
+     * Search request preset with the configured defaults, for callers that need to override them.
+     */
+    public SearchRequest.Builder searchRequest(String question, Filter.Expression filter) {
+        SearchRequest.Builder builder = SearchRequest.builder()
+                .query(question)
+                .topK(topK)
+                .similarityThreshold(similarityThreshold);
+        if (filter != null) {
+            builder.filterExpression(filter);
+        }
+        return builder;
+    }
+
+    /**
+     * Prompt context for the retrieved chunks, de-duplicated and packed to the token budget.
+     */
+    public String buildContext(List<Document> documents) {
+        return contextAssembler.assemble(documents);
+    }
+
+    /**
+     * One entry per distinct (filename, slide) pair, in retrieval order.
+     */
+    public List<Map<String, String>> describeSources(List<Document> documents) {
+        Set<String> seen = new LinkedHashSet<>();
+        List<Map<String, String>> sources = new ArrayList<>();
+        for (Document doc : documents) {
+            String filename = doc.getMetadata().getOrDefault("filename", "Unknown").toString();
+            String slideNumber = extractSlideNumber(doc.getMetadata());
+            if (seen.add(filename + "#" + slideNumber)) {
+                Map<String, String> source = new LinkedHashMap<>();
+                source.put("filename", filename);
+                source.put("slide", slideNumber);
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    public static String extractSlideNumber(Map<String, Object> metadata) {
+        Object slideNum = metadata.get("slide_number");
+        if (slideNum != null && !"Unknown".equals(slideNum.toString())) {
+            return slideNum.toString();
+        }
+
+        // Fallback to other metadata keys
+        if (metadata.containsKey("slide")) {
+            return metadata.get("slide").toString();
+        }
+        if (metadata.containsKey("page")) {
+            return metadata.get("page").toString();
+        }
+
+        return "Unknown";
+    }
+}
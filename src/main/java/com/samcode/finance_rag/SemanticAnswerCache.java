@@ -0,0 +1,153 @@
+package com.samcode.finance_rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Answer cache keyed on question embeddings. A lookup returns the stored answer of the most
+ * similar earlier question for the same model when their cosine similarity clears the
+ * configured threshold. Entries expire after a TTL, are evicted LRU beyond the size cap and
+ * are dropped when a document they were answered from is re-ingested; adding a new document
+ * drops them all.
+ */
+@Component
+public class SemanticAnswerCache {
+    private static final Logger log = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private final double similarityThreshold;
+    private final long ttlMillis;
+    private final Map<Long, CachedAnswer> entries;
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SemanticAnswerCache(@Value("${finance-rag.answer-cache.similarity-threshold:0.95}") double similarityThreshold,
+                               @Value("${finance-rag.answer-cache.max-entries:500}") int maxEntries,
+                               @Value("${finance-rag.answer-cache.ttl-minutes:60}") long ttlMinutes) {
+        this.similarityThreshold = similarityThreshold;
+        this.ttlMillis = ttlMinutes * 60_000;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedAnswer> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public Optional<CachedAnswer> lookup(String model, float[] questionEmbedding) {
+        float[] normalized = RagMath.normalize(questionEmbedding);
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            Long bestId = null;
+            double bestSimilarity = similarityThreshold;
+
+            Iterator<Map.Entry<Long, CachedAnswer>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, CachedAnswer> entry = iterator.next();
+                CachedAnswer candidate = entry.getValue();
+                if (now - candidate.createdAt() > ttlMillis) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!candidate.model().equals(model)) {
+                    continue;
+                }
+                double similarity = RagMath.dot(normalized, candidate.embedding());
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    bestId = entry.getKey();
+                }
+            }
+
+            if (bestId == null) {
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            hits.incrementAndGet();
+            log.debug("Semantic cache hit for model {} (similarity {})", model, bestSimilarity);
+            // get() refreshes the entry's LRU position
+            return Optional.of(entries.get(bestId));
+        }
+    }
+
+    /**
+     * Stores an answer. Callers only get here once generation completed without error; a null
+     * or blank answer (e.g. a stream that ended without text) is not stored, so the question
+     * is generated afresh next time.
+     */
+    public void put(String model, float[] questionEmbedding, String answer, List<Document> sources) {
+        if (answer == null || answer.isBlank()) {
+            log.debug("Not caching a blank answer for model {}", model);
+            return;
+        }
+        Set<String> filenames = sources.stream()
+                .map(doc -> doc.getMetadata().get("filename"))
+                .filter(filename -> filename != null)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+        CachedAnswer cached = new CachedAnswer(model, RagMath.normalize(questionEmbedding), answer, sources, filenames,
+                System.currentTimeMillis());
+        synchronized (entries) {
+            entries.put(nextId.incrementAndGet(), cached);
+        }
+    }
+
+    /**
+     * Drops every answer that used a chunk of the given document as context.
+     */
+    public void invalidateDocument(String filename) {
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<CachedAnswer> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().sourceFilenames().contains(filename)) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.info("Invalidated {} cached answers sourced from '{}'", removed, filename);
+        }
+    }
+
+    /**
+     * Drops every answer, for when a document none of them could have used is added.
+     */
+    public void clear() {
+        int removed;
+        synchronized (entries) {
+            removed = entries.size();
+            entries.clear();
+        }
+        if (removed > 0) {
+            log.info("Cleared {} cached answers", removed);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public record CachedAnswer(String model, float[] embedding, String answer, List<Document> sources,
+                               Set<String> sourceFilenames, long createdAt) {
+    }
+}
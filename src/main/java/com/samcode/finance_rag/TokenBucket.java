@@ -0,0 +1,48 @@
+package com.samcode.finance_rag;
+
+/**
+ * Continuous-refill token bucket. Callers block in {@link #acquire(long)} until enough
+ * tokens are available, which keeps concurrent embedding batches under the provider's
+ * tokens-per-minute quota instead of hitting it and backing off on 429s.
+ */
+public class TokenBucket {
+
+    private final long capacity;
+    private final double refillPerNano;
+
+    private double available;
+    private long lastRefill;
+
+    public TokenBucket(long tokensPerMinute) {
+        this.capacity = tokensPerMinute;
+        this.refillPerNano = tokensPerMinute / 60_000_000_000.0;
+        this.available = tokensPerMinute;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Blocks until {@code tokens} are available and takes them. Requests larger than the
+     * bucket are clamped to its capacity so they can still proceed once it is full.
+     */
+    public void acquire(long tokens) throws InterruptedException {
+        long wanted = Math.min(tokens, capacity);
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (available >= wanted) {
+                    available -= wanted;
+                    return;
+                }
+                waitNanos = (long) ((wanted - available) / refillPerNano);
+            }
+            Thread.sleep(Math.max(1, waitNanos / 1_000_000));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,48 @@
+package com.samcode.finance_rag;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Secondary indexes on the {@code vector_store} table for metadata-filtered retrieval.
+ *
+ * PgVectorStore creates the HNSW index on {@code embedding} itself. Its filters run as
+ * {@code metadata::jsonb @@ jsonpath}, which the GIN index below serves, so a selective filter
+ * reads only the matching rows; the {@code filename} index covers per-document lookups during
+ * re-ingestion. With a quantized search mode the compact HNSW index of
+ * {@link QuantizedVectorSearch} is created as well.
+ */
+@Component
+public class VectorStoreIndexes {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final QuantizedVectorSearch quantizedSearch;
+    private final boolean initializeSchema;
+
+    // Depends on PgVectorStore so the table exists before the indexes are created
+    public VectorStoreIndexes(PgVectorStore pgVectorStore, JdbcTemplate jdbcTemplate, QuantizedVectorSearch quantizedSearch,
+                              @Value("${spring.ai.vectorstore.pgvector.initialize-schema:false}") boolean initializeSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.quantizedSearch = quantizedSearch;
+        this.initializeSchema = initializeSchema;
+    }
+
+    @PostConstruct
+    void initializeSchema() {
+        if (!initializeSchema) {
+            return;
+        }
+        jdbcTemplate.execute("""
+                CREATE INDEX IF NOT EXISTS vector_store_metadata_idx
+                ON vector_store USING gin ((metadata::jsonb) jsonb_path_ops)""");
+        jdbcTemplate.execute("""
+                CREATE INDEX IF NOT EXISTS vector_store_filename_idx
+                ON vector_store ((metadata->>'filename'))""");
+        if (quantizedSearch.isEnabled()) {
+            jdbcTemplate.execute(quantizedSearch.indexDdl());
+        }
+    }
+}
@@ -12,6 +12,8 @@ document.addEventListener('DOMContentLoaded', function() {
     const questionInput = document.getElementById('questionInput');
     const loadingModal = new bootstrap.Modal(document.getElementById('loadingModal'));
     const loadingText = document.getElementById('loadingText');
+    // Server-side conversation; follow-up questions are answered in its context
+    let chatSessionId = null;
 
     // Upload form handler
     uploadForm.addEventListener('submit', async function(e) {
@@ -46,10 +48,11 @@ document.addEventListener('DOMContentLoaded', function() {
 
             const result = await response.json();
 
-            if (result.status === 'success') {
-                showUploadStatus(result.message, 'success');
+            if (result.status === 'accepted') {
                 fileInput.value = ''; // Clear the input
-                addSystemMessage('Document uploaded successfully! You can now ask questions about it.');
+                loadingModal.hide();
+                showUploadStatus(result.message, 'info');
+                await pollIngestionJob(result.jobId);
             } else {
                 showUploadStatus(result.message, 'danger');
             }
@@ -62,6 +65,48 @@ document.addEventListener('DOMContentLoaded', function() {
         }
     });
 
+    // Polls the ingestion job until it completes or fails, showing per-stage progress
+    async function pollIngestionJob(jobId) {
+        while (true) {
+            await new Promise(resolve => setTimeout(resolve, 1000));
+
+            const response = await fetch(`/api/ingest/jobs/${jobId}`);
+            if (!response.ok) {
+                showUploadStatus('Lost track of the ingestion job.', 'danger');
+                return;
+            }
+
+            const job = await response.json();
+
+            if (job.status === 'COMPLETED') {
+                showUploadStatus(`Document processed: ${job.stored} chunks from ${job.paragraphs} paragraphs.`, 'success');
+                addSystemMessage('Document uploaded successfully! You can now ask questions about it.');
+                return;
+            }
+            if (job.status === 'FAILED') {
+                showUploadStatus('Error processing file: ' + (job.error || 'unknown error'), 'danger');
+                return;
+            }
+
+            showUploadStatus(describeJobProgress(job), 'info');
+        }
+    }
+
+    function describeJobProgress(job) {
+        switch (job.stage) {
+            case 'PARSE':
+                return 'Parsing document...';
+            case 'CHUNK':
+                return `Chunking ${job.paragraphs} paragraphs...`;
+            case 'EMBED':
+                return `Embedding chunks ${job.embedded}/${job.chunks}...`;
+            case 'STORE':
+                return `Storing chunks ${job.stored}/${job.chunks}...`;
+            default:
+                return 'Waiting for an ingestion worker...';
+        }
+    }
+
     // Chat form handler
     chatForm.addEventListener('submit', async function(e) {
         e.preventDefault();
@@ -75,37 +120,79 @@ document.addEventListener('DOMContentLoaded', function() {
         // Add user message to chat
         addMessage(question, 'user');
         questionInput.value = '';
-        
-        // Show loading
-        loadingText.textContent = 'Thinking...';
-        loadingModal.show();
         askBtn.disabled = true;
 
+        // Bot message is rendered immediately and filled in as tokens arrive
+        const botMessage = addStreamingMessage();
+
         try {
             const formData = new FormData();
             formData.append('question', question);
             formData.append('model', selectedModel);
+            formData.append('session', chatSessionId || 'new');
 
-            const response = await fetch('/api/chat', {
+            const response = await fetch('/api/chat/stream', {
                 method: 'POST',
                 body: formData
             });
 
-            const data = await response.json();
-            
-            if (data.status === 'success') {
-                addMessage(data.answer, 'bot', data.model);
-            } else {
-                addMessage('Sorry, I encountered an error processing your question.', 'bot', 'Error');
+            if (response.status === 429) {
+                const retryAfter = response.headers.get('Retry-After') || 'a few';
+                botMessage.fail(`The model is busy right now. Please try again in ${retryAfter} seconds.`);
+                return;
+            }
+            if (!response.ok || !response.body) {
+                throw new Error('Streaming request failed');
             }
+
+            await readEventStream(response.body, function(eventName, data) {
+                if (eventName === 'token') {
+                    botMessage.append(data.text);
+                } else if (eventName === 'done') {
+                    chatSessionId = data.session || chatSessionId;
+                    botMessage.finish(data.model, data.sources);
+                } else if (eventName === 'error') {
+                    botMessage.fail(data.message);
+                }
+            });
         } catch (error) {
-            addMessage('Sorry, I encountered an error. Please try again.', 'bot', 'Error');
+            botMessage.fail('Sorry, I encountered an error. Please try again.');
         } finally {
-            loadingModal.hide();
             askBtn.disabled = false;
         }
     });
 
+    // Parses a text/event-stream body and dispatches each event with its JSON payload
+    async function readEventStream(body, onEvent) {
+        const reader = body.getReader();
+        const decoder = new TextDecoder();
+        let buffer = '';
+
+        while (true) {
+            const { value, done } = await reader.read();
+            if (done) break;
+
+            buffer += decoder.decode(value, { stream: true });
+            const frames = buffer.split(/\r?\n\r?\n/);
+            buffer = frames.pop();
+
+            for (const frame of frames) {
+                let eventName = 'message';
+                const dataLines = [];
+                for (const line of frame.split(/\r?\n/)) {
+                    if (line.startsWith('event:')) {
+                        eventName = line.substring(6).trim();
+                    } else if (line.startsWith('data:')) {
+                        dataLines.push(line.substring(5));
+                    }
+                }
+                if (dataLines.length > 0) {
+                    onEvent(eventName, JSON.parse(dataLines.join('\n')));
+                }
+            }
+        }
+    }
+
     // Helper functions
     function showUploadStatus(message, type) {
         uploadMessage.textContent = message;
@@ -149,6 +236,55 @@ document.addEventListener('DOMContentLoaded', function() {
         chatMessages.scrollTop = chatMessages.scrollHeight;
     }
 
+    function addStreamingMessage() {
+        const welcomeMessage = chatMessages.querySelector('.welcome-message');
+        if (welcomeMessage) {
+            welcomeMessage.remove();
+        }
+
+        const messageDiv = document.createElement('div');
+        messageDiv.className = 'message bot';
+
+        const badge = document.createElement('div');
+        const contentDiv = document.createElement('div');
+        contentDiv.className = 'message-content';
+        contentDiv.innerHTML = '<span class="spinner-border spinner-border-sm text-secondary" role="status"></span> Thinking...';
+        const sourcesDiv = document.createElement('div');
+        sourcesDiv.className = 'message-sources';
+        const timeDiv = document.createElement('div');
+        timeDiv.className = 'message-time';
+
+        messageDiv.append(badge, contentDiv, sourcesDiv, timeDiv);
+        chatMessages.appendChild(messageDiv);
+        chatMessages.scrollTop = chatMessages.scrollHeight;
+
+        let text = '';
+
+        return {
+            append(token) {
+                text += token;
+                contentDiv.textContent = text;
+                contentDiv.innerHTML = contentDiv.innerHTML.replace(/\n/g, '<br>');
+                chatMessages.scrollTop = chatMessages.scrollHeight;
+            },
+            finish(modelUsed, sources) {
+                const badgeClass = modelUsed.includes('Gemini') ? 'bg-success' : 'bg-primary';
+                badge.innerHTML = `<span class="badge ${badgeClass} mb-2">${modelUsed}</span>`;
+                if (sources && sources.length > 0) {
+                    sourcesDiv.textContent = 'Sources: ' + sources
+                        .map(source => `${source.filename} (Slide ${source.slide})`)
+                        .join(', ');
+                }
+                timeDiv.textContent = new Date().toLocaleTimeString([], { hour: '2-digit', minute: '2-digit' });
+            },
+            fail(message) {
+                badge.innerHTML = '<span class="badge bg-danger mb-2">Error</span>';
+                contentDiv.textContent = text ? text : message;
+                timeDiv.textContent = new Date().toLocaleTimeString([], { hour: '2-digit', minute: '2-digit' });
+            }
+        };
+    }
+
     function addSystemMessage(content) {
         const messageDiv = document.createElement('div');
         messageDiv.className = 'message system text-center mb-3';
@@ -0,0 +1,212 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkIngestionServiceTests {
+
+    private final IngestionService ingestionService = mock(IngestionService.class);
+    private final EmbeddingStage embeddingStage = mock(EmbeddingStage.class);
+    private final List<List<Document>> storedBatches = new ArrayList<>();
+    private BulkIngestionService service;
+
+    @TempDir
+    Path root;
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void archiveDocumentsShareEmbeddingBatchesAndReportPerDocumentResults() throws Exception {
+        service = newService("");
+        givenDocument("q1.pdf", 3);
+        givenDocument("q2.pdf", 2);
+        when(ingestionService.diff(any(), eq("broken.pdf"), any(), any())).thenThrow(new IOException("Not a PDF"));
+        recordStoredBatches();
+
+        BulkIngestion bulk = service.submitArchive(zip("q1.pdf", "reports/q2.pdf", "broken.pdf", "notes.txt"));
+        Map<String, Object> status = awaitFinished(bulk);
+
+        assertThat(status).containsEntry("status", "COMPLETED")
+                .containsEntry("total", 3)
+                .containsEntry("succeeded", 2)
+                .containsEntry("failed", 1);
+        // Five chunks from two documents fit in one shared batch
+        assertThat(storedBatches).hasSize(1);
+        assertThat(storedBatches.get(0)).hasSize(5);
+        assertThat(job(bulk, "q1.pdf").toStatus()).containsEntry("stored", 3);
+        assertThat(job(bulk, "broken.pdf").toStatus()).containsEntry("error", "Not a PDF");
+        verify(ingestionService, times(2)).commit(any(), any());
+    }
+
+    @Test
+    void documentsInAFailedBatchAreNotCommitted() throws Exception {
+        service = newService("");
+        givenDocument("q1.pdf", 2);
+        givenDocument("q2.pdf", 2);
+        doAnswer(invocation -> {
+            List<Document> batch = invocation.getArgument(0);
+            List<Document> failed = batch.stream().filter(chunk -> "q2.pdf".equals(chunk.getMetadata().get("filename"))).toList();
+            throw new EmbeddingStage.EmbeddingFailedException("1 of 1 embedding batches failed: 429", null, failed);
+        }).when(embeddingStage).embedAndStore(anyList(), any());
+
+        BulkIngestion bulk = service.submitArchive(zip("q1.pdf", "q2.pdf"));
+        awaitFinished(bulk);
+
+        assertThat(job(bulk, "q1.pdf").getStatus()).isEqualTo(IngestionJob.Status.COMPLETED);
+        assertThat(job(bulk, "q2.pdf").getStatus()).isEqualTo(IngestionJob.Status.FAILED);
+        verify(ingestionService).commit(any(), eq(job(bulk, "q1.pdf")));
+        verify(ingestionService, never()).commit(any(), eq(job(bulk, "q2.pdf")));
+    }
+
+    @Test
+    void directoriesOutsideTheAllowedRootAreRejected() throws Exception {
+        Path allowed = Files.createDirectories(root.resolve("allowed"));
+        Path elsewhere = Files.createDirectories(root.resolve("elsewhere"));
+        service = newService(allowed.toString());
+
+        assertThatThrownBy(() -> service.submitDirectory(elsewhere.toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.submitDirectory(allowed.resolve("..").resolve("elsewhere").toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void directoryIngestionIsDisabledWithoutAnAllowedRoot() {
+        service = newService("");
+
+        assertThatThrownBy(() -> service.submitDirectory(root.toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void archiveEntriesAreIngestedUnderTheirFileNameOnce() throws Exception {
+        service = newService("");
+        Path archive = zipOfZeros(root.resolve("decks.zip"), 16, "reports/q3.pdf", "q1.pdf", "old/q3.pdf", "misc\\q2.pdf");
+
+        Map<String, Path> pdfs = service.extractArchive(archive, Files.createDirectories(root.resolve("work")));
+
+        // The same names an upload of these files gets; the later q3.pdf would replace the first
+        assertThat(pdfs).containsOnlyKeys("q3.pdf", "q1.pdf", "q2.pdf");
+    }
+
+    @Test
+    void archivesExtractingPastTheSizeCapsAreRejected() throws Exception {
+        service = newService("", 1, 2);
+        Path workDir = Files.createDirectories(root.resolve("work"));
+
+        // About 1.5 MB of zeros compresses to a few KB but exceeds the 1 MB entry cap
+        Path bomb = zipOfZeros(root.resolve("bomb.zip"), 1536 * 1024, "deck.pdf");
+        assertThatThrownBy(() -> service.extractArchive(bomb, workDir))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("'deck.pdf'")
+                .hasMessageContaining("1 MB");
+
+        // Each entry is under the entry cap, together they pass the 2 MB archive cap
+        Path many = zipOfZeros(root.resolve("many.zip"), 900 * 1024, "q1.pdf", "q2.pdf", "q3.pdf");
+        assertThatThrownBy(() -> service.extractArchive(many, workDir))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("more than 2 MB");
+
+        Path fits = zipOfZeros(root.resolve("fits.zip"), 900 * 1024, "q1.pdf", "q2.pdf");
+        assertThat(service.extractArchive(fits, Files.createDirectories(root.resolve("fits")))).hasSize(2)
+                .allSatisfy((name, pdf) -> assertThat(pdf).hasSize(900 * 1024));
+    }
+
+    private BulkIngestionService newService(String allowedRoot) {
+        return newService(allowedRoot, 500, 4096);
+    }
+
+    private BulkIngestionService newService(String allowedRoot, long maxEntryMb, long maxExtractedMb) {
+        try {
+            when(ingestionService.lock(anyString())).thenReturn(() -> { });
+            return new BulkIngestionService(ingestionService, embeddingStage, 2, 16, 100, maxEntryMb, maxExtractedMb,
+                    4, allowedRoot, 100);
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void givenDocument(String filename, int chunks) throws Exception {
+        List<Document> documentChunks = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            documentChunks.add(new Document("Chunk " + i + " of " + filename, Map.of("filename", filename)));
+        }
+        when(ingestionService.diff(any(), eq(filename), any(), any())).thenAnswer(invocation -> {
+            IngestionService.ChunkSink sink = invocation.getArgument(3);
+            sink.accept(documentChunks);
+            return Optional.of(new IngestionService.DocumentDiff(filename, "hash", true, 1, 0, chunks, 0, List.of()));
+        });
+    }
+
+    private void recordStoredBatches() throws InterruptedException {
+        doAnswer(invocation -> storedBatches.add(List.copyOf(invocation.getArgument(0))))
+                .when(embeddingStage).embedAndStore(anyList(), any());
+    }
+
+    private static MockMultipartFile zip(String... names) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (String name : names) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(("%PDF " + name).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return new MockMultipartFile("file", "archive.zip", "application/zip", bytes.toByteArray());
+    }
+
+    private static Path zipOfZeros(Path file, int entryBytes, String... names) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            for (String name : names) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(new byte[entryBytes]);
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static IngestionJob job(BulkIngestion bulk, String filename) {
+        return bulk.getDocuments().stream().filter(job -> job.getFilename().equals(filename)).findFirst().orElseThrow();
+    }
+
+    private static Map<String, Object> awaitFinished(BulkIngestion bulk) throws InterruptedException {
+        for (int i = 0; i < 500 && !bulk.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(bulk.isFinished()).isTrue();
+        return bulk.toStatus();
+    }
+}
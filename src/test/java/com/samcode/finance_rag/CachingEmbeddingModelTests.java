@@ -0,0 +1,137 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingEmbeddingModelTests {
+
+    private final CountingEmbeddingModel delegate = new CountingEmbeddingModel();
+    private final InMemoryEmbeddingCache repository = new InMemoryEmbeddingCache();
+
+    @Test
+    void identicalTextsInABatchAreEmbeddedOnce() {
+        CachingEmbeddingModel model = model("text-embedding-3-small");
+
+        List<float[]> embeddings = model.embed(List.of("Equities returned 4.1%.", "Spreads tightened.", "Equities returned 4.1%."));
+
+        assertThat(delegate.calls).containsExactly(List.of("Equities returned 4.1%.", "Spreads tightened."));
+        assertThat(embeddings).hasSize(3);
+        assertThat(embeddings.get(2)).isEqualTo(embeddings.get(0));
+        assertThat(repository.rows).hasSize(2);
+        assertThat(model.getMisses()).isEqualTo(2);
+        assertThat(model.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void lookupsFallThroughMemoryThenTheRepositoryThenTheProvider() {
+        CachingEmbeddingModel model = model("text-embedding-3-small");
+        model.embed(List.of("Equities returned 4.1%."));
+
+        // Served from the in-memory LRU without asking the repository
+        model.embed(List.of("Equities returned 4.1%."));
+        assertThat(repository.lookups).hasSize(1);
+
+        // A fresh instance (e.g. after a restart) finds it in the repository
+        CachingEmbeddingModel restarted = model("text-embedding-3-small");
+        float[] persisted = restarted.embed(List.of("Equities returned 4.1%.")).get(0);
+        assertThat(repository.lookups).hasSize(2);
+        assertThat(persisted).isEqualTo(CountingEmbeddingModel.vector("Equities returned 4.1%."));
+
+        // Only the new text reaches the provider
+        restarted.embed(List.of("Equities returned 4.1%.", "Spreads tightened."));
+        assertThat(delegate.calls).containsExactly(List.of("Equities returned 4.1%."), List.of("Spreads tightened."));
+    }
+
+    @Test
+    void embeddingsAreNotSharedAcrossModels() {
+        model("text-embedding-3-small").embed(List.of("Equities returned 4.1%."));
+
+        model("text-embedding-3-large").embed(List.of("Equities returned 4.1%."));
+
+        assertThat(delegate.calls).hasSize(2);
+        assertThat(repository.rows).hasSize(2);
+    }
+
+    @Test
+    void singleTextsAreQuestionsAndGoToTheQueryCache() {
+        CachingEmbeddingModel model = model("text-embedding-3-small");
+
+        model.embed("How did equities do?");
+        model.embed("How did equities do?");
+
+        assertThat(delegate.calls).containsExactly(List.of("How did equities do?"));
+        assertThat(repository.lookups).isEmpty();
+        assertThat(repository.rows).isEmpty();
+    }
+
+    private CachingEmbeddingModel model(String namespace) {
+        return new CachingEmbeddingModel(delegate, repository, new QueryEmbeddingCache(100), 100, namespace);
+    }
+
+    /**
+     * Records every provider request and embeds a text as its length and first character.
+     */
+    private static class CountingEmbeddingModel implements EmbeddingModel {
+        final List<List<String>> calls = new ArrayList<>();
+
+        static float[] vector(String text) {
+            return new float[] { text.length(), text.charAt(0) };
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            calls.add(List.copyOf(request.getInstructions()));
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+
+    /**
+     * Keeps the {@code embedding_cache} rows in a map and records each lookup.
+     */
+    private static class InMemoryEmbeddingCache extends EmbeddingCacheRepository {
+        final Map<String, float[]> rows = new HashMap<>();
+        final List<List<String>> lookups = new ArrayList<>();
+
+        InMemoryEmbeddingCache() {
+            super(null, false);
+        }
+
+        @Override
+        public Map<String, float[]> findAll(Collection<String> contentHashes) {
+            lookups.add(List.copyOf(contentHashes));
+            Map<String, float[]> found = new HashMap<>();
+            contentHashes.forEach(hash -> {
+                if (rows.containsKey(hash)) {
+                    found.put(hash, rows.get(hash));
+                }
+            });
+            return found;
+        }
+
+        @Override
+        public void saveAll(Map<String, float[]> embeddings) {
+            embeddings.forEach(rows::putIfAbsent);
+        }
+    }
+}
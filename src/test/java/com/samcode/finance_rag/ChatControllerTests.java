@@ -0,0 +1,179 @@
+package com.samcode.finance_rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class ChatControllerTests {
+
+    private final RetrievalService retrievalService = mock(RetrievalService.class);
+    private final GeminiService geminiService = mock(GeminiService.class);
+    private final SemanticAnswerCache answerCache = new SemanticAnswerCache(0.95, 10, 60);
+    private final RagMetrics metrics = new RagMetrics(new SimpleMeterRegistry());
+    private final ProviderBulkheads bulkheads = new ProviderBulkheads(4, 4, 1, 4, 100);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ChatController controller;
+
+    @BeforeEach
+    void setUp() {
+        ChatClient.Builder builder = mock(ChatClient.Builder.class);
+        when(builder.defaultSystem(anyString())).thenReturn(builder);
+        when(builder.build()).thenReturn(mock(ChatClient.class));
+        ChatSessions chatSessions = new ChatSessions(retrievalService, 800, 300, 24, 0.8, 3, 30, 64);
+        controller = new ChatController(builder, retrievalService, geminiService, mock(IngestionJobService.class),
+                mock(BulkIngestionService.class), answerCache, bulkheads,
+                new ModelRace(bulkheads, metrics, "openai", 0.9, 20, 100), chatSessions, metrics, 200, 8);
+
+        when(retrievalService.embedQuestion(anyString())).thenReturn(new float[]{1, 0, 0});
+        when(retrievalService.search(anyString(), any(RetrievalFilter.class))).thenReturn(List.of(
+                Document.builder().id("equities").text("Equities returned 4.1%.").metadata(Map.of("filename", "q3.pdf")).build()));
+        when(retrievalService.chunkEmbeddings(anyList())).thenReturn(List.of(new float[]{1, 0, 0}));
+        when(retrievalService.buildContext(anyList())).thenReturn("Equities returned 4.1%.");
+    }
+
+    @Test
+    void firstSessionTurnsShareTheAnswerCacheButFollowUpsDoNot() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<String>>getArgument(2).accept("They returned 4.1%.");
+            return null;
+        }).when(geminiService).streamPrompt(anyString(), any(ChatTimings.class), any());
+
+        Map<String, Object> first = chat("How did equities do?", "new").getBody();
+        assertThat(first).containsEntry("answer", "They returned 4.1%.");
+
+        // A new session asking the same question is answered from the cache
+        Map<String, Object> other = chat("How did equities do?", "new").getBody();
+        assertThat(other).containsEntry("answer", "They returned 4.1%.");
+        assertThat(other.get("session")).isNotEqualTo(first.get("session"));
+        verify(geminiService, times(1)).streamPrompt(anyString(), any(ChatTimings.class), any());
+
+        // The follow-up carries history, so it is generated even though it matches the cache
+        chat("How did equities do?", (String) first.get("session"));
+        verify(geminiService, times(2)).streamPrompt(anyString(), any(ChatTimings.class), any());
+    }
+
+    @Test
+    void firstSessionTurnReusesAStatelessAnswer() {
+        answerCache.put(GeminiService.CACHE_MODEL_KEY + RetrievalFilter.NONE.cacheKey(), new float[]{1, 0, 0},
+                "Cached: 4.1%.", List.of());
+
+        Map<String, Object> response = chat("How did equities do?", "new").getBody();
+
+        assertThat(response).containsEntry("answer", "Cached: 4.1%.").containsKey("session");
+        verify(geminiService, never()).streamPrompt(anyString(), any(ChatTimings.class), any());
+    }
+
+    @Test
+    void cacheHitsAreAnsweredWhileTheProviderIsAtCapacity() {
+        answerCache.put(GeminiService.CACHE_MODEL_KEY + RetrievalFilter.NONE.cacheKey(), new float[]{1, 0, 0},
+                "Cached: 4.1%.", List.of());
+        ProviderBulkhead bulkhead = bulkheads.forModel("gemini");
+        List<ProviderBulkhead.Permit> held = new ArrayList<>();
+        for (ProviderBulkhead.Permit permit = bulkhead.tryAcquire(); permit != null; permit = bulkhead.tryAcquire()) {
+            held.add(permit);
+        }
+        int inFlight = bulkhead.getInFlight();
+
+        ResponseEntity<Map<String, Object>> hit = chat("How did equities do?", null);
+        assertThat(hit.getStatusCode().value()).isEqualTo(200);
+        assertThat(hit.getBody()).containsEntry("answer", "Cached: 4.1%.");
+        assertThat(bulkhead.getInFlight()).isEqualTo(inFlight);
+
+        when(retrievalService.embedQuestion("What about oil?")).thenReturn(new float[]{0, 1, 0});
+        assertThat(chat("What about oil?", null).getStatusCode().value()).isEqualTo(429);
+        verify(geminiService, never()).chat(anyString(), any(float[].class), any(RetrievalFilter.class), any(ChatTimings.class));
+        held.forEach(permit -> permit.release(null));
+    }
+
+    @Test
+    void streamThatEndsWithoutTextIsNotCached() {
+        // The first stream ends without producing a token, the second one answers
+        doAnswer(invocation -> null)
+                .doAnswer(invocation -> {
+                    invocation.<Consumer<String>>getArgument(2).accept("They returned 4.1%.");
+                    return null;
+                }).when(geminiService).streamPrompt(anyString(), any(ChatTimings.class), any());
+
+        assertThat(chat("How did equities do?", "new").getBody()).containsEntry("answer", "");
+        assertThat(chat("How did equities do?", "new").getBody()).containsEntry("answer", "They returned 4.1%.");
+        verify(geminiService, times(2)).streamPrompt(anyString(), any(ChatTimings.class), any());
+    }
+
+    @Test
+    void batchWritesOneLinePerQuestionThenASummary() throws Exception {
+        when(geminiService.chat(anyString(), any(float[].class), any(RetrievalFilter.class), any(ChatTimings.class)))
+                .thenAnswer(invocation -> {
+                    String question = invocation.getArgument(0);
+                    if (question.contains("oil")) {
+                        throw new IllegalStateException("Gemini request failed");
+                    }
+                    return "Answer to: " + question;
+                });
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        MvcResult result = mockMvc.perform(post("/api/chat/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"questions": ["How did equities do?", "What about oil?", "And bonds?"], "model": "gemini"}"""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(5000);
+
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (String json : result.getResponse().getContentAsString().split("\n")) {
+            lines.add(objectMapper.readValue(json, new TypeReference<>() {
+            }));
+        }
+        assertThat(lines).hasSize(4);
+        assertThat(lines.subList(0, 3)).extracting(line -> line.get("index")).containsExactlyInAnyOrder(0, 1, 2);
+        assertThat(lines.subList(0, 3)).allSatisfy(line ->
+                assertThat(line).containsKeys("index", "question", "status", "answer"));
+        assertThat(lines).filteredOn(line -> Integer.valueOf(2).equals(line.get("index"))).singleElement()
+                .satisfies(line -> assertThat(line)
+                        .containsEntry("question", "And bonds?")
+                        .containsEntry("status", "success")
+                        .containsEntry("answer", "Answer to: And bonds?")
+                        .containsEntry("model", "Google Gemini 1.5 Flash"));
+        assertThat(lines).filteredOn(line -> Integer.valueOf(1).equals(line.get("index"))).singleElement()
+                .satisfies(line -> assertThat(line)
+                        .containsEntry("status", "error")
+                        .doesNotContainKey("model")
+                        .hasEntrySatisfying("answer", answer -> assertThat((String) answer).startsWith("I apologize")));
+        assertThat(lines.get(3)).containsEntry("done", true)
+                .containsEntry("questions", 3)
+                .containsEntry("answered", 2)
+                .containsEntry("failed", 1)
+                .containsKey("elapsedMs");
+    }
+
+    private ResponseEntity<Map<String, Object>> chat(String question, String session) {
+        return controller.chat(question, "gemini", false, null, null, null, null, false, session);
+    }
+}
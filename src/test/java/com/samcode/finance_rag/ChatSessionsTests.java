@@ -0,0 +1,94 @@
+package com.samcode.finance_rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatSessionsTests {
+
+    private final RetrievalService retrievalService = mock(RetrievalService.class);
+    private final RagMetrics metrics = new RagMetrics(new SimpleMeterRegistry());
+
+    @Test
+    void olderTurnsAreCompactedIntoABoundedSummary() {
+        ChatSession session = sessions(100, 64).resolve("new");
+        String longAnswer = "Equities returned 4.1% in Q3. " + "Growth stocks led the rally. ".repeat(10);
+        for (int turn = 1; turn <= 20; turn++) {
+            session.addTurn("Question " + turn + " about equities?", longAnswer);
+        }
+
+        String history = session.history();
+        assertThat(history.length() / 4).isLessThanOrEqualTo(100 + 60 + 20);
+        assertThat(history).contains("Summary of earlier turns:", "Q: Question 19 about equities? A: Equities returned 4.1% in Q3.")
+                .contains("User: Question 20 about equities?")
+                .doesNotContain("Question 1 about");
+        assertThat(session.getTurnCount()).isEqualTo(20);
+    }
+
+    @Test
+    void followUpsReuseSessionChunksUnderTheSameFilterInsteadOfSearching() {
+        ChatSessions sessions = sessions(800, 64);
+        ChatSession session = sessions.resolve("new");
+        when(retrievalService.getTopK()).thenReturn(2);
+        when(retrievalService.search(anyString(), any(RetrievalFilter.class))).thenReturn(List.of(
+                chunk("equities", "Equities returned 4.1%."),
+                chunk("bonds", "Spreads tightened by 12 bps."),
+                chunk("rates", "The Fed held rates.")));
+        when(retrievalService.chunkEmbeddings(anyList())).thenReturn(List.of(
+                new float[]{1, 0, 0}, new float[]{0.9f, 0.1f, 0}, new float[]{0.8f, 0.2f, 0}));
+
+        sessions.retrieve(session, "How did equities do?", new float[]{1, 0, 0}, RetrievalFilter.NONE, timings());
+        session.addTurn("How did equities do?", "They returned 4.1%.");
+
+        List<Document> reused = sessions.retrieve(session, "And bonds?", new float[]{0.9f, 0.1f, 0}, RetrievalFilter.NONE, timings());
+        assertThat(reused).extracting(Document::getId).containsExactly("bonds", "equities");
+        verify(retrievalService, times(1)).search(anyString(), any(RetrievalFilter.class));
+
+        // Different filter, different chunks: back to the vector store
+        RetrievalFilter q3Only = new RetrievalFilter(List.of("q3.pdf"), null, null, null, false);
+        sessions.retrieve(session, "And bonds?", new float[]{0.9f, 0.1f, 0}, q3Only, timings());
+        // An unrelated question does not match enough cached chunks either
+        sessions.retrieve(session, "What about oil?", new float[]{0, 0, 1}, RetrievalFilter.NONE, timings());
+        verify(retrievalService, times(3)).search(anyString(), any(RetrievalFilter.class));
+    }
+
+    @Test
+    void leastRecentlyUsedSessionsAreEvictedOverTheMemoryCap() {
+        ChatSessions sessions = new ChatSessions(retrievalService, 100_000, 1000, 24, 0.8, 3, 30, 1);
+        ChatSession first = sessions.resolve("new");
+        ChatSession second = sessions.resolve("new");
+        String answer = "x".repeat(300_000);
+
+        sessions.addTurn(first, "q", answer);
+        sessions.addTurn(second, "q", answer);
+
+        assertThat(sessions.size()).isEqualTo(1);
+        assertThat(sessions.resolve(second.getId())).isSameAs(second);
+        assertThat(sessions.resolve(first.getId()).getId()).isNotEqualTo(first.getId());
+        assertThat(sessions.remove(second.getId())).isTrue();
+    }
+
+    private ChatSessions sessions(int historyTokens, int summaryTokens) {
+        return new ChatSessions(retrievalService, historyTokens, summaryTokens, 24, 0.8, 2, 30, 64);
+    }
+
+    private ChatTimings timings() {
+        return metrics.startChat("openai");
+    }
+
+    private static Document chunk(String id, String text) {
+        return Document.builder().id(id).text(text).metadata(Map.of("filename", "q3.pdf")).build();
+    }
+}
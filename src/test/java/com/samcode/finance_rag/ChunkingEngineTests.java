@@ -0,0 +1,152 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkingEngineTests {
+
+    private final ChunkingEngine engine = new ChunkingEngine();
+
+    @Test
+    void matchesRegexChunkingOnBundledDocument() throws IOException {
+        Path pdf = new ClassPathResource("docs/article_thebeatoct2024.pdf").getFile().toPath();
+        int paragraphs = 0;
+        try (PdfParagraphReader reader = new PdfParagraphReader(pdf, "article_thebeatoct2024.pdf", 16 * 1024 * 1024)) {
+            while (reader.hasNext()) {
+                Document paragraph = reader.next();
+                assertSameChunks(paragraph, paragraphs++);
+            }
+        }
+        assertThat(paragraphs).isGreaterThan(0);
+    }
+
+    @Test
+    void matchesRegexChunkingOnTablesAndListsAcrossLines() {
+        assertSameChunks(new Document("""
+                Revenue growth   12.5%   $1,200
+                Operating margin 3.2% and 4.1% year over year.
+                Net interest income
+                  1,250   980   across the last two quarters
+                • Core deposits rose 4% since the prior quarter.
+                -
+                  Loan growth remained muted at 25 bps.
+                12. Fed funds rate is expected at 5.25% by December. Spreads widened.
+                * not an item continuing here on the next line
+                """), 0);
+    }
+
+    @Test
+    void matchesRegexChunkingOnRandomText() {
+        String[] alphabet = {" ", "  ", "\n", "\r\n", "\t", " ", ".", "!", "?", "%", "$", ",", "-", "*", "•",
+                "1", "25", "3.5", "bps", "basis points", "A", "The", "x", "word", "Slide 4", "12.", "\n\n"};
+        Random random = new Random(42);
+        for (int run = 0; run < 2000; run++) {
+            StringBuilder text = new StringBuilder();
+            int tokens = 1 + random.nextInt(120);
+            for (int t = 0; t < tokens; t++) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            assertSameChunks(new Document(text.toString()), run);
+        }
+    }
+
+    private void assertSameChunks(Document paragraph, int paragraphIndex) {
+        List<Document> expected = RegexChunker.chunk(paragraph, paragraphIndex, "report.pdf");
+        List<Document> actual = engine.chunk(paragraph, paragraphIndex, "report.pdf");
+        assertThat(actual).extracting(Document::getText)
+                .as("chunks of %s", paragraph.getText())
+                .containsExactlyElementsOf(expected.stream().map(Document::getText).toList());
+        assertThat(actual).extracting(Document::getMetadata)
+                .containsExactlyElementsOf(expected.stream().map(Document::getMetadata).toList());
+    }
+
+    /**
+     * The five-pass regex chunker the engine replaced, kept as the reference implementation.
+     */
+    private static final class RegexChunker {
+        private static final Pattern SENTENCE_PATTERN = Pattern.compile("(?<=[.!?])\\s+(?=[A-Z])");
+        private static final Pattern TABLE_PATTERN = Pattern.compile("(?m)^.+\\s+[\\d%$,.-]+\\s+[\\d%$,.-]+.*$");
+        private static final Pattern LIST_PATTERN = Pattern.compile("(?m)^\\s*[•\\-\\*]\\s+.+$|^\\s*\\d+\\.\\s+.+$");
+        private static final Pattern NUMBER_DATA_PATTERN = Pattern.compile("\\b\\d+\\.?\\d*%?\\b|\\$[\\d,]+(?:\\.\\d{2})?\\b|\\b[\\d,]+\\s*(?:bps|basis\\s+points?)\\b", Pattern.CASE_INSENSITIVE);
+
+        static List<Document> chunk(Document paragraph, int i, String filename) {
+            String content = paragraph.getText();
+            Map<String, Object> original = paragraph.getMetadata();
+            String slide = ChunkingEngine.extractSlideNumber(content, original);
+            List<Document> chunks = new ArrayList<>();
+            chunks.add(enhanced(content, original, filename, slide, "paragraph", i, -1, "primary"));
+
+            int tableIndex = 0;
+            Matcher table = TABLE_PATTERN.matcher(content);
+            while (table.find()) {
+                String row = table.group().trim();
+                if (row.length() > 20) {
+                    chunks.add(enhanced(row, original, filename, slide, "table_row", i, tableIndex++, "secondary"));
+                }
+            }
+
+            int listIndex = 0;
+            Matcher list = LIST_PATTERN.matcher(content);
+            while (list.find()) {
+                String item = list.group().trim();
+                if (item.length() > 10) {
+                    chunks.add(enhanced(item, original, filename, slide, "list_item", i, listIndex++, "secondary"));
+                }
+            }
+
+            String[] sentences = SENTENCE_PATTERN.split(content);
+            if (content.length() > 300) {
+                for (int s = 0; s < sentences.length; s++) {
+                    String sentence = sentences[s].trim();
+                    if (sentence.length() > 50) {
+                        chunks.add(enhanced(sentence, original, filename, slide, "sentence", i, s, "tertiary"));
+                    }
+                }
+            }
+
+            int numberIndex = 0;
+            for (String raw : sentences) {
+                String sentence = raw.trim();
+                if (NUMBER_DATA_PATTERN.matcher(sentence).find() && sentence.length() > 30) {
+                    Map<String, Object> metadata = new HashMap<>(enhanced(sentence, original, filename, slide,
+                            "numerical_data", i, numberIndex++, "analytical").getMetadata());
+                    metadata.put("contains_financial_data", true);
+                    chunks.add(new Document(sentence, metadata));
+                }
+            }
+            return chunks;
+        }
+
+        private static Document enhanced(String content, Map<String, Object> original, String filename, String slide,
+                                         String chunkType, int paragraphIndex, int subIndex, String hierarchyLevel) {
+            Map<String, Object> metadata = new HashMap<>(original);
+            metadata.put("filename", filename);
+            metadata.put("slide_number", slide);
+            metadata.put("chunk_type", chunkType);
+            metadata.put("paragraph_index", paragraphIndex);
+            metadata.put("hierarchy_level", hierarchyLevel);
+            metadata.put("content_length", content.length());
+            if (subIndex >= 0) {
+                metadata.put("sub_index", subIndex);
+                metadata.put("parent_paragraph", paragraphIndex);
+            }
+            metadata.put("contains_numbers", NUMBER_DATA_PATTERN.matcher(content).find());
+            metadata.put("contains_percentages", content.contains("%"));
+            metadata.put("contains_currency", content.contains("$"));
+            return new Document(content, metadata);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextAssemblerTests {
+
+    private static final String PARAGRAPH = "Equities rallied in Q3. The S&P 500 gained 5.5% while yields fell 20 bps.";
+
+    @Test
+    void retrievedParagraphAbsorbsItsChildren() {
+        String context = new ContextAssembler(1000).assemble(List.of(
+                chunk(PARAGRAPH, "paragraph", "3", 0, -1, 0.8),
+                chunk("The S&P 500 gained 5.5% while yields fell 20 bps.", "numerical_data", "3", 0, 0, 0.9),
+                chunk("The S&P 500 gained 5.5% while yields fell 20 bps.", "sentence", "3", 0, 1, 0.85)));
+
+        assertThat(context.split("--- Document Section ---", -1)).hasSize(2);
+        assertThat(context).contains("Type: paragraph").contains("Content: " + PARAGRAPH);
+    }
+
+    @Test
+    void siblingsWithoutParentAreDeduplicated() {
+        String context = new ContextAssembler(1000).assemble(List.of(
+                chunk("Yields fell 20 bps.", "numerical_data", "4", 1, 0, 0.9),
+                chunk("Yields fell 20 bps.", "sentence", "4", 1, 1, 0.8)));
+
+        assertThat(context).containsOnlyOnce("Yields fell 20 bps.");
+        assertThat(context).contains("Type: numerical_data, sentence");
+    }
+
+    @Test
+    void fillsBudgetByScoreAndOrdersBySlide() {
+        String slideNine = "x".repeat(200);
+        String slideTwo = "y".repeat(200);
+        String lowScore = "z".repeat(200);
+
+        String context = new ContextAssembler(110).assemble(List.of(
+                chunk(slideNine, "paragraph", "9", 5, -1, 0.9),
+                chunk(lowScore, "paragraph", "1", 7, -1, 0.1),
+                chunk(slideTwo, "paragraph", "2", 6, -1, 0.8)));
+
+        assertThat(context).doesNotContain(lowScore);
+        assertThat(context.indexOf(slideTwo)).isLessThan(context.indexOf(slideNine));
+    }
+
+    private static Document chunk(String text, String chunkType, String slide, int paragraphIndex,
+                                  int subIndex, double score) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("filename", "deck.pdf");
+        metadata.put("slide_number", slide);
+        metadata.put("chunk_type", chunkType);
+        metadata.put("paragraph_index", paragraphIndex);
+        if (subIndex >= 0) {
+            metadata.put("sub_index", subIndex);
+            metadata.put("parent_paragraph", paragraphIndex);
+        }
+        return Document.builder().text(text).metadata(metadata).score(score).build();
+    }
+}
@@ -0,0 +1,100 @@
+package com.samcode.finance_rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EmbeddingStageTests {
+
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    private final VectorStore vectorStore = mock(VectorStore.class);
+    private final List<String> embeddedTexts = new ArrayList<>();
+    private final List<Document> stored = new ArrayList<>();
+    private EmbeddingStage stage;
+
+    @AfterEach
+    void tearDown() {
+        stage.shutdown();
+    }
+
+    @Test
+    void failedBatchesAreRetriedOnTheirOwn() throws Exception {
+        stage = stage(1_000_000, 2);
+        // The batch holding "chunk-2" fails once; the batch holding "chunk-4" never succeeds
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            synchronized (embeddedTexts) {
+                boolean firstTry = !embeddedTexts.contains(texts.get(0));
+                embeddedTexts.addAll(texts);
+                if (texts.contains("chunk-4") || (texts.contains("chunk-2") && firstTry)) {
+                    throw new IllegalStateException("HTTP 429 - rate limited");
+                }
+            }
+            return List.of();
+        });
+        recordStored();
+
+        List<Document> chunks = chunks(6, "chunk-");
+        assertThatThrownBy(() -> stage.embedAndStore(chunks, new IngestionJob("q3.pdf")))
+                .isInstanceOfSatisfying(EmbeddingStage.EmbeddingFailedException.class, e ->
+                        assertThat(e.getFailedChunks()).extracting(Document::getText).containsExactly("chunk-4", "chunk-5"))
+                .hasMessageStartingWith("1 of 3 embedding batches failed");
+
+        assertThat(stored).extracting(Document::getText)
+                .containsExactlyInAnyOrder("chunk-0", "chunk-1", "chunk-2", "chunk-3");
+        assertThat(embeddedTexts.stream().filter("chunk-0"::equals)).hasSize(1);
+        assertThat(embeddedTexts.stream().filter("chunk-2"::equals)).hasSize(2);
+        // One attempt plus two retries
+        assertThat(embeddedTexts.stream().filter("chunk-4"::equals)).hasSize(3);
+    }
+
+    @Test
+    void everyEmbedAttemptIsChargedToTheTokenBucket() throws Exception {
+        // 60,000 tokens per minute is 1,000 per second. Two attempts at 30,150 tokens overdraw
+        // the full bucket by 300, so the retry has to wait about 300 ms for the refill.
+        stage = stage(60_000, 2);
+        List<Document> chunk = List.of(new Document("x".repeat(30_150 * 4)));
+        when(embeddingModel.embed(anyList()))
+                .thenThrow(new IllegalStateException("HTTP 503"))
+                .thenReturn(List.of());
+        recordStored();
+
+        long started = System.nanoTime();
+        stage.embedAndStore(chunk, new IngestionJob("q3.pdf"));
+
+        assertThat((System.nanoTime() - started) / 1_000_000).isGreaterThanOrEqualTo(250);
+        assertThat(stored).hasSize(1);
+    }
+
+    private EmbeddingStage stage(long tokensPerMinute, int maxRetries) {
+        return new EmbeddingStage(embeddingModel, vectorStore, new RagMetrics(new SimpleMeterRegistry()),
+                2, 2, tokensPerMinute, maxRetries, 1);
+    }
+
+    private void recordStored() {
+        doAnswer(invocation -> {
+            synchronized (stored) {
+                stored.addAll(invocation.getArgument(0));
+            }
+            return null;
+        }).when(vectorStore).accept(anyList());
+    }
+
+    private static List<Document> chunks(int count, String prefix) {
+        return IntStream.range(0, count).mapToObj(i -> new Document(prefix + i)).toList();
+    }
+}
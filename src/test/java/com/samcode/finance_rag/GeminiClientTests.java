@@ -0,0 +1,143 @@
+package com.samcode.finance_rag;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeminiClientTests {
+
+    private static final String OK_BODY = "{\"candidates\":[]}";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void retriesServerErrorsThenSucceeds() {
+        server.createContext("/models/test-model:generateContent", exchange -> {
+            respond(exchange, requests.incrementAndGet() < 3 ? 503 : 200, OK_BODY);
+        });
+
+        GeminiClient client = client(2, false);
+
+        assertThat(client.generate("{}")).isEqualTo(OK_BODY);
+        assertThat(requests.get()).isEqualTo(3);
+        assertThat(client.getRetries()).isEqualTo(2);
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        server.createContext("/models/test-model:generateContent", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 400, "{\"error\":\"bad request\"}");
+        });
+
+        assertThatThrownBy(() -> client(2, false).generate("{}"))
+                .isInstanceOf(GeminiClient.GeminiApiException.class)
+                .hasMessageContaining("400")
+                .hasMessageContaining("bad request");
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void hedgesSlowCallsOnceWarmedUp() {
+        server.createContext("/models/test-model:generateContent", exchange -> {
+            // After warm-up, the first copy of each call stalls and the hedged copy answers
+            int n = requests.incrementAndGet();
+            if (n > 20 && n % 2 == 1) {
+                sleep(2000);
+            }
+            respond(exchange, 200, OK_BODY);
+        });
+        GeminiClient client = client(0, true);
+        for (int i = 0; i < 20; i++) {
+            client.generate("{}");
+        }
+
+        long started = System.nanoTime();
+        assertThat(client.generate("{}")).isEqualTo(OK_BODY);
+
+        assertThat((System.nanoTime() - started) / 1_000_000).isLessThan(1500);
+        assertThat(client.getHedges()).isEqualTo(1);
+    }
+
+    @Test
+    void hedgedCallFailsAsSoonAsEitherCopyIsRejected() {
+        server.createContext("/models/test-model:generateContent", exchange -> {
+            // After warm-up, the first copy stalls and the hedged copy is rejected outright
+            int n = requests.incrementAndGet();
+            if (n == 21) {
+                sleep(2000);
+            }
+            respond(exchange, n > 20 ? 400 : 200, n > 20 ? "{\"error\":{}}" : OK_BODY);
+        });
+        GeminiClient client = client(0, true);
+        for (int i = 0; i < 20; i++) {
+            client.generate("{}");
+        }
+
+        long started = System.nanoTime();
+        assertThatThrownBy(() -> client.generate("{}"))
+                .isInstanceOf(GeminiClient.GeminiApiException.class)
+                .hasMessageContaining("400");
+
+        assertThat((System.nanoTime() - started) / 1_000_000).isLessThan(1500);
+        assertThat(client.getHedges()).isEqualTo(1);
+    }
+
+    @Test
+    void streamsServerSentEvents() {
+        server.createContext("/models/test-model:streamGenerateContent", exchange ->
+                respond(exchange, 200, "data: {\"a\":1}\n\ndata: {\"a\":2}\n\n"));
+
+        List<String> events = new ArrayList<>();
+        client(0, false).stream("{}", events::add);
+
+        assertThat(events).containsExactly("{\"a\":1}", "{\"a\":2}");
+    }
+
+    private GeminiClient client(int maxRetries, boolean hedging) {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        return new GeminiClient("test-key", baseUrl, "test-model", 1000, 5000, maxRetries, 10, hedging, 0.95, 20);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.samcode.finance_rag;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GeminiContextCacheTests {
+
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void createsTheHandleOnceAndReusesItUntilInvalidated() {
+        String expiry = Instant.now().plusSeconds(3600).toString();
+        server.createContext("/cachedContents", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            respond(exchange, 200, "{\"name\":\"cachedContents/prefix-" + requests.size() + "\",\"expireTime\":\"" + expiry + "\"}");
+        });
+        GeminiContextCache cache = cache();
+
+        assertThat(cache.handle()).contains("cachedContents/prefix-1");
+        assertThat(cache.handle()).contains("cachedContents/prefix-1");
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0)).contains("\"model\":\"models/test-model\"", "\"ttl\":\"3600s\"", "CORE EXPERTISE");
+
+        cache.invalidate("cachedContents/prefix-1");
+        assertThat(cache.handle()).contains("cachedContents/prefix-2");
+    }
+
+    @Test
+    void failedCreationFallsBackToTheInlinePrefixAndBacksOff() {
+        server.createContext("/cachedContents", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            respond(exchange, 400, "{\"error\":{\"message\":\"Cached content is too small\"}}");
+        });
+        GeminiContextCache cache = cache();
+
+        assertThat(cache.handle()).isEmpty();
+        assertThat(cache.handle()).isEmpty();
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    void prefixesBelowTheModelMinimumAreNotCached() {
+        server.createContext("/cachedContents", exchange -> {
+            requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            respond(exchange, 200, "{\"name\":\"cachedContents/prefix\"}");
+        });
+        GeminiContextCache cache = cache(32768);
+
+        assertThat(cache.handle()).isEmpty();
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    void onlyRejectionsNamingTheCachedContentInvalidateTheHandle() {
+        assertThat(GeminiContextCache.isStaleHandle(new GeminiClient.GeminiApiException(404, "Gemini API returned HTTP 404"))).isTrue();
+        assertThat(GeminiContextCache.isStaleHandle(new GeminiClient.GeminiApiException(403, "Gemini API returned HTTP 403"))).isTrue();
+        assertThat(GeminiContextCache.isStaleHandle(new GeminiClient.GeminiApiException(400,
+                "Gemini API returned HTTP 400: {\"error\":{\"message\":\"CachedContent has expired\"}}"))).isTrue();
+        assertThat(GeminiContextCache.isStaleHandle(new GeminiClient.GeminiApiException(400,
+                "Gemini API returned HTTP 400: {\"error\":{\"message\":\"Invalid JSON payload\"}}"))).isFalse();
+        assertThat(GeminiContextCache.isStaleHandle(new GeminiClient.GeminiApiException(429, "Gemini API returned HTTP 429"))).isFalse();
+    }
+
+    private GeminiContextCache cache() {
+        return cache(0);
+    }
+
+    private GeminiContextCache cache(int minTokens) {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        GeminiClient client = new GeminiClient("test-key", baseUrl, "test-model", 1000, 5000, 0, 10, false, 0.95, 20);
+        return new GeminiContextCache(client, true, 3600, 600, minTokens);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
@@ -0,0 +1,102 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTests {
+
+    private static final int DIMENSIONS = 64;
+
+    @Test
+    void matchesExactSearchOnRandomVectors() {
+        Random random = new Random(7);
+        float[][] vectors = randomVectors(random, 2000);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        for (float[] vector : vectors) {
+            index.add(vector);
+        }
+
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVectors(random, 1)[0];
+            List<Integer> exact = exactTopK(vectors, query, 10);
+            found += (int) index.search(query, 10, 64).stream().filter(n -> exact.contains(n.node())).count();
+        }
+        assertThat(found / (queries * 10.0)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void removedNodesAreNeverReturned() {
+        float[][] vectors = randomVectors(new Random(11), 200);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50);
+        for (float[] vector : vectors) {
+            index.add(vector);
+        }
+
+        index.remove(42);
+
+        assertThat(index.search(vectors[42], 5, 32)).extracting(HnswIndex.Neighbor::node).doesNotContain(42);
+        assertThat(index.compact().size()).isEqualTo(199);
+    }
+
+    @Test
+    void snapshotRoundTripPreservesResults() {
+        Random random = new Random(3);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 50);
+        for (float[] vector : randomVectors(random, 300)) {
+            index.add(vector);
+        }
+        index.remove(5);
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) index.serializedSize());
+        index.writeTo(buffer);
+        assertThat(buffer.remaining()).isZero();
+        HnswIndex restored = HnswIndex.readFrom(buffer.flip());
+
+        float[] query = randomVectors(random, 1)[0];
+        assertThat(restored.search(query, 10, 32)).isEqualTo(index.search(query, 10, 32));
+        assertThat(restored.isDeleted(5)).isTrue();
+    }
+
+    private static float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    private static List<Integer> exactTopK(float[][] vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> -cosine(vectors[i], query)))
+                .limit(k)
+                .toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot / Math.sqrt(norm(a) * norm(b));
+    }
+
+    private static double norm(float[] v) {
+        return Arrays.stream(toDoubles(v)).map(x -> x * x).sum();
+    }
+
+    private static double[] toDoubles(float[] v) {
+        return IntStream.range(0, v.length).mapToDouble(i -> v[i]).toArray();
+    }
+}
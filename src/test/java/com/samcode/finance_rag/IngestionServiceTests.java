@@ -0,0 +1,255 @@
+package com.samcode.finance_rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionServiceTests {
+
+    private static final String FILENAME = "article_thebeatoct2024.pdf";
+
+    private final EmbeddingStage embeddingStage = mock(EmbeddingStage.class);
+    private final IngestedDocumentRepository documentRepository = mock(IngestedDocumentRepository.class);
+    private final VectorStore vectorStore = mock(VectorStore.class);
+    private final SemanticAnswerCache answerCache = mock(SemanticAnswerCache.class);
+    private final List<Document> embedded = new ArrayList<>();
+    private final IngestionService service = new IngestionService(embeddingStage, new ChunkingEngine(), answerCache,
+            mock(ParentParagraphCache.class), mock(ChatSessions.class),
+            new RagMetrics(new SimpleMeterRegistry()), documentRepository, vectorStore,
+            mock(PlatformTransactionManager.class), 64, 16);
+    private Path pdf;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pdf = new ClassPathResource("docs/" + FILENAME).getFile().toPath();
+        // The service reuses its buffer after each flush, so copy what was handed over
+        doAnswer(invocation -> embedded.addAll(invocation.getArgument(0)))
+                .when(embeddingStage).embedAndStore(anyList(), any());
+        when(documentRepository.findDocumentHash(FILENAME)).thenReturn(Optional.empty());
+        when(documentRepository.findStoredParagraphs(FILENAME)).thenReturn(Map.of());
+    }
+
+    @Test
+    void firstIngestionEmbedsEveryParagraphAndRecordsTheDocument() throws Exception {
+        IngestionJob job = new IngestionJob(FILENAME);
+        service.ingestDocument(pdf, FILENAME, job);
+
+        assertThat(embedded).isNotEmpty()
+                .allSatisfy(chunk -> assertThat(chunk.getMetadata()).containsKey("paragraph_hash"));
+        verify(documentRepository).save(eq(FILENAME), anyString(), anyInt(), eq(embedded.size()));
+        verify(vectorStore, never()).delete(anyList());
+        // A new document can improve the answer to any cached question
+        verify(answerCache).clear();
+        verify(answerCache, never()).invalidateDocument(anyString());
+    }
+
+    @Test
+    void unchangedDocumentIsSkipped() throws Exception {
+        service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME));
+        String documentHash = savedDocumentHash();
+        embedded.clear();
+        when(documentRepository.findDocumentHash(FILENAME)).thenReturn(Optional.of(documentHash));
+
+        service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME));
+
+        assertThat(embedded).isEmpty();
+        verify(documentRepository).findStoredParagraphs(FILENAME);
+    }
+
+    @Test
+    void changedDocumentReembedsOnlyChangedParagraphsAndDeletesStaleChunks() throws Exception {
+        service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME));
+        Map<String, IngestedDocumentRepository.StoredParagraph> stored = storedParagraphs(embedded);
+        // Paragraph 0 was stored with different content, and a paragraph that no longer exists left chunks behind
+        String changedKey = stored.keySet().stream().filter(key -> key.startsWith("0:")).findFirst().orElseThrow();
+        IngestedDocumentRepository.StoredParagraph changed = stored.remove(changedKey);
+        List<String> changedIds = changed.chunkIds();
+        stored.put("0:outdated", changed);
+        stored.put("9999:removed", new IngestedDocumentRepository.StoredParagraph(List.of("gone-1", "gone-2"), true));
+        embedded.clear();
+        when(documentRepository.findDocumentHash(FILENAME)).thenReturn(Optional.of("outdated"));
+        when(documentRepository.findStoredParagraphs(FILENAME)).thenReturn(stored);
+
+        IngestionJob job = new IngestionJob(FILENAME);
+        service.ingestDocument(pdf, FILENAME, job);
+
+        assertThat(embedded).isNotEmpty()
+                .allSatisfy(chunk -> assertThat(chunk.getMetadata()).containsEntry("paragraph_index", 0));
+        List<String> stale = new ArrayList<>(changedIds);
+        stale.addAll(List.of("gone-1", "gone-2"));
+        verify(vectorStore).delete(argThat((List<String> ids) ->
+                ids.size() == stale.size() && ids.containsAll(stale)));
+        assertThat(job.toStatus()).containsEntry("removedChunks", stale.size());
+        verify(answerCache).invalidateDocument(FILENAME);
+    }
+
+    @Test
+    void paragraphStoredInPartByAFailedBatchIsReembeddedOnTheNextRun() throws Exception {
+        service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME));
+        List<Document> complete = List.copyOf(embedded);
+        // Split inside the second paragraph: its first chunks were stored, the batch holding the rest failed
+        int split = 1;
+        while (paragraphIndex(complete.get(split)) != paragraphIndex(complete.get(split - 1))
+                || paragraphIndex(complete.get(split)) == paragraphIndex(complete.get(0))) {
+            split++;
+        }
+        int partialParagraph = paragraphIndex(complete.get(split));
+        int storedCount = split;
+        embedded.clear();
+        doAnswer(invocation -> {
+            List<Document> chunks = invocation.getArgument(0);
+            embedded.addAll(chunks.subList(0, Math.min(storedCount - embedded.size(), chunks.size())));
+            if (embedded.size() == storedCount) {
+                throw new EmbeddingStage.EmbeddingFailedException("1 of 2 embedding batches failed: 429", null, List.of());
+            }
+            return null;
+        }).when(embeddingStage).embedAndStore(anyList(), any());
+        assertThatThrownBy(() -> service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME)))
+                .isInstanceOf(EmbeddingStage.EmbeddingFailedException.class);
+        verify(documentRepository, times(1)).save(eq(FILENAME), anyString(), anyInt(), anyInt());
+
+        List<Document> storedBeforeFailure = List.copyOf(embedded);
+        embedded.clear();
+        doAnswer(invocation -> embedded.addAll(invocation.getArgument(0)))
+                .when(embeddingStage).embedAndStore(anyList(), any());
+        when(documentRepository.findStoredParagraphs(FILENAME)).thenReturn(storedParagraphs(storedBeforeFailure));
+        service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME));
+
+        // Every chunk from the split paragraph on is written, none of the completely stored ones again
+        long keptChunks = storedBeforeFailure.stream().filter(chunk -> paragraphIndex(chunk) != partialParagraph).count();
+        assertThat(embedded).hasSize((int) (complete.size() - keptChunks));
+        assertThat(embedded).extracting(this::paragraphIndex).doesNotContain(0).contains(partialParagraph);
+        List<String> partialIds = new ArrayList<>();
+        for (int i = 0; i < storedBeforeFailure.size(); i++) {
+            if (paragraphIndex(storedBeforeFailure.get(i)) == partialParagraph) {
+                partialIds.add("chunk-" + i);
+            }
+        }
+        verify(vectorStore).delete(argThat((List<String> ids) -> ids.size() == partialIds.size() && ids.containsAll(partialIds)));
+    }
+
+    @Test
+    void concurrentIngestionsOfTheSameFileLeaveASingleChunkSet() throws Exception {
+        // A repository backed by what the vector store holds, so each run sees the other's commit
+        Map<String, Document> vectorStoreRows = new ConcurrentHashMap<>();
+        AtomicReference<String> documentHash = new AtomicReference<>();
+        doAnswer(invocation -> {
+            // Slow enough that both runs would be inside diff at once without the lock
+            Thread.sleep(10);
+            for (Document chunk : invocation.<List<Document>>getArgument(0)) {
+                vectorStoreRows.put(chunk.getId(), chunk);
+            }
+            return null;
+        }).when(embeddingStage).embedAndStore(anyList(), any());
+        doAnswer(invocation -> {
+            invocation.<List<String>>getArgument(0).forEach(vectorStoreRows::remove);
+            return null;
+        }).when(vectorStore).delete(anyList());
+        doAnswer(invocation -> {
+            documentHash.set(invocation.getArgument(1));
+            return null;
+        }).when(documentRepository).save(eq(FILENAME), anyString(), anyInt(), anyInt());
+        when(documentRepository.findDocumentHash(FILENAME)).thenAnswer(invocation -> Optional.ofNullable(documentHash.get()));
+        when(documentRepository.findStoredParagraphs(FILENAME)).thenAnswer(invocation -> storedParagraphsById(vectorStoreRows));
+
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                runs.add(workers.submit(() -> {
+                    service.ingestDocument(pdf, FILENAME, new IngestionJob(FILENAME));
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        service.ingestDocument(pdf, "reference.pdf", new IngestionJob("reference.pdf"));
+        long oneChunkSet = vectorStoreRows.values().stream()
+                .filter(chunk -> "reference.pdf".equals(chunk.getMetadata().get("filename"))).count();
+        assertThat(vectorStoreRows.values().stream().filter(chunk -> FILENAME.equals(chunk.getMetadata().get("filename"))))
+                .hasSize((int) oneChunkSet);
+        verify(documentRepository, times(1)).save(eq(FILENAME), anyString(), anyInt(), anyInt());
+    }
+
+    private static Map<String, IngestedDocumentRepository.StoredParagraph> storedParagraphsById(Map<String, Document> rows) {
+        Map<String, List<String>> ids = new HashMap<>();
+        Map<String, Boolean> withParagraphChunk = new HashMap<>();
+        rows.forEach((id, chunk) -> {
+            if (!FILENAME.equals(chunk.getMetadata().get("filename"))) {
+                return;
+            }
+            String key = IngestedDocumentRepository.paragraphKey(
+                    chunk.getMetadata().get("paragraph_index"), (String) chunk.getMetadata().get("paragraph_hash"));
+            ids.computeIfAbsent(key, k -> new ArrayList<>()).add(id);
+            withParagraphChunk.merge(key, "paragraph".equals(chunk.getMetadata().get("chunk_type")), Boolean::logicalOr);
+        });
+        Map<String, IngestedDocumentRepository.StoredParagraph> stored = new HashMap<>();
+        ids.forEach((key, chunkIds) -> stored.put(key,
+                new IngestedDocumentRepository.StoredParagraph(chunkIds, withParagraphChunk.get(key))));
+        return stored;
+    }
+
+    private Map<String, IngestedDocumentRepository.StoredParagraph> storedParagraphs(List<Document> chunks) {
+        Map<String, List<String>> ids = new HashMap<>();
+        Map<String, Boolean> withParagraphChunk = new HashMap<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            String key = IngestedDocumentRepository.paragraphKey(
+                    chunk.getMetadata().get("paragraph_index"), (String) chunk.getMetadata().get("paragraph_hash"));
+            ids.computeIfAbsent(key, k -> new ArrayList<>()).add("chunk-" + i);
+            withParagraphChunk.merge(key, "paragraph".equals(chunk.getMetadata().get("chunk_type")), Boolean::logicalOr);
+        }
+        Map<String, IngestedDocumentRepository.StoredParagraph> stored = new HashMap<>();
+        ids.forEach((key, chunkIds) -> stored.put(key,
+                new IngestedDocumentRepository.StoredParagraph(chunkIds, withParagraphChunk.get(key))));
+        return stored;
+    }
+
+    private int paragraphIndex(Document chunk) {
+        return (int) chunk.getMetadata().get("paragraph_index");
+    }
+
+    private String savedDocumentHash() {
+        ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+        verify(documentRepository).save(eq(FILENAME), hash.capture(), anyInt(), anyInt());
+        return hash.getValue();
+    }
+}
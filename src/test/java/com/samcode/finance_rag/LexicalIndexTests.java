@@ -0,0 +1,83 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LexicalIndexTests {
+
+    @Test
+    void tokenizerKeepsNumbersCurrencyAndPercentagesIntact() {
+        assertThat(LexicalIndex.tokenize("The S&P 500 returned -4.2% while HY spreads widened 12bps to $1,250.5m"))
+                .containsExactly("s&p", "500", "returned", "-4.2%", "while", "hy", "spreads", "widened",
+                        "12bps", "12", "bps", "$1250.5m", "$1250.5", "m");
+        assertThat(LexicalIndex.tokenize("U.S. GDP grew +2.1% in 2024-2025."))
+                .containsExactly("u.s", "gdp", "grew", "2.1%", "2024", "2025");
+    }
+
+    @Test
+    void dashesInRangesAreNotReadAsMinusSigns() {
+        assertThat(LexicalIndex.tokenize("Returns for 2023-2024 and Q3-2024 ranged 3.5%-4.0% (-1.2% in 2022)"))
+                .containsExactly("returns", "2023", "2024", "q3", "2024", "ranged", "3.5%", "4.0%", "-1.2%", "2022");
+
+        LexicalIndex index = new LexicalIndex();
+        index.add("Net flows for Q3-2024 were positive.");
+        assertThat(index.search("flows in 2024", 1, doc -> true)).extracting(LexicalIndex.Hit::doc).containsExactly(0);
+    }
+
+    @Test
+    void rareExactTermsOutrankCommonOnes() {
+        LexicalIndex index = new LexicalIndex();
+        index.add("Equity markets rallied as earnings beat expectations.");
+        index.add("Equity markets fell; the 10-year yield rose to 4.2%.");
+        index.add("Equity markets were flat over the month.");
+
+        List<LexicalIndex.Hit> hits = index.search("Where did equity markets leave the 4.2% yield?", 3, doc -> true);
+
+        assertThat(hits).extracting(LexicalIndex.Hit::doc).startsWith(1);
+        assertThat(hits).hasSize(3);
+        assertThat(hits.get(0).score()).isGreaterThan(hits.get(1).score());
+        assertThat(index.search("4.2%", 3, doc -> doc != 1)).isEmpty();
+    }
+
+    @Test
+    void removedDocumentsDisappearAndCompactionRenumbersTheRest() {
+        LexicalIndex index = new LexicalIndex();
+        index.add("Spreads tightened by 12 bps.");
+        index.add("Spreads widened by 30 bps.");
+        index.add("Spreads were unchanged.");
+
+        index.remove(1);
+        assertThat(index.search("spreads bps", 3, doc -> true)).extracting(LexicalIndex.Hit::doc).containsExactly(0, 2);
+
+        LexicalIndex compacted = index.compact();
+        assertThat(compacted.size()).isEqualTo(2);
+        assertThat(compacted.deletedCount()).isZero();
+        assertThat(compacted.search("unchanged", 3, doc -> true)).extracting(LexicalIndex.Hit::doc).containsExactly(1);
+        assertThat(compacted.search("30", 3, doc -> true)).isEmpty();
+    }
+
+    @Test
+    void serializationRoundTripsPostingsAndDeletions() {
+        LexicalIndex index = new LexicalIndex();
+        for (int i = 0; i < 300; i++) {
+            index.add("Fund " + i + " returned " + (i % 7) + ".5% in Q" + (i % 4 + 1));
+        }
+        index.remove(3);
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) index.serializedSize());
+        index.writeTo(buffer);
+        assertThat(buffer.remaining()).isZero();
+        buffer.flip();
+        LexicalIndex restored = LexicalIndex.readFrom(buffer);
+
+        assertThat(restored.size()).isEqualTo(300);
+        assertThat(restored.isDeleted(3)).isTrue();
+        for (String query : List.of("fund 42", "returned 3.5% q2", "q4")) {
+            assertThat(restored.search(query, 10, doc -> true)).isEqualTo(index.search(query, 10, doc -> true));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.samcode.finance_rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ModelRaceTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ProviderBulkheads bulkheads = new ProviderBulkheads(4, 4, 1, 4, 100);
+    private final ModelRace race = new ModelRace(bulkheads, new RagMetrics(registry), "openai", 0.9, 20, 100);
+
+    @Test
+    void fastPrimaryIsNotHedged() {
+        AtomicBoolean secondaryCalled = new AtomicBoolean();
+
+        ModelRace.Result result = race.run(Map.of(
+                ProviderBulkheads.OPENAI, tokens -> {
+                    tokens.accept("Spreads ");
+                    tokens.accept("tightened.");
+                },
+                ProviderBulkheads.GEMINI, tokens -> secondaryCalled.set(true)), null, permit());
+
+        assertThat(result.provider()).isEqualTo(ProviderBulkheads.OPENAI);
+        assertThat(result.answer()).isEqualTo("Spreads tightened.");
+        assertThat(result.hedged()).isFalse();
+        assertThat(secondaryCalled).isFalse();
+        assertThat(registry.get("rag.chat.race").tags("hedged", "false", "winner", "openai").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void stalledPrimaryIsHedgedAndCancelledOnceTheSecondaryWins() throws InterruptedException {
+        CountDownLatch primaryCancelled = new CountDownLatch(1);
+        List<String> streamed = new CopyOnWriteArrayList<>();
+
+        ModelRace.Result result = race.run(Map.of(
+                ProviderBulkheads.OPENAI, tokens -> {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        primaryCancelled.countDown();
+                    }
+                },
+                ProviderBulkheads.GEMINI, tokens -> tokens.accept("Yields fell.")), streamed::add, permit());
+
+        assertThat(result.provider()).isEqualTo(ProviderBulkheads.GEMINI);
+        assertThat(result.hedged()).isTrue();
+        assertThat(streamed).containsExactly("Yields fell.");
+        assertThat(primaryCancelled.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(registry.get("rag.chat.race").tags("hedged", "true", "winner", "gemini").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void failedPrimaryFailsOverWithoutWaitingForTheHedgeDelay() {
+        ModelRace slowHedge = new ModelRace(bulkheads, new RagMetrics(registry), "openai", 0.9, 20, 60_000);
+
+        ModelRace.Result result = slowHedge.run(Map.of(
+                ProviderBulkheads.OPENAI, tokens -> {
+                    throw new IllegalStateException("connection reset");
+                },
+                ProviderBulkheads.GEMINI, tokens -> tokens.accept("Yields fell.")), null, permit());
+
+        assertThat(result.provider()).isEqualTo(ProviderBulkheads.GEMINI);
+        assertThat(result.hedged()).isTrue();
+    }
+
+    private ProviderBulkhead.Permit permit() {
+        return bulkheads.forModel(race.getPrimary()).acquire();
+    }
+}
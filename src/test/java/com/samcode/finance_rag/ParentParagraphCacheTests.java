@@ -0,0 +1,62 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ParentParagraphCacheTests {
+
+    private final List<Set<String>> loads = new ArrayList<>();
+
+    @Test
+    void cachedParagraphsAreServedWithoutReloading() {
+        ParentParagraphCache cache = cache(null);
+
+        assertThat(cache.getAll(List.of("q3.pdf#0", "q3.pdf#1"))).containsOnlyKeys("q3.pdf#0", "q3.pdf#1");
+        assertThat(cache.getAll(List.of("q3.pdf#1"))).containsOnlyKeys("q3.pdf#1");
+        assertThat(loads).hasSize(1);
+
+        cache.invalidateDocument("q3.pdf");
+        cache.getAll(List.of("q3.pdf#1"));
+        assertThat(loads).hasSize(2);
+    }
+
+    @Test
+    void loadRacingAnInvalidationDoesNotCacheTheReplacedParagraphs() {
+        // The document is re-ingested while its paragraphs are being read
+        ParentParagraphCache cache = cache("q3.pdf");
+
+        Map<String, Document> first = cache.getAll(List.of("q3.pdf#0", "q2.pdf#0"));
+        assertThat(first).containsOnlyKeys("q3.pdf#0", "q2.pdf#0");
+
+        cache.getAll(List.of("q3.pdf#0", "q2.pdf#0"));
+        // Only the invalidated document is read again
+        assertThat(loads).containsExactly(Set.of("q3.pdf#0", "q2.pdf#0"), Set.of("q3.pdf#0"));
+    }
+
+    private ParentParagraphCache cache(String invalidatedDuringFirstLoad) {
+        return new ParentParagraphCache(mock(JdbcTemplate.class), 100) {
+            @Override
+            Map<String, Document> load(Set<String> keys) {
+                loads.add(Set.copyOf(keys));
+                if (invalidatedDuringFirstLoad != null && loads.size() == 1) {
+                    invalidateDocument(invalidatedDuringFirstLoad);
+                }
+                Map<String, Document> loaded = new HashMap<>();
+                for (String key : keys) {
+                    loaded.put(key, new Document("Paragraph " + key));
+                }
+                return loaded;
+            }
+        };
+    }
+}
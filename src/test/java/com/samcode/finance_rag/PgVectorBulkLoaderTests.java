@@ -0,0 +1,79 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.Reader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PgVectorBulkLoaderTests {
+
+    @Test
+    void rowsAreEscapedForCopyTextFormat() {
+        StringBuilder rows = new StringBuilder();
+        PgVectorBulkLoader.appendRow(rows, "5f0c6c1e-6f53-4c3e-9a43-3c1d2f0e9b11",
+                "Yield\t4.2%\nC:\\data\r", "{\"filename\":\"q3.pdf\"}", new float[] { 0.5f, -1f });
+
+        assertThat(rows.toString()).isEqualTo(
+                "5f0c6c1e-6f53-4c3e-9a43-3c1d2f0e9b11\tYield\\t4.2%\\nC:\\\\data\\r\t{\"filename\":\"q3.pdf\"}\t[0.5,-1.0]\n");
+    }
+
+    @Test
+    void chunksAreCopiedIntoATempTableAndUpsertedInOneTransaction() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        PGConnection pgConnection = mock(PGConnection.class);
+        CopyManager copyManager = mock(CopyManager.class);
+        List<String> executed = new ArrayList<>();
+        StringWriter copied = new StringWriter();
+        when(jdbcTemplate.execute(any(ConnectionCallback.class)))
+                .thenAnswer(invocation -> invocation.<ConnectionCallback<?>>getArgument(0).doInConnection(connection));
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute(anyString())).thenAnswer(invocation -> executed.add(invocation.getArgument(0)));
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(copyManager.copyIn(anyString(), any(Reader.class))).thenAnswer(invocation -> {
+            executed.add(invocation.getArgument(0));
+            invocation.<Reader>getArgument(1).transferTo(copied);
+            return 0L;
+        });
+
+        new PgVectorBulkLoader(jdbcTemplate, transactionManager).load(List.of(
+                        chunk("a", "Equities returned 4.1%."),
+                        chunk("b", "Spreads tightened by 12 bps."),
+                        chunk("a", "Equities returned 4.2%.")),
+                List.of(new float[] { 1f }, new float[] { 2f }, new float[] { 3f }));
+
+        assertThat(executed).containsExactly(PgVectorBulkLoader.CREATE_LOAD_TABLE, PgVectorBulkLoader.COPY,
+                PgVectorBulkLoader.UPSERT);
+        assertThat(PgVectorBulkLoader.UPSERT).contains("ON CONFLICT (id) DO UPDATE", "embedding = EXCLUDED.embedding");
+        // One row per id, and a later chunk with the same id replaces the earlier one
+        assertThat(copied.toString().split("\n")).containsExactly(
+                "a\tEquities returned 4.2%.\t{\"filename\":\"q3.pdf\"}\t[3.0]",
+                "b\tSpreads tightened by 12 bps.\t{\"filename\":\"q3.pdf\"}\t[2.0]");
+        verify(transactionManager).commit(any());
+    }
+
+    private static Document chunk(String id, String text) {
+        return Document.builder().id(id).text(text).metadata(Map.of("filename", "q3.pdf")).build();
+    }
+}
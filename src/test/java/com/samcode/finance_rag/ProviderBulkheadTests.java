@@ -0,0 +1,74 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProviderBulkheadTests {
+
+    @Test
+    void shedsCallsWhenLimitAndQueueAreFull() {
+        ProviderBulkhead bulkhead = new ProviderBulkhead("openai", 1, 2, 0, 50);
+        bulkhead.acquire();
+        bulkhead.acquire();
+
+        assertThatThrownBy(bulkhead::acquire)
+                .isInstanceOfSatisfying(ProviderBulkhead.BulkheadFullException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isPositive());
+    }
+
+    @Test
+    void queuedCallProceedsWhenPermitIsReleased() throws InterruptedException {
+        ProviderBulkhead bulkhead = new ProviderBulkhead("gemini", 1, 1, 1, 2000);
+        ProviderBulkhead.Permit held = bulkhead.acquire();
+
+        Thread waiter = Thread.ofVirtual().start(() -> bulkhead.acquire().release(null));
+        Thread.sleep(50);
+        held.release(null);
+        waiter.join(1000);
+
+        assertThat(waiter.isAlive()).isFalse();
+        assertThat(bulkhead.getInFlight()).isZero();
+    }
+
+    @Test
+    void throttlingShrinksLimitAndSuccessRestoresIt() {
+        ProviderBulkhead bulkhead = new ProviderBulkhead("openai", 2, 8, 0, 0);
+
+        // What Spring AI's error handler raises for a 429 under its default retry settings
+        bulkhead.acquire().release(new NonTransientAiException("HTTP 429 - {\"error\": {\"code\": \"rate_limit_exceeded\"}}"));
+        assertThat(bulkhead.getLimit()).isEqualTo(6);
+
+        for (int i = 0; i < 50; i++) {
+            ProviderBulkhead.Permit[] permits = new ProviderBulkhead.Permit[bulkhead.getLimit()];
+            for (int p = 0; p < permits.length; p++) {
+                permits[p] = bulkhead.acquire();
+            }
+            for (ProviderBulkhead.Permit permit : permits) {
+                permit.release(null);
+            }
+        }
+        assertThat(bulkhead.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    void recognisesTheErrorsSpringAiRaisesForA429() {
+        assertThat(ProviderBulkhead.isThrottling(new TransientAiException("HTTP 429 - rate limit reached"))).isTrue();
+        assertThat(ProviderBulkhead.isThrottling(new NonTransientAiException("HTTP 429 - rate limit reached"))).isTrue();
+        WebClientResponseException streamed = WebClientResponseException.create(429, "Too Many Requests",
+                HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        assertThat(streamed).isInstanceOf(WebClientResponseException.TooManyRequests.class);
+        assertThat(ProviderBulkhead.isThrottling(new RuntimeException("stream failed", streamed))).isTrue();
+
+        assertThat(ProviderBulkhead.isThrottling(new NonTransientAiException("HTTP 400 - invalid request"))).isFalse();
+        assertThat(ProviderBulkhead.isThrottling(WebClientResponseException.create(401, "Unauthorized",
+                HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8))).isFalse();
+    }
+}
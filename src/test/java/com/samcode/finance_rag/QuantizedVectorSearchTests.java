@@ -0,0 +1,62 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QuantizedVectorSearchTests {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    @Test
+    void binaryModeTakesOversampledCandidatesFromTheHammingIndexAndReranks() {
+        QuantizedVectorSearch search = search("binary", 4);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class))).thenReturn(List.of());
+
+        search.search(SearchRequest.builder().query("spreads").topK(5).similarityThreshold(0.3)
+                .filterExpression("filename == 'q3.pdf'").build(), new float[] { 0.1f, 0.2f, 0.3f });
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate).execute("SET LOCAL hnsw.ef_search = 40");
+        verify(jdbcTemplate).query(sql.capture(), any(RowMapper.class), args.capture());
+        assertThat(sql.getValue())
+                .contains("ORDER BY binary_quantize(embedding)::bit(3) <~> binary_quantize(?::vector)")
+                .contains("metadata::jsonb @@ '$.filename == \"q3.pdf\"'::jsonpath")
+                .contains("ORDER BY distance");
+        assertThat(args.getValue()).hasSize(5);
+        assertThat(args.getValue()[2]).isEqualTo(20);
+        assertThat((double) args.getValue()[3]).isCloseTo(0.7, within(1e-9));
+        assertThat(args.getValue()[4]).isEqualTo(5);
+    }
+
+    @Test
+    void indexMatchesTheConfiguredMode() {
+        assertThat(search("none", 4).isEnabled()).isFalse();
+        assertThat(search("none", 4).indexDdl()).isNull();
+        assertThat(search("halfvec", 4).indexDdl())
+                .contains("vector_store_embedding_halfvec_idx", "(embedding::halfvec(3)) halfvec_cosine_ops");
+        assertThat(search("BINARY", 4).indexDdl())
+                .contains("vector_store_embedding_binary_idx", "(binary_quantize(embedding)::bit(3)) bit_hamming_ops");
+    }
+
+    private QuantizedVectorSearch search(String mode, int oversampling) {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.dimensions()).thenReturn(3);
+        return new QuantizedVectorSearch(jdbcTemplate, mock(PlatformTransactionManager.class), embeddingModel, mode, oversampling);
+    }
+}
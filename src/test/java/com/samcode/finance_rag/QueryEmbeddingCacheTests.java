@@ -0,0 +1,29 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryEmbeddingCacheTests {
+
+    private final QueryEmbeddingCache cache = new QueryEmbeddingCache(100);
+
+    @Test
+    void batchEmbedsOnlyMissingQuestionsInOneCall() {
+        cache.put("What was Q3 revenue?", new float[] { 1f });
+        List<List<String>> calls = new ArrayList<>();
+
+        List<float[]> embeddings = cache.getAll(List.of("What was Q3 revenue?", " Net margin? ", "EBITDA?", "Net margin?"),
+                questions -> {
+                    calls.add(questions);
+                    return questions.stream().map(q -> new float[] { q.length() }).toList();
+                });
+
+        assertThat(calls).containsExactly(List.of("Net margin?", "EBITDA?"));
+        assertThat(embeddings).extracting(e -> e[0]).containsExactly(1f, 11f, 7f, 11f);
+        assertThat(cache.get("EBITDA?", q -> { throw new AssertionError("should be cached"); })).containsExactly(7f);
+    }
+}
@@ -0,0 +1,27 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RagMathTests {
+
+    @Test
+    void normalizedVectorsHaveCosineSimilarityAsDotProduct() {
+        float[] a = RagMath.normalize(new float[] { 3f, 4f });
+        float[] b = RagMath.normalize(new float[] { 4f, 3f });
+
+        assertThat(RagMath.dot(a, a)).isCloseTo(1.0, within(1e-6));
+        assertThat(RagMath.dot(a, b)).isCloseTo(0.96, within(1e-6));
+        assertThat(RagMath.normalize(new float[] { 0f, 0f })).containsExactly(0f, 0f);
+        assertThat(RagMath.dot(a, new float[] { 1f, 0f, 0f })).isZero();
+    }
+
+    @Test
+    void tokenEstimateRoundsUp() {
+        assertThat(RagMath.estimateTokens("")).isZero();
+        assertThat(RagMath.estimateTokens("abcd")).isEqualTo(1);
+        assertThat(RagMath.estimateTokens("abcde")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,80 @@
+package com.samcode.finance_rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RagMetricsTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RagMetrics metrics = new RagMetrics(registry);
+
+    @Test
+    void chatStagesFeedTimersAndTheResponseBreakdown() {
+        ChatTimings timings = metrics.startChat("gemini");
+        List<Document> docs = timings.time(ChatTimings.SEARCH, () -> List.of(
+                new Document("Spreads tightened.", Map.of("chunk_type", "sentence")),
+                new Document("Spreads tightened by 12 bps.", Map.of("chunk_type", "numerical_data"))));
+        timings.retrieved(docs);
+        timings.time(ChatTimings.LLM, () -> { });
+        timings.prompt("context", "system prompt and context");
+        timings.tokens(120, 40);
+
+        assertThat(registry.get("rag.chat.stage").tags("model", "gemini", "stage", "search").timer().count()).isEqualTo(1);
+        assertThat(registry.get("rag.chat.stage").tags("model", "gemini", "stage", "llm").timer().count()).isEqualTo(1);
+        assertThat(registry.get("rag.retrieval.chunks").tags("chunk_type", "numerical_data").counter().count()).isEqualTo(1);
+        assertThat(registry.get("rag.llm.tokens").tags("model", "gemini", "type", "prompt").counter().count()).isEqualTo(120);
+        assertThat(registry.get("rag.chat.prompt.size").summary().totalAmount()).isEqualTo(25);
+
+        Map<String, Object> breakdown = timings.toMap();
+        assertThat(breakdown.get("stagesMs")).asInstanceOf(InstanceOfAssertFactories.MAP)
+                .containsOnlyKeys(ChatTimings.SEARCH, ChatTimings.LLM);
+        assertThat(breakdown).containsEntry("retrievedChunks", 2)
+                .containsEntry("contextChars", 7)
+                .containsEntry("estimatedPromptTokens", 7)
+                .containsEntry("promptTokens", 120)
+                .containsEntry("completionTokens", 40)
+                .containsEntry("cached", false);
+    }
+
+    @Test
+    void prefixCacheHitsAndMissesAreCounted() {
+        metrics.startChat("openai").cachedPromptTokens(1024);
+        metrics.startChat("openai").cachedPromptTokens(0);
+        ChatTimings unreported = metrics.startChat("openai");
+        unreported.cachedPromptTokens(null);
+
+        assertThat(registry.get("rag.llm.prefix.cache").tags("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(registry.get("rag.llm.prefix.cache").tags("result", "miss").counter().count()).isEqualTo(1);
+        assertThat(registry.get("rag.llm.tokens").tags("type", "cached_prompt").counter().count()).isEqualTo(1024);
+        assertThat(unreported.toMap()).containsEntry("cachedPromptTokens", null);
+    }
+
+    @Test
+    void missingTokenCountsAreNotRecorded() {
+        ChatTimings timings = metrics.startChat("openai");
+        timings.tokens(null, 15);
+
+        assertThat(registry.find("rag.llm.tokens").tags("type", "prompt").counter()).isNull();
+        assertThat(registry.get("rag.llm.tokens").tags("type", "completion").counter().count()).isEqualTo(15);
+        assertThat(timings.toMap()).containsEntry("promptTokens", null);
+    }
+
+    @Test
+    void ingestionCountsChunksByType() {
+        metrics.recordChunks(List.of(
+                new Document("A paragraph.", Map.of("chunk_type", "paragraph")),
+                new Document("A row 1 2", Map.of("chunk_type", "table_row")),
+                new Document("Another row 3 4", Map.of("chunk_type", "table_row"))));
+        metrics.recordIngestStage(IngestionJob.Stage.EMBED, 5_000_000);
+
+        assertThat(registry.get("rag.ingest.chunks").tags("chunk_type", "table_row").counter().count()).isEqualTo(2);
+        assertThat(registry.get("rag.ingest.stage").tags("stage", "embed").timer().count()).isEqualTo(1);
+    }
+}
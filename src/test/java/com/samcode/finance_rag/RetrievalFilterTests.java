@@ -0,0 +1,59 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetrievalFilterTests {
+
+    private final PgVectorFilterExpressionConverter converter = new PgVectorFilterExpressionConverter();
+
+    @Test
+    void restrictionsBecomeOnePgvectorJsonPath() {
+        RetrievalFilter filter = new RetrievalFilter(List.of("q3.pdf"), 4, 6, List.of("table_row"), true);
+
+        assertThat(converter.convertExpression(filter.toExpression())).isEqualTo(
+                "($.filename == \"q3.pdf\")"
+                        + " && ($.slide_number == \"4\" || $.slide_number == \"5\" || $.slide_number == \"6\")"
+                        + " && ($.chunk_type == \"table_row\")"
+                        + " && $.contains_numbers == true");
+    }
+
+    @Test
+    void emptyFilterSearchesEverything() {
+        assertThat(RetrievalFilter.NONE.isEmpty()).isTrue();
+        assertThat(RetrievalFilter.NONE.toExpression()).isNull();
+        assertThat(RetrievalFilter.NONE.cacheKey()).isEmpty();
+        assertThat(new RetrievalFilter(List.of(""), null, null, List.of(), false).isEmpty()).isTrue();
+    }
+
+    @Test
+    void singleSlideBoundSelectsOneSlide() {
+        RetrievalFilter filter = new RetrievalFilter(null, null, 9, null, false);
+
+        assertThat(filter.slideFrom()).isEqualTo(9);
+        assertThat(converter.convertExpression(filter.toExpression())).isEqualTo("($.slide_number == \"9\")");
+    }
+
+    @Test
+    void cacheKeyIgnoresValueOrder() {
+        assertThat(new RetrievalFilter(List.of("a.pdf", "b.pdf"), null, null, null, false).cacheKey())
+                .isEqualTo(new RetrievalFilter(List.of("b.pdf", "a.pdf"), null, null, null, false).cacheKey());
+    }
+
+    @Test
+    void invalidFiltersAreRejected() {
+        assertThatThrownBy(() -> new RetrievalFilter(List.of("x' OR '1'='1"), null, null, null, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RetrievalFilter(null, null, null, List.of("chart"), false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RetrievalFilter(null, 5, 2, null, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RetrievalFilter(null, 1, 1 + RetrievalFilter.MAX_SLIDE_RANGE, null, false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
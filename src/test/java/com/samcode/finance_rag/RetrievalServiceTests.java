@@ -0,0 +1,162 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RetrievalServiceTests {
+
+    private final VectorStore vectorStore = mock(VectorStore.class);
+    private final RecordingParentCache parentCache = new RecordingParentCache();
+    private final RetrievalService retrievalService = new RetrievalService(vectorStore, null,
+            new ContextAssembler(3000), parentCache, 3, 0.0, true, true, 60);
+
+    @Test
+    void fineGrainedHitsAreExpandedToTheirParentParagraphs() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(
+                chunk("Whole paragraph 0", "paragraph", 0, 0.95),
+                chunk("Equities | 4.1 | 5.2", "table_row", 1, 0.9),
+                chunk("Equities returned 4.1% in Q3.", "sentence", 1, 0.8),
+                chunk("Spreads tightened by 12 bps.", "numerical_data", 2, 0.7)));
+
+        List<Document> results = retrievalService.search("How did equities do?");
+
+        assertThat(results).extracting(Document::getText).containsExactly("Paragraph 1", "Paragraph 2");
+        assertThat(results).extracting(Document::getScore).containsExactly(0.9, 0.7);
+        assertThat(parentCache.loads).containsExactly(Set.of("q3.pdf#1", "q3.pdf#2"));
+    }
+
+    @Test
+    void parentsAreServedFromTheCacheUntilTheDocumentIsReingested() {
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(
+                chunk("Equities | 4.1 | 5.2", "table_row", 1, 0.9)));
+
+        retrievalService.search("How did equities do?");
+        retrievalService.search("Equity returns?");
+        assertThat(parentCache.loads).hasSize(1);
+
+        parentCache.invalidateDocument("q3.pdf");
+        retrievalService.search("Equity returns?");
+        assertThat(parentCache.loads).hasSize(2);
+    }
+
+    @Test
+    void hitsWithoutAStoredParentAreKept() {
+        Document orphan = new Document("Loose note", Map.of("chunk_type", "sentence"));
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(orphan));
+
+        assertThat(retrievalService.search("notes")).containsExactly(orphan);
+    }
+
+    @Test
+    void explicitChunkTypesAreNotExpanded() {
+        Document row = chunk("Equities | 4.1 | 5.2", "table_row", 1, 0.9);
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(row));
+
+        RetrievalFilter tablesOnly = new RetrievalFilter(null, null, null, List.of("table_row"), false);
+        assertThat(retrievalService.search("equities", tablesOnly)).containsExactly(row);
+        assertThat(parentCache.loads).isEmpty();
+    }
+
+    @Test
+    void fusionRanksDocumentsFoundByBothSearchesFirst() {
+        Document semanticOnly = chunk("Credit markets were calm.", "sentence", 1, 0.9);
+        Document both = chunk("Spreads tightened by 12 bps.", "numerical_data", 2, 0.8);
+        Document lexicalOnly = chunk("HY OAS: 12 bps tighter", "table_row", 3, 7.5);
+
+        List<Document> fused = RetrievalService.fuse(List.of(semanticOnly, both), List.of(lexicalOnly, both), 3, 60);
+
+        assertThat(fused).extracting(Document::getText).containsExactly(
+                "Spreads tightened by 12 bps.", "Credit markets were calm.", "HY OAS: 12 bps tighter");
+        assertThat(fused.get(0).getScore()).isCloseTo(2.0 / 62, within(1e-9));
+        assertThat(RetrievalService.fuse(List.of(semanticOnly), List.of(), 3, 60)).containsExactly(semanticOnly);
+    }
+
+    @Test
+    void lexicalHitsMustClearTheSimilarityThreshold() {
+        HnswVectorStore hotTier = mock(HnswVectorStore.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        RetrievalService thresholdRetrieval = new RetrievalService(hotTier, embeddingModel,
+                new ContextAssembler(3000), parentCache, 3, 0.5, false, true, 60);
+        Document related = Document.builder().id("related").text("HY OAS: 12 bps tighter").build();
+        Document unrelated = Document.builder().id("unrelated").text("Office moves 12 blocks north").build();
+        when(hotTier.similaritySearch(any(SearchRequest.class))).thenReturn(List.of());
+        when(hotTier.lexicalSearch(anyString(), anyInt(), any())).thenReturn(List.of(related, unrelated));
+        when(embeddingModel.embed("12 bps")).thenReturn(new float[]{2, 0});
+        when(hotTier.embeddings(List.of("related", "unrelated")))
+                .thenReturn(Map.of("related", new float[]{0.8f, 0.6f}, "unrelated", new float[]{0.2f, 0.98f}));
+
+        assertThat(thresholdRetrieval.search("12 bps")).extracting(Document::getId).containsExactly("related");
+    }
+
+    @Test
+    void chunkEmbeddingsComeFromTheHotTierAndOnlyTheRestIsEmbedded() {
+        HnswVectorStore hotTier = mock(HnswVectorStore.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        RetrievalService hotTierRetrieval = new RetrievalService(hotTier, embeddingModel,
+                new ContextAssembler(3000), parentCache, 3, 0.0, false, true, 60);
+        Document stored = Document.builder().id("stored").text("Equities returned 4.1%.").build();
+        Document notStored = Document.builder().id("not-stored").text("Spreads tightened by 12 bps.").build();
+        float[] storedVector = {1, 0, 0};
+        float[] embeddedVector = {0, 1, 0};
+        when(hotTier.embeddings(List.of("stored", "not-stored"))).thenReturn(Map.of("stored", storedVector));
+        when(embeddingModel.embed(List.of("Spreads tightened by 12 bps."))).thenReturn(List.of(embeddedVector));
+
+        assertThat(hotTierRetrieval.chunkEmbeddings(List.of(stored, notStored)))
+                .containsExactly(storedVector, embeddedVector);
+        verify(embeddingModel, times(1)).embed(anyList());
+    }
+
+    private static Document chunk(String text, String chunkType, int paragraph, double score) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("filename", "q3.pdf");
+        metadata.put("chunk_type", chunkType);
+        metadata.put("paragraph_index", paragraph);
+        if (!"paragraph".equals(chunkType)) {
+            metadata.put("parent_paragraph", paragraph);
+        }
+        return Document.builder().text(text).metadata(metadata).score(score).build();
+    }
+
+    /**
+     * Serves "Paragraph N" for every requested key instead of querying pgvector.
+     */
+    private static class RecordingParentCache extends ParentParagraphCache {
+        final List<Set<String>> loads = new ArrayList<>();
+
+        RecordingParentCache() {
+            super(null, 100);
+        }
+
+        @Override
+        Map<String, Document> load(Set<String> keys) {
+            loads.add(Set.copyOf(keys));
+            Map<String, Document> loaded = new HashMap<>();
+            for (String key : keys) {
+                String index = key.substring(key.lastIndexOf('#') + 1);
+                loaded.put(key, new Document("Paragraph " + index,
+                        Map.of("filename", "q3.pdf", "chunk_type", "paragraph", "paragraph_index", Integer.parseInt(index))));
+            }
+            return loaded;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticAnswerCacheTests {
+
+    private final SemanticAnswerCache cache = new SemanticAnswerCache(0.95, 10, 60);
+
+    @Test
+    void returnsAnswerForNearIdenticalQuestionOfSameModel() {
+        cache.put("openai", new float[] { 1f, 0f, 0f }, "Equities look strong", sources("deck.pdf"));
+
+        assertThat(cache.lookup("openai", new float[] { 0.99f, 0.05f, 0f }))
+                .map(SemanticAnswerCache.CachedAnswer::answer)
+                .contains("Equities look strong");
+        assertThat(cache.lookup("gemini", new float[] { 1f, 0f, 0f })).isEmpty();
+        assertThat(cache.lookup("openai", new float[] { 0f, 1f, 0f })).isEmpty();
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    void reingestingASourceDocumentDropsItsAnswers() {
+        cache.put("openai", new float[] { 1f, 0f }, "From deck A", sources("a.pdf"));
+        cache.put("openai", new float[] { 0f, 1f }, "From deck B", sources("b.pdf"));
+
+        cache.invalidateDocument("a.pdf");
+
+        assertThat(cache.lookup("openai", new float[] { 1f, 0f })).isEmpty();
+        assertThat(cache.lookup("openai", new float[] { 0f, 1f })).isPresent();
+    }
+
+    @Test
+    void blankAnswersAreNotCached() {
+        cache.put("openai", new float[] { 1f, 0f }, null, sources("a.pdf"));
+        cache.put("openai", new float[] { 1f, 0f }, "  ", sources("a.pdf"));
+
+        assertThat(cache.lookup("openai", new float[] { 1f, 0f })).isEmpty();
+    }
+
+    @Test
+    void clearDropsEveryAnswer() {
+        cache.put("openai", new float[] { 1f, 0f }, "From deck A", sources("a.pdf"));
+        cache.put("gemini", new float[] { 0f, 1f }, "From deck B", sources("b.pdf"));
+
+        cache.clear();
+
+        assertThat(cache.lookup("openai", new float[] { 1f, 0f })).isEmpty();
+        assertThat(cache.lookup("gemini", new float[] { 0f, 1f })).isEmpty();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondCapacity() {
+        SemanticAnswerCache small = new SemanticAnswerCache(0.95, 1, 60);
+        small.put("openai", new float[] { 1f, 0f }, "first", sources("a.pdf"));
+        small.put("openai", new float[] { 0f, 1f }, "second", sources("a.pdf"));
+
+        assertThat(small.lookup("openai", new float[] { 1f, 0f })).isEmpty();
+        assertThat(small.lookup("openai", new float[] { 0f, 1f })).isPresent();
+    }
+
+    private static List<Document> sources(String filename) {
+        return List.of(new Document("chunk", Map.of("filename", filename)));
+    }
+}
@@ -0,0 +1,35 @@
+package com.samcode.finance_rag;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTests {
+
+    @Test
+    void startsFullThenBlocksUntilTheRefillCoversTheRequest() throws Exception {
+        // 1,000 tokens per second
+        TokenBucket bucket = new TokenBucket(60_000);
+
+        long started = System.nanoTime();
+        bucket.acquire(60_000);
+        assertThat(elapsedMillis(started)).isLessThan(100);
+
+        started = System.nanoTime();
+        bucket.acquire(300);
+        assertThat(elapsedMillis(started)).isBetween(250L, 2_000L);
+    }
+
+    @Test
+    void requestsLargerThanTheBucketAreClampedToItsCapacity() throws Exception {
+        TokenBucket bucket = new TokenBucket(60_000);
+
+        long started = System.nanoTime();
+        bucket.acquire(1_000_000);
+        assertThat(elapsedMillis(started)).isLessThan(100);
+    }
+
+    private static long elapsedMillis(long started) {
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+}